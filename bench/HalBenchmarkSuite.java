@@ -0,0 +1,552 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Measures the hot paths of the server and the bot so that one release can be
+ * compared with the next. Each benchmark is run for a few warmup iterations that
+ * are thrown away, then for a few measured iterations of a fixed length, the same
+ * way JMH runs a benchmark in throughput mode. The results are printed as a table
+ * and written to a file as JSON or CSV, one benchmark per line in a fixed order so
+ * that two result files can be compared with diff.
+ * <p><p>
+ *
+ * The benchmarks are:
+ * <pre>
+ *   filter      HalServer.filter() on a mix of clean and dirty messages
+ *   broadcast   HalServer.broadcast() to a room of 1, 10, 100 and 1000 clients
+ *   listUsers   HalServer.listUsers() with 10, 100 and 1000 users logged in, both
+ *               while nobody comes or goes and while someone does between calls
+ *   dispatch    HalServer.processInput() for a whisper and for a /users command
+ *   keywords    HalBot.processInput() matching a line against the keywords file
+ * </pre>
+ * Every benchmark runs on one thread, so the numbers say how much work each call
+ * does rather than how well it scales.
+ * <p><p>
+ *
+ * Compile and run from this directory against the server and bot classes:
+ * <pre>
+ *   javac -cp ../server:../bot -d . *.java
+ *   java -cp .:../server:../bot HalBenchmarkSuite [-o results.json] [-format json|csv]
+ *        [-include name] [-warmup n] [-iterations n] [-time milliseconds]
+ * </pre>
+ * The same benchmarks are run by JMH from jmh/HalBenchmarks.java, which the Maven
+ * build packages as target/benchmarks.jar. JMH can only run benchmarks in a named
+ * package, which cannot see the server classes, so it sets each one up through
+ * prepare().
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalBenchmarkSuite
+{
+	//Constants
+	private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+	private static final int DEFAULT_ITERATIONS = 5;
+	private static final long DEFAULT_ITERATION_MILLIS = 1000;
+	private static final int[] ROOM_SIZES = {1, 10, 100, 1000};
+	private static final int[] USER_COUNTS = {10, 100, 1000};
+	private static final String KEYWORDS_FILE = "../bot/keywords.txt";
+	private static final String MESSAGE = "Has anyone seen the new lab computers in Kirkbride yet?";
+	private static final String[] MESSAGES = {
+		"Has anyone seen the new lab computers in Kirkbride yet?",
+		"this compiler is such crap, it just ate my whole project",
+		"Who keeps logging in as MEEKROB and spamming the room",
+		"Can someone whisper me the link to the course notes?"};
+	private static final String[] BOT_LINES = {
+		"alice: does anyone know when the library closes tonight?",
+		"bob: hi bot, how are you",
+		"carol: lol that was the best lecture all term",
+		"dave has entered the room."};
+
+	//Globals
+	private static int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+	private static int iterations = DEFAULT_ITERATIONS;
+	private static long iterationMillis = DEFAULT_ITERATION_MILLIS;
+	private static long blackhole = 0;
+
+	/**
+	 * Runs the benchmarks and writes out the results.
+	 *
+	 * @param  args  The options described above, all optional.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String output = null;
+		String format = "json";
+		String include = null;
+
+		try
+		{
+			for(int i = 0; i < args.length; i++)
+			{
+				if(args[i].equals("-o"))
+					output = args[++i];
+				else if(args[i].equals("-format"))
+					format = args[++i].toLowerCase();
+				else if(args[i].equals("-include"))
+					include = args[++i];
+				else if(args[i].equals("-warmup"))
+					warmupIterations = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-iterations"))
+					iterations = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-time"))
+					iterationMillis = Long.parseLong(args[++i]);
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+
+			if(!format.equals("json") && !format.equals("csv"))
+				throw new IllegalArgumentException(format);
+		}
+		catch(Exception e)
+		{
+			System.err.println("*** Correct usage: java HalBenchmarkSuite [-o results.json] [-format json|csv] [-include name] [-warmup n] [-iterations n] [-time milliseconds]");
+			return;
+		}
+
+		ArrayList<Benchmark> benchmarks = createBenchmarks();
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		System.out.println("benchmark\tparameter\tops/second\terror\tns/op\tbytes/op");
+
+		for(Benchmark benchmark : benchmarks)
+		{
+			if(include != null && !benchmark.name.startsWith(include))
+				continue;
+
+			Result result = measure(benchmark);
+			results.add(result);
+
+			System.out.println(result.name + "\t" + result.parameter + "\t" + Math.round(result.score) + "\t" + Math.round(result.error)
+				+ "\t" + Math.round(result.nanosPerOperation) + "\t" + result.bytesPerOperation);
+		}
+
+		if(output != null)
+		{
+			PrintWriter out = new PrintWriter(new FileWriter(output));
+
+			try
+			{
+				if(format.equals("csv"))
+					writeCsv(out, results);
+				else
+					writeJson(out, results);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			System.out.println("Results written to " + output);
+		}
+	}
+
+	/**
+	 * Sets up one benchmark for another harness to run, ie: JMH. Each call to the
+	 * function returned is one operation, given the number of the operation.
+	 *
+	 * @param   name               The name of the benchmark, ie: "broadcast".
+	 * @param   parameter          What it is set up with, ie: "100 clients", or null for the first.
+	 * @return  IntToLongFunction  The benchmark.
+	 */
+	public static IntToLongFunction prepare(String name, String parameter) throws IOException
+	{
+		for(Benchmark benchmark : createBenchmarks())
+		{
+			if(benchmark.name.equals(name) && (parameter == null || benchmark.parameter.equals(parameter)))
+				return benchmark;
+		}
+
+		throw new IllegalArgumentException("No such benchmark: " + name + " " + parameter);
+	}
+
+	/**
+	 * Sets up every benchmark, in the order they are run and reported.
+	 *
+	 * @return  ArrayList<Benchmark>  The benchmarks.
+	 */
+	private static ArrayList<Benchmark> createBenchmarks() throws IOException
+	{
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		final HalServer filtering = createServer(1);
+		filtering.languageFilter.set(new HalFilter(HalFilterBenchmark.generateWords()));
+
+		benchmarks.add(new Benchmark("filter", filtering.languageFilter.get().getWordCount() + " words")
+		{
+			long run(int operation)
+			{
+				return filtering.filter(MESSAGES[operation % MESSAGES.length]).length();
+			}
+		});
+
+		for(int i = 0; i < ROOM_SIZES.length; i++)
+		{
+			final HalServer server = createServer(ROOM_SIZES[i]);
+			final HalConnection sender = server.clients.firstEntry().getValue();
+
+			benchmarks.add(new Benchmark("broadcast", ROOM_SIZES[i] + " clients")
+			{
+				long run(int operation)
+				{
+					server.broadcast(sender, MESSAGE);
+					return 1;
+				}
+			});
+		}
+
+		for(int i = 0; i < USER_COUNTS.length; i++)
+		{
+			final HalServer server = createServer(USER_COUNTS[i]);
+
+			benchmarks.add(new Benchmark("listUsers", USER_COUNTS[i] + " users")
+			{
+				long run(int operation)
+				{
+					return server.listUsers().length();
+				}
+			});
+
+			//someone arrives or leaves between every call, so the list is built again each time
+			benchmarks.add(new Benchmark("listUsers", USER_COUNTS[i] + " users, changing")
+			{
+				long run(int operation)
+				{
+					if(operation % 2 == 0)
+						server.roster.add(Integer.MAX_VALUE, "visitor");
+					else
+						server.roster.remove(Integer.MAX_VALUE);
+
+					return server.listUsers().length();
+				}
+			});
+		}
+
+		final HalServer dispatching = createServer(100);
+		final HalConnection client = dispatching.clients.firstEntry().getValue();
+
+		benchmarks.add(new Benchmark("dispatch", "/whisper")
+		{
+			long run(int operation)
+			{
+				dispatching.processInput(client, "/whisper user50 did you finish the lab?");
+				return 1;
+			}
+		});
+
+		benchmarks.add(new Benchmark("dispatch", "/users")
+		{
+			long run(int operation)
+			{
+				dispatching.processInput(client, "/users");
+				return 1;
+			}
+		});
+
+		final Vector<String> keywords = readKeywords();
+		final BenchmarkBot bot = new BenchmarkBot();
+
+		benchmarks.add(new Benchmark("keywords", keywords.size() + " keywords")
+		{
+			long run(int operation)
+			{
+				bot.processInput(BOT_LINES[operation % BOT_LINES.length], keywords, "HalBot");
+				return bot.responses;
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/**
+	 * Creates a server with a number of users logged in to the lobby. The users take
+	 * and release whatever they are sent straight away.
+	 *
+	 * @param   users      The number of users.
+	 * @return  HalServer  The server.
+	 */
+	private static HalServer createServer(int users)
+	{
+		HalServer server = new HalServer();
+
+		for(int i = 0; i < users; i++)
+		{
+			HalBroadcastBenchmark.BenchmarkConnection client = new HalBroadcastBenchmark.BenchmarkConnection(server.nextClientId(), "user" + i);
+			server.validateUserId(client, client.getUserId());
+			server.clients.put(client.getId(), client);
+			server.roster.add(client.getId(), client.getUserId());
+			//already caught up, so every message is sent to them live
+			HalRoom.Join join = new HalRoom.Join();
+			join.replayed(client, 0);
+			server.lobby.add(client, join);
+			client.setRoom(server.lobby);
+		}
+
+		return server;
+	}
+
+	/**
+	 * Reads the bots keywords file, skipping comments and blank lines the same way
+	 * the bot does.
+	 *
+	 * @return  Vector  The keywords and their responses.
+	 */
+	private static Vector<String> readKeywords() throws IOException
+	{
+		Vector<String> keywords = new Vector<String>();
+		BufferedReader in = new BufferedReader(new FileReader(KEYWORDS_FILE));
+
+		try
+		{
+			String line = null;
+			while((line = in.readLine()) != null)
+			{
+				if(!line.trim().startsWith("#") && !line.trim().equals(""))
+					keywords.add(line);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return keywords;
+	}
+
+	/**
+	 * Runs a benchmark through its warmup and measured iterations.
+	 *
+	 * @param   benchmark  The benchmark to run.
+	 * @return  Result     How fast it ran.
+	 */
+	private static Result measure(Benchmark benchmark)
+	{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		PrintStream console = System.out;
+		double[] scores = new double[iterations];
+		long operations = 0;
+		long elapsed = 0;
+		long allocated = 0;
+
+		//the bot prints every line it processes, which is not what is being measured
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			public void write(int b){}
+			public void write(byte[] b, int offset, int length){}
+		}));
+
+		try
+		{
+			for(int i = 0; i < warmupIterations; i++)
+				iterate(benchmark);
+
+			for(int i = 0; i < iterations; i++)
+			{
+				long before = threads.getThreadAllocatedBytes(thread);
+				long[] iteration = iterate(benchmark);
+				allocated += threads.getThreadAllocatedBytes(thread) - before;
+
+				operations += iteration[0];
+				elapsed += iteration[1];
+				scores[i] = iteration[0] * 1000000000.0 / iteration[1];
+			}
+		}
+		finally
+		{
+			System.setOut(console);
+		}
+
+		return new Result(benchmark.name, benchmark.parameter, scores, (double)elapsed / operations, allocated / operations);
+	}
+
+	/**
+	 * Runs a benchmark for one iteration. The clock is only read between batches of
+	 * calls, so reading it costs next to nothing compared to the calls themselves.
+	 *
+	 * @param   benchmark  The benchmark to run.
+	 * @return  long[]     The number of calls made and the nanoseconds they took.
+	 */
+	private static long[] iterate(Benchmark benchmark)
+	{
+		long operations = 0;
+		int batch = 1;
+		long start = System.nanoTime();
+		long end = start + iterationMillis * 1000000L;
+		long now = start;
+
+		while(now < end)
+		{
+			long batchStart = now;
+
+			for(int i = 0; i < batch; i++)
+				blackhole += benchmark.run((int)(operations + i));
+
+			operations += batch;
+			now = System.nanoTime();
+
+			//grow the batches until each takes about a millisecond
+			if(now - batchStart < 1000000L && batch < 1000000)
+				batch *= 2;
+		}
+
+		return new long[] {operations, now - start};
+	}
+
+	/**
+	 * Writes the results as JSON, one benchmark to a line.
+	 *
+	 * @param  out      Where to write them.
+	 * @param  results  The results.
+	 */
+	private static void writeJson(PrintWriter out, List<Result> results)
+	{
+		out.println("{");
+		out.println("  \"java\": \"" + System.getProperty("java.version") + "\",");
+		out.println("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",");
+		out.println("  \"iterations\": " + iterations + ",");
+		out.println("  \"iterationMillis\": " + iterationMillis + ",");
+		out.println("  \"results\": [");
+
+		for(int i = 0; i < results.size(); i++)
+		{
+			Result result = results.get(i);
+			out.println("    {\"benchmark\": \"" + result.name + "\", \"parameter\": \"" + result.parameter
+				+ "\", \"score\": " + format(result.score) + ", \"error\": " + format(result.error)
+				+ ", \"unit\": \"ops/s\", \"nsPerOp\": " + format(result.nanosPerOperation)
+				+ ", \"bytesPerOp\": " + result.bytesPerOperation + "}" + (i < results.size() - 1 ? "," : ""));
+		}
+
+		out.println("  ]");
+		out.println("}");
+	}
+
+	/**
+	 * Writes the results as CSV with a header line.
+	 *
+	 * @param  out      Where to write them.
+	 * @param  results  The results.
+	 */
+	private static void writeCsv(PrintWriter out, List<Result> results)
+	{
+		out.println("benchmark,parameter,score,error,unit,nsPerOp,bytesPerOp");
+
+		for(Result result : results)
+		{
+			out.println(result.name + ",\"" + result.parameter + "\"," + format(result.score) + "," + format(result.error)
+				+ ",ops/s," + format(result.nanosPerOperation) + "," + result.bytesPerOperation);
+		}
+	}
+
+	/**
+	 * Formats a number with one decimal place, the same way whatever the locale.
+	 *
+	 * @param   value   The number.
+	 * @return  String  The formatted number.
+	 */
+	private static String format(double value)
+	{
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	/**
+	 * One benchmark. Each call to run() is one operation.
+	 */
+	private static abstract class Benchmark implements IntToLongFunction
+	{
+		//Globals
+		final String name;
+		final String parameter;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  name       The name of the benchmark, ie: "broadcast".
+		 * @param  parameter  What this run of it is set up with, ie: "100 clients".
+		 */
+		Benchmark(String name, String parameter)
+		{
+			this.name = name;
+			this.parameter = parameter;
+		}
+
+		/**
+		 * Runs one operation.
+		 *
+		 * @param   operation  The number of the operation, for picking an input.
+		 * @return  long       Something computed from the result, so it is not optimized away.
+		 */
+		abstract long run(int operation);
+
+		/**
+		 * Runs one operation for another harness.
+		 *
+		 * @param   operation  The number of the operation.
+		 * @return  long       Something computed from the result.
+		 */
+		public long applyAsLong(int operation)
+		{
+			return run(operation);
+		}
+	}
+
+	/**
+	 * How fast one benchmark ran. The score is the average number of operations per
+	 * second over the measured iterations, and the error is the standard deviation
+	 * of the iterations.
+	 */
+	private static class Result
+	{
+		//Globals
+		final String name;
+		final String parameter;
+		final double score;
+		final double error;
+		final double nanosPerOperation;
+		final long bytesPerOperation;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  name               The name of the benchmark.
+		 * @param  parameter          What it was set up with.
+		 * @param  scores             The operations per second of each measured iteration.
+		 * @param  nanosPerOperation  The average time each operation took.
+		 * @param  bytesPerOperation  The average bytes each operation allocated.
+		 */
+		Result(String name, String parameter, double[] scores, double nanosPerOperation, long bytesPerOperation)
+		{
+			double sum = 0;
+			for(int i = 0; i < scores.length; i++)
+				sum += scores[i];
+
+			double mean = sum / scores.length;
+			double squares = 0;
+			for(int i = 0; i < scores.length; i++)
+				squares += (scores[i] - mean) * (scores[i] - mean);
+
+			this.name = name;
+			this.parameter = parameter;
+			this.score = mean;
+			this.error = scores.length > 1 ? Math.sqrt(squares / (scores.length - 1)) : 0;
+			this.nanosPerOperation = nanosPerOperation;
+			this.bytesPerOperation = bytesPerOperation;
+		}
+	}
+
+	/**
+	 * A bot that counts its responses instead of sending them to a server.
+	 */
+	private static class BenchmarkBot extends HalBot
+	{
+		//Globals
+		long responses = 0;
+
+		protected synchronized void sendMessage(String message)
+		{
+			responses += message.length();
+		}
+	}
+}
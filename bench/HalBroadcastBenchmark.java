@@ -0,0 +1,177 @@
+import java.lang.management.*;
+
+/**
+ * Measures how many bytes the broadcasting thread allocates for each broadcast
+ * at different room sizes. The room is filled with clients that take and release
+ * each frame straight away, so only the cost of the broadcast itself is counted.
+ * For comparison the old path, which formatted and encoded the message once for
+ * every client, is measured as well.
+ * <p><p>
+ *
+ * Compile and run from this directory against the server classes:
+ * <pre>
+ *   javac -cp ../server -d . *.java
+ *   java -cp .:../server HalBroadcastBenchmark
+ * </pre>
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalBroadcastBenchmark
+{
+	//Constants
+	private static final int[] ROOM_SIZES = {1, 10, 100, 1000, 10000};
+	private static final int WARMUP_BROADCASTS = 20000;
+	private static final int MEASURED_BROADCASTS = 20000;
+	private static final String MESSAGE = "Has anyone seen the new lab computers in Kirkbride yet?";
+
+	/**
+	 * Runs the benchmark for every room size and prints the results.
+	 *
+	 * @param  args  Input parameters are not used in this class.
+	 */
+	public static void main(String[] args)
+	{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		System.out.println("room size\tbytes/broadcast\tbytes/recipient\told bytes/broadcast\told bytes/recipient");
+
+		for(int r = 0; r < ROOM_SIZES.length; r++)
+		{
+			HalServer server = new HalServer();
+			BenchmarkConnection sender = null;
+
+			for(int i = 0; i < ROOM_SIZES[r]; i++)
+			{
+				BenchmarkConnection client = new BenchmarkConnection(server.nextClientId(), "user" + i);
+				server.clients.put(client.getId(), client);
+				//already caught up, so every message is sent to them live
+				HalRoom.Join join = new HalRoom.Join();
+				join.replayed(client, 0);
+				server.lobby.add(client, join);
+				client.setRoom(server.lobby);
+
+				if(sender == null)
+					sender = client;
+			}
+
+			int broadcasts = Math.max(MEASURED_BROADCASTS / ROOM_SIZES[r], 20);
+
+			//encode once and share the frame
+			for(int i = 0; i < WARMUP_BROADCASTS / ROOM_SIZES[r] + 20; i++)
+				server.broadcast(sender, MESSAGE);
+
+			long before = threads.getThreadAllocatedBytes(thread);
+			for(int i = 0; i < broadcasts; i++)
+				server.broadcast(sender, MESSAGE);
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+			//format and encode for every client, as broadcast() used to
+			for(int i = 0; i < WARMUP_BROADCASTS / ROOM_SIZES[r] + 20; i++)
+				oldBroadcast(server, sender);
+
+			before = threads.getThreadAllocatedBytes(thread);
+			for(int i = 0; i < broadcasts; i++)
+				oldBroadcast(server, sender);
+			long oldAllocated = threads.getThreadAllocatedBytes(thread) - before;
+
+			System.out.println(ROOM_SIZES[r] + "\t" + (allocated / broadcasts) + "\t" + (allocated / broadcasts / ROOM_SIZES[r])
+				+ "\t" + (oldAllocated / broadcasts) + "\t" + (oldAllocated / broadcasts / ROOM_SIZES[r]));
+		}
+	}
+
+	/**
+	 * The broadcast path from before frames were shared between clients.
+	 *
+	 * @param  server  The server whose clients receive the message.
+	 * @param  sender  The client sending the message.
+	 */
+	private static void oldBroadcast(HalServer server, HalConnection sender)
+	{
+		for(HalConnection recipient : server.clients.values())
+			((BenchmarkConnection)recipient).consume((sender.getUserId() + ": " + MESSAGE + server.NEW_LINE).getBytes(server.CHARSET));
+	}
+
+	/**
+	 * A client that is always keeping up. Frames are released as soon as they are
+	 * queued, the way a writer would release them after writing.
+	 */
+	static class BenchmarkConnection implements HalConnection
+	{
+		private int id = 0;
+		private String userId = null;
+		private HalRoom room = null;
+		private long bytes = 0;
+
+		BenchmarkConnection(int id, String userId)
+		{
+			this.id = id;
+			this.userId = userId;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public String getUserId()
+		{
+			return userId;
+		}
+
+		public String getIp()
+		{
+			return "127.0.0.1";
+		}
+
+		public int getProtocol()
+		{
+			return HalProtocol.TEXT;
+		}
+
+		public HalRoom getRoom()
+		{
+			return room;
+		}
+
+		public void setRoom(HalRoom room)
+		{
+			this.room = room;
+		}
+
+		public long getConnectTime()
+		{
+			return 0;
+		}
+
+		public int getQueuedFrames()
+		{
+			return 0;
+		}
+
+		public int getQueuedBytes()
+		{
+			return 0;
+		}
+
+		public void sendMessage(String message)
+		{
+			consume(message.getBytes());
+		}
+
+		public void sendFrame(HalFrame frame)
+		{
+			frame.retain();
+			bytes += frame.length();
+			frame.release();
+		}
+
+		void consume(byte[] data)
+		{
+			bytes += data.length;
+		}
+
+		public void disconnect(){}
+	}
+}
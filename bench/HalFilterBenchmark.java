@@ -0,0 +1,193 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures how long the language filter takes per message with a large filter list.
+ * The words from filter.txt are padded out with generated words to WORD_COUNT, and
+ * a mix of clean and dirty chat messages is filtered first on one thread and then
+ * on several threads at once. For comparison the old filter, which checked every
+ * word in turn with a regex replace while holding the server lock, is measured as
+ * well.
+ * <p><p>
+ *
+ * Compile and run from this directory against the server classes:
+ * <pre>
+ *   javac -cp ../server -d . *.java
+ *   java -cp .:../server HalFilterBenchmark
+ * </pre>
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalFilterBenchmark
+{
+	//Constants
+	private static final int WORD_COUNT = 1500;
+	private static final int THREADS = 4;
+	private static final int WARMUP_MESSAGES = 50000;
+	private static final int MEASURED_MESSAGES = 20000;
+	private static final String[] FILTER_FILE_WORDS = {"ass", "fuck", "shit", "bitch", "crap", "meekrob"};
+	private static final String[] MESSAGES = {
+		"Has anyone seen the new lab computers in Kirkbride yet?",
+		"I think the assignment is due on Friday, not Thursday",
+		"this compiler is such crap, it just ate my whole project",
+		"Is the meeting still in the library at seven tonight?",
+		"Who keeps logging in as MEEKROB and spamming the room",
+		"lol no way, the server stayed up the whole weekend",
+		"Can someone whisper me the link to the course notes?",
+		"The cafeteria pizza was actually good today for once"};
+
+	//Globals
+	private static String[] words = null;
+	private static final Object lock = new Object();
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 *
+	 * @param  args  Input parameters are not used in this class.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		words = generateWords();
+		final HalFilter filter = new HalFilter(words);
+
+		System.out.println("Filtering " + filter.getWordCount() + " words, " + MESSAGES.length + " different messages");
+		System.out.println("filter\tthreads\tns/message\tmessages/second");
+
+		Task automaton = new Task()
+		{
+			public String filter(String message)
+			{
+				return filter.filter(message);
+			}
+		};
+
+		Task old = new Task()
+		{
+			public String filter(String message)
+			{
+				synchronized(lock)
+				{
+					return oldFilter(message);
+				}
+			}
+		};
+
+		measure("automaton", automaton, 1);
+		measure("old", old, 1);
+		measure("automaton", automaton, THREADS);
+		measure("old", old, THREADS);
+	}
+
+	/**
+	 * Filters messages on a number of threads at once and prints how long each took.
+	 *
+	 * @param  name     The name of the filter being measured.
+	 * @param  task     The filter being measured.
+	 * @param  threads  The number of threads filtering at once.
+	 */
+	private static void measure(String name, final Task task, int threads) throws Exception
+	{
+		run(task, 1, WARMUP_MESSAGES);
+
+		long start = System.nanoTime();
+		run(task, threads, MEASURED_MESSAGES);
+		long elapsed = System.nanoTime() - start;
+
+		long messages = (long)threads * MEASURED_MESSAGES;
+		System.out.println(name + "\t" + threads + "\t" + (elapsed / messages) + "\t" + (messages * 1000000000L / elapsed));
+	}
+
+	/**
+	 * Filters a number of messages on each of a number of threads.
+	 *
+	 * @param  task      The filter to use.
+	 * @param  threads   The number of threads.
+	 * @param  messages  The number of messages each thread filters.
+	 */
+	private static void run(final Task task, int threads, final int messages) throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+		for(int t = 0; t < threads; t++)
+		{
+			results.add(executor.submit(new Callable<Integer>()
+			{
+				public Integer call()
+				{
+					int length = 0;
+
+					for(int i = 0; i < messages; i++)
+						length += task.filter(MESSAGES[i % MESSAGES.length]).length();
+
+					return length;
+				}
+			}));
+		}
+
+		for(Future<Integer> result : results)
+			result.get();
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the words from filter.txt followed by made up words, the same ones every run.
+	 *
+	 * @return  String[]  WORD_COUNT filtered words.
+	 */
+	static String[] generateWords()
+	{
+		String[] generated = new String[WORD_COUNT];
+		Random random = new Random(4545);
+
+		for(int i = 0; i < WORD_COUNT; i++)
+		{
+			if(i < FILTER_FILE_WORDS.length)
+			{
+				generated[i] = FILTER_FILE_WORDS[i];
+				continue;
+			}
+
+			char[] word = new char[4 + random.nextInt(6)];
+			for(int j = 0; j < word.length; j++)
+				word[j] = (char)('a' + random.nextInt(26));
+
+			generated[i] = new String(word);
+		}
+
+		return generated;
+	}
+
+	/**
+	 * The filter from before the words were compiled into a HalFilter.
+	 *
+	 * @param   message  Unfiltered message.
+	 * @return  String   Filtered message.
+	 */
+	private static String oldFilter(String message)
+	{
+		for(int i = 0; i < words.length; i++)
+		{
+			if(message.toLowerCase().indexOf(words[i]) != -1)
+			{
+				String blockString = "";
+				for(int j = 0; j < words[i].length(); j++)
+					blockString += "*";
+
+				message = message.replaceAll(words[i].toLowerCase(), blockString);
+			}
+		}
+
+		return message;
+	}
+
+	/**
+	 * A filter being measured.
+	 */
+	private interface Task
+	{
+		String filter(String message);
+	}
+}
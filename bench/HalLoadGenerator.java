@@ -0,0 +1,668 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Puts a server under load with many simulated chatters from one process. Each
+ * chatter logs in the way HalBot does, answering the "Login:" prompt with a name of
+ * its own, and then the chatters take turns sending messages at a fixed total rate.
+ * Every message carries the time it was sent, so when it comes back from the server
+ * to the members of the room the time it took to be delivered can be measured.
+ * <p><p>
+ *
+ * All of the connections are served by a single thread using a selector, so even
+ * thousands of chatters only cost one thread. The chatters can be spread over a
+ * number of rooms to keep the fan-out of each message down, and can speak the
+ * binary protocol instead of text.
+ * <p><p>
+ *
+ * The server has to let that many clients in, so set MaxClients in its config file
+ * first. Compile and run from this directory against the server and bot classes:
+ * <pre>
+ *   javac -cp ../server:../bot -d . *.java
+ *   java -cp .:../server:../bot HalLoadGenerator [-host 127.0.0.1] [-port 4545]
+ *        [-clients 100] [-rate 200] [-seconds 30] [-rooms 1] [-size 64]
+ *        [-protocol text|binary] [-o results.json]
+ * </pre>
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalLoadGenerator
+{
+	//Constants
+	private static final String NAME_PREFIX = "load";
+	private static final String MARKER = "lt ";
+	private static final String ROOM_PREFIX = "load";
+	private static final int CONNECT_BATCH = 200;
+	private static final long LOGIN_TIMEOUT = 60000;
+	private static final long DRAIN_MILLIS = 2000;
+	private static final long REPORT_INTERVAL = 1000;
+	private static final int READ_BUFFER_SIZE = 65536;
+	private static final int MAX_FRAME_LENGTH = 1048576;
+
+	//Globals
+	private String host = "127.0.0.1";
+	private int port = 4545;
+	private int clients = 100;
+	private int rate = 200;
+	private int seconds = 30;
+	private int rooms = 1;
+	private int size = 64;
+	private boolean binary = false;
+	private String output = null;
+	private Selector selector = null;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final ArrayList<Chatter> chatters = new ArrayList<Chatter>();
+	private int[] roomSizes = null;
+	private int loggedIn = 0;
+	private int failed = 0;
+	private long sent = 0;
+	private long expected = 0;
+	private long delivered = 0;
+	private long measuring = 0;
+	private final HalHistogram latencies = new HalHistogram();
+
+	/**
+	 * Reads the options and runs the load.
+	 *
+	 * @param  args  The options described above, all optional.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		HalLoadGenerator generator = new HalLoadGenerator();
+
+		try
+		{
+			for(int i = 0; i < args.length; i++)
+			{
+				if(args[i].equals("-host"))
+					generator.host = args[++i];
+				else if(args[i].equals("-port"))
+					generator.port = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-clients"))
+					generator.clients = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-rate"))
+					generator.rate = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-seconds"))
+					generator.seconds = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-rooms"))
+					generator.rooms = Math.max(Integer.parseInt(args[++i]), 1);
+				else if(args[i].equals("-size"))
+					generator.size = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-protocol"))
+					generator.binary = args[++i].equalsIgnoreCase("binary");
+				else if(args[i].equals("-o"))
+					generator.output = args[++i];
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+		}
+		catch(Exception e)
+		{
+			System.err.println("*** Correct usage: java HalLoadGenerator [-host 127.0.0.1] [-port 4545] [-clients 100] [-rate 200]"
+				+ " [-seconds 30] [-rooms 1] [-size 64] [-protocol text|binary] [-o results.json]");
+			return;
+		}
+
+		generator.run();
+	}
+
+	/**
+	 * Connects and logs in every chatter, sends messages for the configured time, waits
+	 * a moment for the last ones to arrive and then prints the results.
+	 */
+	private void run() throws IOException
+	{
+		selector = Selector.open();
+		roomSizes = new int[rooms];
+
+		System.out.println("Connecting " + clients + " chatters to " + host + ":" + port + " in " + rooms + " rooms, "
+			+ (binary ? "binary" : "text") + " protocol");
+
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		long deadline = System.currentTimeMillis() + LOGIN_TIMEOUT;
+
+		//connect a batch at a time so the servers accept backlog is not overrun
+		while(loggedIn + failed < clients && System.currentTimeMillis() < deadline)
+		{
+			while(chatters.size() < clients && chatters.size() - loggedIn - failed < CONNECT_BATCH)
+				connect(address, chatters.size());
+
+			poll(10);
+		}
+
+		if(loggedIn == 0)
+		{
+			System.err.println("*** No chatters could log in. Is the server running, and is MaxClients high enough?");
+			return;
+		}
+
+		System.out.println(loggedIn + " chatters logged in, " + failed + " failed. Sending " + rate + " messages a second for " + seconds + " seconds");
+		System.out.println("second\tsent\tdelivered\tp50\tp99\tmax");
+
+		long start = System.currentTimeMillis();
+		long end = start + seconds * 1000L;
+		long nextReport = start + REPORT_INTERVAL;
+		int next = 0;
+		long reportedSent = 0;
+		long reportedDelivered = 0;
+		measuring = System.nanoTime();
+
+		while(System.currentTimeMillis() < end)
+		{
+			//send whatever is due so that the rate holds even if a poll runs long
+			long due = (System.currentTimeMillis() - start) * rate / 1000 - sent;
+			for(long i = 0; i < due; i++)
+			{
+				Chatter chatter = chatters.get(next++ % chatters.size());
+
+				if(chatter.loggedIn && !chatter.closed)
+					send(chatter);
+			}
+
+			poll(1);
+
+			if(System.currentTimeMillis() >= nextReport)
+			{
+				System.out.println(((nextReport - start) / 1000) + "\t" + (sent - reportedSent) + "\t" + (delivered - reportedDelivered)
+					+ "\t" + latencies.getPercentile(50) / 1000 + "us\t" + latencies.getPercentile(99) / 1000 + "us\t" + latencies.getMax() / 1000 + "us");
+
+				reportedSent = sent;
+				reportedDelivered = delivered;
+				nextReport += REPORT_INTERVAL;
+			}
+		}
+
+		long stopped = System.nanoTime();
+
+		//give the last messages time to arrive before counting what was lost
+		long drained = System.currentTimeMillis() + DRAIN_MILLIS;
+		while(delivered < expected && System.currentTimeMillis() < drained)
+			poll(10);
+
+		report(stopped - measuring);
+
+		for(Chatter chatter : chatters)
+			close(chatter);
+
+		selector.close();
+	}
+
+	/**
+	 * Starts connecting one chatter.
+	 *
+	 * @param  address  The address of the server.
+	 * @param  number   The number of the chatter, which its name and room come from.
+	 */
+	private void connect(InetSocketAddress address, int number) throws IOException
+	{
+		Chatter chatter = new Chatter(NAME_PREFIX + number, number % rooms);
+		chatters.add(chatter);
+
+		try
+		{
+			chatter.channel = SocketChannel.open();
+			chatter.channel.configureBlocking(false);
+			chatter.channel.socket().setTcpNoDelay(true);
+
+			if(chatter.channel.connect(address))
+				chatter.key = chatter.channel.register(selector, SelectionKey.OP_READ, chatter);
+			else
+				chatter.key = chatter.channel.register(selector, SelectionKey.OP_CONNECT, chatter);
+		}
+		catch(IOException ioe)
+		{
+			fail(chatter, ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Waits for the selector and handles every connection that is ready.
+	 *
+	 * @param  timeout  The longest to wait, in milliseconds.
+	 */
+	private void poll(long timeout) throws IOException
+	{
+		selector.select(timeout);
+
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while(keys.hasNext())
+		{
+			SelectionKey key = keys.next();
+			keys.remove();
+			Chatter chatter = (Chatter)key.attachment();
+
+			try
+			{
+				if(key.isConnectable() && chatter.channel.finishConnect())
+					key.interestOps(SelectionKey.OP_READ);
+
+				if(key.isValid() && key.isReadable())
+					read(chatter);
+
+				if(key.isValid() && key.isWritable())
+					flush(chatter);
+			}
+			catch(IOException ioe)
+			{
+				fail(chatter, ioe.getMessage());
+			}
+			catch(CancelledKeyException cke){}
+		}
+	}
+
+	/**
+	 * Reads whatever has arrived for a chatter and handles each complete line or frame.
+	 *
+	 * @param  chatter  The chatter to read for.
+	 */
+	private void read(Chatter chatter) throws IOException
+	{
+		readBuffer.clear();
+		int count = chatter.channel.read(readBuffer);
+
+		if(count == -1)
+		{
+			fail(chatter, "disconnected by the server");
+			return;
+		}
+
+		long now = System.nanoTime();
+		byte[] data = readBuffer.array();
+		int i = 0;
+
+		while(i < count)
+		{
+			if(chatter.framed)
+			{
+				//the length at the front of the frame says how much more to wait for
+				int size = chatter.input.size();
+				int length = size < 4 ? 0 : chatter.input.getInt();
+				int take = Math.min(size < 4 ? 4 - size : length + 4 - size, count - i);
+
+				chatter.input.write(data, i, take);
+				i += take;
+
+				if(size < 4 && chatter.input.size() == 4)
+				{
+					length = chatter.input.getInt();
+
+					if(length < HalProtocol.HEADER_LENGTH || length > MAX_FRAME_LENGTH)
+						throw new IOException("Invalid frame length: " + length);
+				}
+				else if(size >= 4 && chatter.input.size() == length + 4)
+				{
+					HalProtocol.Message message = HalProtocol.decode(chatter.input.buffer(), 4, length);
+					chatter.input.reset();
+
+					if(message.kind == HalProtocol.PING)
+						pong(chatter);
+					else
+						received(chatter, message.kind == HalProtocol.CHAT ? message.text : message.toString(), now);
+				}
+			}
+			else
+			{
+				int end = i;
+				while(end < count && data[end] != '\n')
+					end++;
+
+				chatter.input.write(data, i, end - i);
+				i = end;
+
+				if(end < count)
+				{
+					String line = new String(chatter.input.buffer(), 0, chatter.input.size(), HalProtocol.CHARSET).trim();
+					chatter.input.reset();
+					i++;
+					received(chatter, line, now);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles one message a chatter received. Until the chatter has logged in this
+	 * follows the login prompts, after that it looks for the time a message was sent.
+	 *
+	 * @param  chatter  The chatter that received the message.
+	 * @param  text     The message, or for a chat message in the binary protocol only its text.
+	 * @param  now      When it arrived, from System.nanoTime().
+	 */
+	private void received(Chatter chatter, String text, long now) throws IOException
+	{
+		if(chatter.loggedIn)
+		{
+			if(text.equals(HalProtocol.PING_TEXT))
+			{
+				pong(chatter);
+				return;
+			}
+
+			int marker = text.indexOf(MARKER);
+			if(marker == -1)
+				return;
+
+			int end = text.indexOf(' ', marker + MARKER.length());
+
+			try
+			{
+				long sentAt = Long.parseLong(text.substring(marker + MARKER.length(), end == -1 ? text.length() : end));
+
+				if(sentAt >= measuring)
+				{
+					latencies.record(now - sentAt);
+					delivered++;
+				}
+			}
+			catch(NumberFormatException nfe){}
+
+			return;
+		}
+
+		//the server asks for a name again once it has switched to the binary protocol
+		if(text.equals("Login:") && !chatter.prompted)
+		{
+			chatter.prompted = true;
+
+			if(binary && !chatter.framed)
+				sendLine(chatter, HalProtocol.NEGOTIATE);
+			else
+				sendLine(chatter, chatter.name);
+		}
+		else if(text.equals(HalProtocol.ACCEPT))
+		{
+			chatter.framed = true;
+			chatter.prompted = false;
+		}
+		else if(text.startsWith("Welcome, "))
+		{
+			if(chatter.room != 0)
+				sendLine(chatter, "/join " + ROOM_PREFIX + chatter.room);
+			else
+				joined(chatter);
+		}
+		else if(text.startsWith("* You have joined "))
+			joined(chatter);
+		else if(text.startsWith("* Too many clients"))
+			fail(chatter, text);
+		else if(text.equals("Login:") || text.startsWith("That name is already"))
+			fail(chatter, "the name " + chatter.name + " was turned down");
+	}
+
+	/**
+	 * Counts a chatter as ready, once it is in its room.
+	 *
+	 * @param  chatter  The chatter.
+	 */
+	private void joined(Chatter chatter)
+	{
+		chatter.loggedIn = true;
+		roomSizes[chatter.room]++;
+		loggedIn++;
+	}
+
+	/**
+	 * Sends one timed message from a chatter. Every member of its room, the chatter
+	 * included, should get it back.
+	 *
+	 * @param  chatter  The chatter sending the message.
+	 */
+	private void send(Chatter chatter) throws IOException
+	{
+		StringBuilder message = new StringBuilder(size + 32);
+		message.append(MARKER).append(System.nanoTime()).append(' ');
+
+		while(message.length() < size)
+			message.append('x');
+
+		sendLine(chatter, message.toString());
+		sent++;
+		expected += roomSizes[chatter.room];
+	}
+
+	/**
+	 * Sends a line a chatter typed, in whichever protocol it is speaking.
+	 *
+	 * @param  chatter  The chatter.
+	 * @param  line     The line.
+	 */
+	private void sendLine(Chatter chatter, String line) throws IOException
+	{
+		if(chatter.framed)
+			write(chatter, encode(HalProtocol.CHAT, line));
+		else
+			write(chatter, (line + "\n").getBytes(HalProtocol.CHARSET));
+	}
+
+	/**
+	 * Answers a PING from the server, so that it does not disconnect a chatter that
+	 * has been quiet.
+	 *
+	 * @param  chatter  The chatter.
+	 */
+	private void pong(Chatter chatter) throws IOException
+	{
+		if(chatter.framed)
+			write(chatter, encode(HalProtocol.PONG, ""));
+		else
+			write(chatter, (HalProtocol.PONG_TEXT + "\n").getBytes(HalProtocol.CHARSET));
+	}
+
+	/**
+	 * Encodes a frame.
+	 *
+	 * @param   kind    The kind of frame, ie: HalProtocol.CHAT.
+	 * @param   text    The text of the frame.
+	 * @return  byte[]  The frame.
+	 */
+	private byte[] encode(int kind, String text) throws IOException
+	{
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(text.length() + 16);
+		HalProtocol.write(new DataOutputStream(frame), kind, 0, null, text);
+
+		return frame.toByteArray();
+	}
+
+	/**
+	 * Writes bytes to a chatter's connection. Whatever the socket will not take yet is
+	 * kept and written when the selector says it is writable.
+	 *
+	 * @param  chatter  The chatter.
+	 * @param  data     The bytes to write.
+	 */
+	private void write(Chatter chatter, byte[] data) throws IOException
+	{
+		if(chatter.closed)
+			return;
+
+		if(chatter.output.position() == 0)
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			chatter.channel.write(buffer);
+
+			if(!buffer.hasRemaining())
+				return;
+
+			data = Arrays.copyOfRange(data, buffer.position(), data.length);
+		}
+
+		if(chatter.output.remaining() < data.length)
+		{
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(chatter.output.capacity() * 2, chatter.output.position() + data.length));
+			chatter.output.flip();
+			larger.put(chatter.output);
+			chatter.output = larger;
+		}
+
+		chatter.output.put(data);
+		chatter.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Writes whatever a chatter has waiting.
+	 *
+	 * @param  chatter  The chatter.
+	 */
+	private void flush(Chatter chatter) throws IOException
+	{
+		chatter.output.flip();
+		chatter.channel.write(chatter.output);
+		chatter.output.compact();
+
+		if(chatter.output.position() == 0)
+			chatter.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Gives up on a chatter whose connection or login failed.
+	 *
+	 * @param  chatter  The chatter.
+	 * @param  reason   Why it failed.
+	 */
+	private void fail(Chatter chatter, String reason)
+	{
+		if(chatter.closed)
+			return;
+
+		if(chatter.loggedIn)
+		{
+			roomSizes[chatter.room]--;
+			loggedIn--;
+		}
+
+		if(failed++ == 0)
+			System.err.println("*** Chatter " + chatter.name + " failed: " + reason);
+
+		chatter.loggedIn = false;
+		close(chatter);
+	}
+
+	/**
+	 * Closes a chatter's connection.
+	 *
+	 * @param  chatter  The chatter.
+	 */
+	private void close(Chatter chatter)
+	{
+		chatter.closed = true;
+
+		try
+		{
+			if(chatter.channel != null)
+				chatter.channel.close();
+		}
+		catch(IOException ioe){}
+	}
+
+	/**
+	 * Prints the results, and writes them as JSON if an output file was given.
+	 *
+	 * @param  elapsed  How long messages were sent for, in nanoseconds.
+	 */
+	private void report(long elapsed) throws IOException
+	{
+		double seconds = elapsed / 1000000000.0;
+		long lost = Math.max(expected - delivered, 0);
+
+		System.out.println("Chatters:        \t" + loggedIn + " logged in, " + failed + " failed");
+		System.out.println("Messages sent:   \t" + sent + ", " + format(sent / seconds) + "/s");
+		System.out.println("Deliveries:      \t" + delivered + " of " + expected + ", " + format(delivered / seconds) + "/s, " + lost + " missing");
+		System.out.println("Latency:         \t" + latencies);
+
+		if(output == null)
+			return;
+
+		PrintWriter out = new PrintWriter(new FileWriter(output));
+
+		try
+		{
+			out.println("{");
+			out.println("  \"clients\": " + clients + ", \"loggedIn\": " + loggedIn + ", \"failed\": " + failed + ",");
+			out.println("  \"rooms\": " + rooms + ", \"protocol\": \"" + (binary ? "binary" : "text") + "\", \"size\": " + size + ",");
+			out.println("  \"rate\": " + rate + ", \"seconds\": " + format(seconds) + ",");
+			out.println("  \"sent\": " + sent + ", \"expected\": " + expected + ", \"delivered\": " + delivered + ", \"missing\": " + lost + ",");
+			out.println("  \"deliveriesPerSecond\": " + format(delivered / seconds) + ",");
+			out.println("  \"latencyMicros\": {\"mean\": " + latencies.getMean() / 1000 + ", \"p50\": " + latencies.getPercentile(50) / 1000
+				+ ", \"p90\": " + latencies.getPercentile(90) / 1000 + ", \"p99\": " + latencies.getPercentile(99) / 1000
+				+ ", \"p99.9\": " + latencies.getPercentile(99.9) / 1000 + ", \"max\": " + latencies.getMax() / 1000 + "}");
+			out.println("}");
+		}
+		finally
+		{
+			out.close();
+		}
+
+		System.out.println("Results written to " + output);
+	}
+
+	/**
+	 * Formats a number with one decimal place, the same way whatever the locale.
+	 *
+	 * @param   value   The number.
+	 * @return  String  The formatted number.
+	 */
+	private static String format(double value)
+	{
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	/**
+	 * One simulated chatter and its connection.
+	 */
+	private static class Chatter
+	{
+		//Globals
+		final String name;
+		final int room;
+		SocketChannel channel = null;
+		SelectionKey key = null;
+		final Input input = new Input();
+		ByteBuffer output = ByteBuffer.allocate(256);
+		boolean prompted = false;
+		boolean framed = false;
+		boolean loggedIn = false;
+		boolean closed = false;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  name  The name the chatter logs in with.
+		 * @param  room  The number of the room it joins, 0 for the lobby.
+		 */
+		Chatter(String name, int room)
+		{
+			this.name = name;
+			this.room = room;
+		}
+	}
+
+	/**
+	 * The bytes of the line or frame a chatter is part way through receiving.
+	 */
+	private static class Input extends ByteArrayOutputStream
+	{
+		/**
+		 * Returns the buffer holding the bytes, without copying it.
+		 *
+		 * @return  byte[]  The buffer, holding size() bytes.
+		 */
+		byte[] buffer()
+		{
+			return buf;
+		}
+
+		/**
+		 * Returns the length at the front of a frame, once the first 4 bytes are in.
+		 *
+		 * @return  int  The length of the rest of the frame.
+		 */
+		int getInt()
+		{
+			return ((buf[0] & 0xff) << 24) | ((buf[1] & 0xff) << 16) | ((buf[2] & 0xff) << 8) | (buf[3] & 0xff);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package jmh;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The benchmarks of HalBenchmarkSuite, run by JMH. JMH only runs benchmarks in a
+ * named package, and a class in a named package cannot see the server and bot
+ * classes, so each benchmark is set up by HalBenchmarkSuite.prepare() and called
+ * through the function it returns. Every benchmark measures throughput on one
+ * thread, the same as the suite.
+ * <p><p>
+ *
+ * Build with Maven from the top directory and run from the bench directory, so
+ * the bots keywords file is found. The results can be written as JSON or CSV and
+ * compared with the results of another release:
+ * <pre>
+ *   mvn package
+ *   cd bench
+ *   java -jar target/benchmarks.jar -rf json -rff results.json [benchmark regex]
+ * </pre>
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HalBenchmarks
+{
+	/**
+	 * HalServer.filter() on a mix of clean and dirty messages.
+	 */
+	@Benchmark
+	public long filter(Filter state)
+	{
+		return state.next();
+	}
+
+	/**
+	 * HalServer.broadcast() to a room of clients.
+	 */
+	@Benchmark
+	public long broadcast(Broadcast state)
+	{
+		return state.next();
+	}
+
+	/**
+	 * HalServer.listUsers() while nobody comes or goes.
+	 */
+	@Benchmark
+	public long listUsers(ListUsers state)
+	{
+		return state.next();
+	}
+
+	/**
+	 * HalServer.listUsers() while someone arrives or leaves between every call.
+	 */
+	@Benchmark
+	public long listUsersChanging(ListUsersChanging state)
+	{
+		return state.next();
+	}
+
+	/**
+	 * HalServer.processInput() running a command.
+	 */
+	@Benchmark
+	public long dispatch(Dispatch state)
+	{
+		return state.next();
+	}
+
+	/**
+	 * HalBot.processInput() matching a line against the keywords file.
+	 */
+	@Benchmark
+	public long keywords(Keywords state)
+	{
+		return state.next();
+	}
+
+	/**
+	 * One benchmark set up by HalBenchmarkSuite, and the number of the next
+	 * operation.
+	 */
+	public static abstract class Prepared
+	{
+		//Globals
+		private IntToLongFunction benchmark = null;
+		private int operation = 0;
+
+		/**
+		 * Sets up the benchmark.
+		 *
+		 * @param  name       The name of the benchmark, ie: "broadcast".
+		 * @param  parameter  What it is set up with, ie: "100 clients", or null for the first.
+		 */
+		void prepare(String name, String parameter) throws Exception
+		{
+			benchmark = (IntToLongFunction)Class.forName("HalBenchmarkSuite").getMethod("prepare", String.class, String.class).invoke(null, name, parameter);
+		}
+
+		/**
+		 * Runs the next operation.
+		 *
+		 * @return  long  Something computed from the result, for JMH to consume.
+		 */
+		long next()
+		{
+			return benchmark.applyAsLong(operation++);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Filter extends Prepared
+	{
+		@Setup
+		public void setup() throws Exception
+		{
+			prepare("filter", null);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Broadcast extends Prepared
+	{
+		@Param({"1", "10", "100", "1000"})
+		public int clients;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			prepare("broadcast", clients + " clients");
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ListUsers extends Prepared
+	{
+		@Param({"10", "100", "1000"})
+		public int users;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			prepare("listUsers", users + " users");
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ListUsersChanging extends Prepared
+	{
+		@Param({"10", "100", "1000"})
+		public int users;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			prepare("listUsers", users + " users, changing");
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Dispatch extends Prepared
+	{
+		@Param({"/whisper", "/users"})
+		public String command;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			prepare("dispatch", command);
+		}
+	}
+
+	/**
+	 * The bot prints every line it processes, which is not what is being measured,
+	 * so its output is thrown away while the benchmark runs.
+	 */
+	@State(Scope.Thread)
+	public static class Keywords extends Prepared
+	{
+		//Globals
+		private PrintStream console = null;
+
+		@Setup
+		public void setup() throws Exception
+		{
+			prepare("keywords", null);
+
+			console = System.out;
+			System.setOut(new PrintStream(new OutputStream()
+			{
+				public void write(int b){}
+				public void write(byte[] b, int offset, int length){}
+			}));
+		}
+
+		@TearDown
+		public void tearDown()
+		{
+			System.setOut(console);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+import java.io.*;
+import java.nio.charset.*;
+
+/**
+ * The binary protocol spoken between the HalServer, HalBot and HalClient. The same
+ * file is kept in the server, bot and client directories.
+ * <p><p>
+ *
+ * Every connection starts out using the original text protocol, one message per
+ * line. A client that wants the binary protocol sends NEGOTIATE as a line when it
+ * is first asked to log in. A server that understands it answers with the line
+ * ACCEPT, and from then on both sides send frames instead of lines. An older server
+ * turns NEGOTIATE down as a bad name and asks for another, so the client carries
+ * on with text.
+ * <p><p>
+ *
+ * A frame is laid out as follows, with numbers in network byte order:
+ * <pre>
+ *   int   length of the rest of the frame
+ *   byte  kind of message, ie: CHAT
+ *   int   id of the user the message is about, or 0 for the server
+ *   byte  length of the name
+ *   ...   the name of that user, UTF-8
+ *   ...   the body
+ * </pre>
+ * The body of a ROSTER frame is the total number of users found, the page shown and
+ * the number of pages, followed by the id, name length and name of each user on the
+ * page. The name of a ROSTER frame is the text that was searched for, if any. Every
+ * other body is the text of the message in UTF-8. A client only ever sends CHAT
+ * frames, holding a line exactly as the user typed it, WHISPER frames, named
+ * after the user being whispered to, and PONG frames.
+ * <p><p>
+ *
+ * A server that has not heard from a client for a while sends it a PING, as an
+ * empty PING frame or as the line PING_TEXT, and the client answers at once with
+ * an empty PONG frame or the line PONG_TEXT. A client that does not answer is
+ * disconnected. Older text clients show PING_TEXT as chat and never answer, so a
+ * text client is only pinged once it has sent PONG_TEXT unasked, which it does
+ * when it is welcomed with a line starting with WELCOME_TEXT.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalProtocol
+{
+	//Constants
+	static final int TEXT = 0;
+	static final int BINARY = 1;
+	static final int CHAT = 1;
+	static final int WHISPER = 2;
+	static final int SYSTEM = 3;
+	static final int JOIN = 4;
+	static final int LEAVE = 5;
+	static final int ROSTER = 6;
+	static final int PING = 7;
+	static final int PONG = 8;
+	static final String NEGOTIATE = "/protocol binary";
+	static final String ACCEPT = "* Protocol: binary";
+	static final String PING_TEXT = "* Ping";
+	static final String PONG_TEXT = "/pong";
+	static final String WELCOME_TEXT = "Welcome, ";
+	static final int HEADER_LENGTH = 6;
+	static final int MAX_NAME_BYTES = 255;
+	static final int MAX_LINE_LENGTH = 4096;
+	static final int MAX_SERVER_LINE_LENGTH = 65536;
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Reads one line the server sent. Lines from the server carry a name in front of
+	 * a line a client sent, so they may be longer than MAX_LINE_LENGTH.
+	 *
+	 * @param   in      The stream to read from.
+	 * @return  String  The line, or null if the stream ended before a line was started.
+	 */
+	static String readLine(InputStream in) throws IOException
+	{
+		return readLine(in, MAX_SERVER_LINE_LENGTH);
+	}
+
+	/**
+	 * Reads one line of the text protocol. The line ends at a '\n', and a '\r' in
+	 * front of it is dropped. A line longer than the limit is cut off there and the
+	 * rest is read as the next line. Both of the servers engines read the lines
+	 * clients send with a limit of MAX_LINE_LENGTH bytes.
+	 *
+	 * @param   in         The stream to read from.
+	 * @param   maxLength  The longest line to read, in bytes.
+	 * @return  String     The line, or null if the stream ended before a line was started.
+	 */
+	static String readLine(InputStream in, int maxLength) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+		int b = 0;
+
+		while(line.size() < maxLength && (b = in.read()) != -1 && b != '\n')
+			line.write(b);
+
+		if(b == -1 && line.size() == 0)
+			return null;
+
+		byte[] data = line.toByteArray();
+		int length = data.length;
+
+		if(length > 0 && data[length - 1] == '\r')
+			length--;
+
+		return new String(data, 0, length, CHARSET);
+	}
+
+	/**
+	 * Reads one frame of the binary protocol.
+	 *
+	 * @param   in         The stream to read from.
+	 * @param   maxLength  The longest frame to accept, not counting the length itself.
+	 * @return  Message    The message in the frame.
+	 * @throws  EOFException  If the stream ended.
+	 * @throws  IOException   If the frame is not valid.
+	 */
+	static Message read(DataInputStream in, int maxLength) throws IOException
+	{
+		int length = in.readInt();
+
+		if(length < HEADER_LENGTH || length > maxLength)
+			throw new IOException("Invalid frame length: " + length);
+
+		byte[] data = new byte[length];
+		in.readFully(data);
+
+		return decode(data, 0, length);
+	}
+
+	/**
+	 * Decodes a frame that has already been read, not counting the length. Only the
+	 * header has to be looked at to tell what the frame is and who it is from.
+	 *
+	 * @param   data     The buffer holding the frame.
+	 * @param   offset   Where the frame starts in the buffer, just after the length.
+	 * @param   length   The length of the frame.
+	 * @return  Message  The message in the frame.
+	 * @throws  IOException  If the frame is not valid.
+	 */
+	static Message decode(byte[] data, int offset, int length) throws IOException
+	{
+		Message message = new Message();
+		int end = offset + length;
+
+		message.kind = data[offset] & 0xff;
+		message.sender = getInt(data, offset + 1);
+
+		int nameLength = data[offset + 5] & 0xff;
+		int body = offset + HEADER_LENGTH + nameLength;
+
+		if(body > end)
+			throw new IOException("Invalid frame name length: " + nameLength);
+
+		message.name = new String(data, offset + HEADER_LENGTH, nameLength, CHARSET);
+
+		if(message.kind != ROSTER)
+		{
+			message.text = new String(data, body, end - body, CHARSET);
+			return message;
+		}
+
+		if(body + 12 > end)
+			throw new IOException("Invalid roster frame");
+
+		message.total = getInt(data, body);
+		message.page = getInt(data, body + 4);
+		message.pages = getInt(data, body + 8);
+		body += 12;
+
+		//count the users first so the arrays are the right size
+		int count = 0;
+		for(int i = body; i < end; count++)
+		{
+			if(i + 5 > end)
+				throw new IOException("Invalid roster frame");
+
+			i += 5 + (data[i + 4] & 0xff);
+
+			if(i > end)
+				throw new IOException("Invalid roster frame");
+		}
+
+		message.ids = new int[count];
+		message.names = new String[count];
+
+		for(int i = 0; i < count; i++)
+		{
+			nameLength = data[body + 4] & 0xff;
+			message.ids[i] = getInt(data, body);
+			message.names[i] = new String(data, body + 5, nameLength, CHARSET);
+			body += 5 + nameLength;
+		}
+
+		return message;
+	}
+
+	/**
+	 * Writes one frame of the binary protocol. The frame is not flushed.
+	 *
+	 * @param  out     The stream to write to.
+	 * @param  kind    The kind of message, ie: CHAT.
+	 * @param  sender  The id of the user the message is about, or 0.
+	 * @param  name    The name in the header, or null for none.
+	 * @param  text    The text of the message.
+	 */
+	static void write(DataOutputStream out, int kind, int sender, String name, String text) throws IOException
+	{
+		byte[] nameBytes = name == null ? new byte[0] : name.getBytes(CHARSET);
+		byte[] textBytes = text.getBytes(CHARSET);
+
+		if(nameBytes.length > MAX_NAME_BYTES)
+			throw new IOException("Name is too long: " + name);
+
+		out.writeInt(HEADER_LENGTH + nameBytes.length + textBytes.length);
+		out.writeByte(kind);
+		out.writeInt(sender);
+		out.writeByte(nameBytes.length);
+		out.write(nameBytes);
+		out.write(textBytes);
+	}
+
+	/**
+	 * Reads a number in network byte order from a buffer.
+	 *
+	 * @param   data    The buffer.
+	 * @param   offset  Where the number starts.
+	 * @return  int     The number.
+	 */
+	private static int getInt(byte[] data, int offset)
+	{
+		return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+			| ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+	}
+
+	/**
+	 * One message read from a frame. The fields that do not apply to the kind of
+	 * message are left empty.
+	 */
+	static class Message
+	{
+		//Globals
+		int kind = 0;
+		int sender = 0;
+		String name = null;
+		String text = null;
+		int total = 0;
+		int page = 0;
+		int pages = 0;
+		int[] ids = null;
+		String[] names = null;
+
+		/**
+		 * Returns the line the text protocol would have sent for this message, ie:
+		 * "bob: hello" for a CHAT from bob.
+		 *
+		 * @return  String  The message as a line of text.
+		 */
+		public String toString()
+		{
+			switch(kind)
+			{
+				case CHAT:
+					return name + ": " + text;
+				case WHISPER:
+					return name + " (whispered): " + text;
+				case JOIN:
+					return name + " has entered the room.";
+				case LEAVE:
+					return name + " has left the room.";
+				case ROSTER:
+					StringBuilder list = new StringBuilder();
+
+					if(name.length() == 0)
+						list.append("There are " + total + " users connected");
+					else
+						list.append(total + " users matching \"" + name + "\"");
+
+					if(pages > 1)
+						list.append(", page " + page + " of " + pages);
+
+					list.append(": ");
+
+					for(int i = 0; i < names.length; i++)
+					{
+						if(i > 0)
+							list.append(", ");
+
+						list.append(names[i]);
+					}
+
+					return list.toString();
+				default:
+					return text;
+			}
+		}
+	}
+}
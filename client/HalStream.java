@@ -1,155 +1,252 @@
-import java.io.*;
-import java.net.*;
-import java.util.*;
-import javax.swing.*;
-import javax.swing.text.*;
-import javax.swing.event.*;
-import java.awt.*;
-import java.awt.event.*;
-
-public class HalStream extends Thread
-{
-	public final String NEW_LINE = System.getProperty("line.separator");
-	private HalClient client = null;
-	private boolean listening = false;
-
-	HalStream(HalClient client)
-	{
-		this.client = client;
-	}
-
-	public void run()
-	{
-		String input = null;
-		
-		listening = true;
-		try
-		{
-			while(listening)
-			{
-				try
-				{	
-					input = (client.in.readLine()).trim();
-				
-					if(input != null && !input.trim().equals(""))
-					{
-						if(input.trim().startsWith("*"))
-							client.display(input + NEW_LINE, Color.RED);
-						else if(input.indexOf(":") != -1)
-						{
-							String name = input.substring(0, input.indexOf(":"));
-							String message = input.substring(input.indexOf(":"), input.length());
-
-							client.display(name, Color.BLUE);
-							client.display(message + NEW_LINE, Color.BLACK);
-						}
-						else
-							client.display(input + NEW_LINE, Color.BLACK);
-
-						if(input.startsWith("Login:"))
-						{
-							String username = JOptionPane.showInputDialog("What name would you like to be known by?");
-							client.out.println(username);
-							client.out.flush();
-						}
-					}
-
-					if(input.indexOf("There are") != -1 && input.indexOf("users connected") != -1)
-						updateUserList(input);
-					else if(input.indexOf("has entered the room") != -1)
-						addUser(input);
-					else if(input.indexOf("has left the room") != -1)
-						removeUser(input);
-				}
-				catch(NullPointerException npe)
-				{
-					halt();
-					return;
-				}
-				catch(SocketException se)
-				{
-					client.display("Connection interrupted!" + NEW_LINE, Color.RED);
-					halt();
-					return;
-				}
-				catch(Exception e)
-				{
-					e.printStackTrace();
-					halt();
-				}
-			}
-		}
-		catch(Exception e)
-		{
-			return;
-		}
-	}
-
-	public void halt()
-	{
-		client.out.println("/exit");
-		
-		try
-		{
-			if(client.out != null)
-			{
-				client.out.close();
-				client.out = null;
-			}
-		}
-		catch(Exception e){}
-
-		try
-		{
-			if(client.in != null)
-			{
-				client.in.close();
-				client.in = null;
-			}
-		}
-		catch(Exception e){}
-
-		try
-		{
-			if(client.socket != null)
-			{
-				client.socket.close();
-				client.socket = null;
-			}
-		}
-		catch(Exception e){}
-		
-		listening = false;
-		client.connected = false;
-	}
-
-	private void updateUserList(String input)
-	{
-		client.userList = new Vector();
-		String[] users = input.substring(input.indexOf(":") + 1, input.length()).split(",");
-												
-		for(int i = 0; i < users.length; i++)
-			client.userList.addElement(users[i].trim());
-
-		client.nameList.setListData(client.userList);
-	}
-
-	private void addUser(String input)
-	{
-		String name = input.substring(0, input.indexOf(" ")).trim();
-
-		if(!client.userList.contains(name))
-		{
-			client.userList.addElement(name);
-			client.nameList.setListData(client.userList);
-		}
-	}
-
-	private void removeUser(String input)
-	{
-		String name = input.substring(0, input.indexOf(" ")).trim();
-
-		client.userList.remove(name);
-		client.nameList.setListData(client.userList);
-	}
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import javax.swing.*;
+import javax.swing.text.*;
+import javax.swing.event.*;
+import java.awt.*;
+import java.awt.event.*;
+
+public class HalStream extends Thread
+{
+	public final String NEW_LINE = System.getProperty("line.separator");
+	private final int MAX_FRAME_LENGTH = 1048576;
+	private HalClient client = null;
+	private boolean listening = false;
+
+	HalStream(HalClient client)
+	{
+		this.client = client;
+	}
+
+	public void run()
+	{
+		String input = null;
+		
+		listening = true;
+		try
+		{
+			if(client.protocol.equalsIgnoreCase("binary"))
+				negotiate();
+
+			while(listening)
+			{
+				try
+				{	
+					if(client.binary)
+					{
+						showMessage(HalProtocol.read(client.in, MAX_FRAME_LENGTH));
+						continue;
+					}
+
+					input = (HalProtocol.readLine(client.in)).trim();
+				
+					showLine(input);
+				}
+				catch(NullPointerException npe)
+				{
+					halt();
+					return;
+				}
+				catch(EOFException eofe)
+				{
+					halt();
+					return;
+				}
+				catch(SocketException se)
+				{
+					client.display("Connection interrupted!" + NEW_LINE, Color.RED);
+					halt();
+					return;
+				}
+				catch(Exception e)
+				{
+					e.printStackTrace();
+					halt();
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			return;
+		}
+	}
+
+	private void negotiate() throws IOException
+	{
+		String input = HalProtocol.readLine(client.in);
+
+		//the server is not asking for a name, ie: it is full
+		if(input == null || !input.trim().equalsIgnoreCase("Login:"))
+		{
+			if(input != null)
+				showLine(input.trim());
+
+			return;
+		}
+
+		client.send(HalProtocol.NEGOTIATE);
+		input = HalProtocol.readLine(client.in);
+
+		if(HalProtocol.ACCEPT.equals(input))
+		{
+			client.binary = true;
+			return;
+		}
+
+		//an older server took the request as a bad name, skip its complaints until it asks again
+		while(input != null && !input.trim().equalsIgnoreCase("Login:"))
+			input = HalProtocol.readLine(client.in);
+
+		if(input != null)
+			showLine(input.trim());
+	}
+
+	private void showLine(String input) throws IOException
+	{
+		if(HalProtocol.PING_TEXT.equals(input))
+		{
+			client.pong();
+			return;
+		}
+
+		//let the server know this client answers pings, so it is pinged like a binary client
+		if(input != null && input.startsWith(HalProtocol.WELCOME_TEXT))
+			client.pong();
+
+		if(input != null && !input.trim().equals(""))
+			display(input);
+
+		if(input.indexOf("There are") != -1 && input.indexOf("users connected") != -1)
+			updateUserList(input.substring(input.indexOf(":") + 1, input.length()).split(","));
+		else if(input.indexOf("has entered the room") != -1)
+			addUser(input.substring(0, input.indexOf(" ")).trim());
+		else if(input.indexOf("has left the room") != -1)
+			removeUser(input.substring(0, input.indexOf(" ")).trim());
+	}
+
+	private void showMessage(HalProtocol.Message message) throws IOException
+	{
+		switch(message.kind)
+		{
+			case HalProtocol.CHAT:
+				client.display(message.name, Color.BLUE);
+				client.display(": " + message.text + NEW_LINE, Color.BLACK);
+				break;
+			case HalProtocol.WHISPER:
+				client.display(message.name + " (whispered)", Color.BLUE);
+				client.display(": " + message.text + NEW_LINE, Color.BLACK);
+				break;
+			case HalProtocol.JOIN:
+				client.display(message.toString() + NEW_LINE, Color.BLACK);
+				addUser(message.name);
+				break;
+			case HalProtocol.LEAVE:
+				client.display(message.toString() + NEW_LINE, Color.BLACK);
+				removeUser(message.name);
+				break;
+			case HalProtocol.PING:
+				client.pong();
+				break;
+			case HalProtocol.ROSTER:
+				display(message.toString());
+
+				//a search only lists some of the users
+				if(message.name.equals(""))
+					updateUserList(message.names);
+				break;
+			default:
+				if(!message.text.trim().equals(""))
+					display(message.text.trim());
+		}
+	}
+
+	private void display(String input) throws IOException
+	{
+		if(input.trim().startsWith("*"))
+			client.display(input + NEW_LINE, Color.RED);
+		else if(input.indexOf(":") != -1)
+		{
+			String name = input.substring(0, input.indexOf(":"));
+			String message = input.substring(input.indexOf(":"), input.length());
+
+			client.display(name, Color.BLUE);
+			client.display(message + NEW_LINE, Color.BLACK);
+		}
+		else
+			client.display(input + NEW_LINE, Color.BLACK);
+
+		if(input.startsWith("Login:"))
+		{
+			String username = JOptionPane.showInputDialog("What name would you like to be known by?");
+			client.send(username == null ? "" : username);
+		}
+	}
+
+	public void halt()
+	{
+		try
+		{
+			client.send("/exit");
+		}
+		catch(Exception e){}
+		
+		try
+		{
+			if(client.out != null)
+			{
+				client.out.close();
+				client.out = null;
+			}
+		}
+		catch(Exception e){}
+
+		try
+		{
+			if(client.in != null)
+			{
+				client.in.close();
+				client.in = null;
+			}
+		}
+		catch(Exception e){}
+
+		try
+		{
+			if(client.socket != null)
+			{
+				client.socket.close();
+				client.socket = null;
+			}
+		}
+		catch(Exception e){}
+		
+		listening = false;
+		client.connected = false;
+	}
+
+	private void updateUserList(String[] users)
+	{
+		client.userList = new Vector();
+												
+		for(int i = 0; i < users.length; i++)
+			client.userList.addElement(users[i].trim());
+
+		client.nameList.setListData(client.userList);
+	}
+
+	private void addUser(String name)
+	{
+		if(!client.userList.contains(name))
+		{
+			client.userList.addElement(name);
+			client.nameList.setListData(client.userList);
+		}
+	}
+
+	private void removeUser(String name)
+	{
+		client.userList.remove(name);
+		client.nameList.setListData(client.userList);
+	}
 }
\ No newline at end of file
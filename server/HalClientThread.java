@@ -1,332 +1,693 @@
-import java.io.*;
-import java.net.*;
-
-/**
- * This is the client thread for the HalServer and HalListener classes. Everytime
- * a new connection is detected, a HalClientThread is created for that connection
- * and the user that logs in from that connection. All of that users information and
- * streams are stored and accessed through this thread. All clients connected to the
- * server are stored in a Vector object called "clients" that is declared in the
- * HalServer class.
- * 
- * @author  Evan Lennick <eml0300@mail.widener.edu>
- * @version 1.0
- */
-class HalClientThread extends Thread
-{
-	//Globals
-	private final int MAX_NAME_LENGTH = 12;
-	private Socket socket = null;
-	private HalServer server = null;
-	private BufferedReader in = null;
-	private PrintWriter out = null;
-	private boolean connected = false;
-
-	//Client Attributes
-	private String userId = null;
-	private String userIp = null;
-
-	/**
-	 * The class constructor.
-	 * 
-	 * @param  socket  The socket this user is bound to.
-	 * @param  server  The HalServer that this client will communicate with. 
-	 */
-	HalClientThread(Socket socket, HalServer server)
-	{
-		//get client info
-		this.socket = socket;
-		this.server = server;
-		this.userIp = socket.getInetAddress().toString();
-
-		try
-		{
-			//establish client streams
-			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			this.out = new PrintWriter(socket.getOutputStream(), true);
-			this.connected = true;
-
-			//add this thread to the list of connected clients
-			synchronized(server.clients)
-			{
-				if(server.clients.size() >= server.MAX_CLIENTS)
-				{
-					sendMessage("* Too many clients already connected! Please try again later...");
-					disconnect();
-				}
-				else
-					server.clients.addElement(this);
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Unable to establish connection with client: " + this.userIp);
-			System.err.println("*** Exception: " + e.getMessage());
-			disconnect();
-		}
-	}
-
-	/**
-	 * Return the user id that the client logged in with.
-	 * 
-	 * @return  String  The name of the user.
-	 */
-	public String toString()
-	{
-		return this.userId;
-	}
-
-	/**
-	 * The main process of the client thread. Logs in the user and then listens to the
-	 * client for input. Any non-null, non-blank input will be processed by the server.
-	 */
-	public void run()
-	{
-
-		userId = aquireUserId();
-
-		if(userId == null || userId.trim().equals("null"))
-		{
-			sendMessage("* Error logging in!");
-			disconnect();
-		}
-
-		sendMessage("Welcome, " + userId + "!");
-		sendMessage("");
-		sendMessage(server.motd.toString());
-		sendMessage("");
-		sendMessage(server.listUsers());
-		sendMessage("-----");
-
-		server.broadcast(this.userId + " has entered the room.");
-
-		String input = null;
-
-		while(connected)
-		{
-			try
-			{
-				try
-				{
-					input = (in.readLine()).trim();
-				}
-				catch(SocketException se)
-				{
-					System.err.println("*** Error reading input from user/client: " + userId + "/" + userIp);
-					System.err.println("*** Exception: " + se.getMessage());
-					disconnect();
-				}
-
-				if(input != null && !input.trim().equals(""))
-					server.processInput(this, input);
-			}
-			catch(NullPointerException npe)
-			{
-				return;
-			}
-			catch(Exception e)
-			{
-				System.err.println("*** Error communicating with user/client: " + userId + "/" + userIp);
-				System.err.println("*** Exception: " + e.getMessage());
-			}
-		}
-	}
-
-	/**
-	 * Assigns the user a login name. 
-	 * 
-	 * NOTE: Currently aquireUserName() is used as the only method to 
-	 * determine a username. This method assignUserId() is currently not used.
-	 * 
-	 * @return  String  The username assigned to this client.
-	 */
-	private String assignUserId()
-	{
-		//This code assigns a username to clients as they login.
-		String name = null;
-
-		try
-		{
-			for(int i = 0; i < server.MAX_CLIENTS; i++)
-			{
-				name = "Guest" + String.valueOf(i + 1);
-				
-				boolean nameExists = false;
-				for(int j = 0; j < server.clients.size(); j++)
-				{
-					if(name.equals(((HalClientThread)server.clients.get(j)).getUserId()))
-					{
-						nameExists = true;
-					}
-				}
-
-				if(!nameExists)
-					break;
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Error assigning name to client: " + this.getIp());
-			System.err.println("*** Exception: " + e.getMessage());
-			disconnect();
-		}
-
-		return name;
-	}
-
-	/**
-	 * Prompts the user for a login name.
-	 * 
-	 * @return  String  The approved login name entered by the user.
-	 */
-	private String aquireUserId()
-	{
-		//This code allows users to choose their own username at login.
-		//It is currently not implemented.
-		String input = null;
-		boolean valid = false;
-		
-		try
-		{	
-			while(!valid)
-			{
-				this.sendMessage("Login:");
-				input = in.readLine();
-				valid = true;
-
-				if(input.trim().indexOf(" ") != -1)
-				{
-					this.sendMessage("Name cannot contain spaces. Please try another.");
-					valid = false;
-				}
-				
-				if(input.length() > MAX_NAME_LENGTH || input.length() < 1)
-				{
-					this.sendMessage("Name must be between 1 and " + MAX_NAME_LENGTH + " characters long.");
-					valid = false;
-				}
-
-				if(server.langFilter)
-				{
-					for(int i = 0; i < server.filteredWords.length; i++)
-					{
-						if(input.toLowerCase().indexOf(server.filteredWords[i].toLowerCase()) != -1)
-						{
-							this.sendMessage("Please choose a less vulgar name.");
-							valid = false;
-						}
-					}
-				}
-
-				for(int i = 0; i < server.clients.size(); i++)
-				{
-					if(input.equals(((HalClientThread)server.clients.get(i)).getUserId()))
-					{
-						this.sendMessage("That name is already being used. Please try another.");
-						valid = false;
-					}
-				}
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Error getting username for client: " + this.getIp());
-			System.err.println("*** Exception: " + e.getMessage());
-			e.printStackTrace();
-			disconnect();
-		}
-		
-		return input;	 
-	}
-
-	/**
-	 * Returns the ip of this client.
-	 * 
-	 * @return  String  The users ip address.
-	 */
-	public String getIp()
-	{
-		return userIp.substring(userIp.indexOf("/") + 1, userIp.length());
-	}
-
-	/**
-	 * Returns the username of this client.
-	 * 
-	 * @return  String  The name of this user.
-	 */
-	public String getUserId()
-	{
-		return userId;
-	}
-
-	/**
-	 * Sends a message to this user. This method is synchronized so that this client
-	 * will only recieve one message at a time.
-	 * 
-	 * @param  message  The message to send to this client.
-	 */
-	public synchronized void sendMessage(String message)
-	{
-		try
-		{
-			out.println(message);
-			out.flush();
-		}
-		catch(NullPointerException npe){}
-	}
-
-	/**
-	 * Disconnects this client. Closes all streams that are open, notifies other clients of
-	 * the disconnection and then removes this user from the clients Vector.
-	 */
-	public synchronized void disconnect()
-	{
-		//this.sendMessage("Disconnecting...");
-
-		this.connected = false;
-
-		try
-		{
-			if(socket != null)
-			{
-				socket.shutdownInput();
-				socket.shutdownOutput();
-				socket.close();
-				socket = null;
-			}
-		}
-		catch(Exception e){}
-
-		try
-		{
-			if(out != null)
-			{
-				out.close();
-				out = null;
-			}
-		}
-		catch(Exception e){}
-		
-		try
-		{
-			if(in != null)
-			{
-				in.close();
-				in = null;
-			}
-		}
-		catch(Exception e){}
-
-		server.sendMessage("Client has disconnected: " + getIp());
-
-		if(server.clients.contains(this))
-		{
-			server.broadcast(this.userId + " has left the room.");
-
-			synchronized(server.clients)
-			{
-				server.clients.remove(this);
-			}
-		}
-	}
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * This is the client thread for the HalServer and HalListener classes. Everytime
+ * a new connection is detected, a HalClientThread is created for that connection
+ * and the user that logs in from that connection. All of that users information and
+ * streams are stored and accessed through this thread. All clients connected to the
+ * server are stored in a concurrent map called "clients" that is declared in the
+ * HalServer class.
+ * <p><p>
+ * 
+ * The session itself is a Runnable that HalListener hands to an executor, which
+ * runs it on either a platform thread or a virtual thread depending on the engine.
+ * A ReentrantLock is used instead of synchronized methods because blocking socket
+ * writes inside a monitor would pin a virtual thread to its carrier thread.
+ * <p><p>
+ * 
+ * Output is never written by the thread that sends it. Messages are encoded into
+ * HalFrames and put on a bounded outbound queue, and a writer task on the writers
+ * executor drains the queue to the socket, so a client that stops reading only
+ * fills its own queue. What happens once it is full is up to the clients
+ * HalSlowClientPolicy. The writer copies everything that is waiting into a
+ * buffered stream and flushes it once, so a burst of messages goes out in one
+ * write instead of one write per message.
+ * <p><p>
+ * 
+ * Input is read a byte at a time from a buffered stream, as lines while the client
+ * speaks the text protocol and as whole frames once it has switched to the binary
+ * protocol. The switch can only happen at the login prompt.
+ * 
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalClientThread implements Runnable, HalConnection
+{
+	//Constants
+	private final int WRITE_BUFFER_SIZE = 8192;
+	private final int MAX_FRAME_LENGTH = 16384;
+
+	//Globals
+	private final ReentrantLock lock = new ReentrantLock();
+	private Socket socket = null;
+	private HalServer server = null;
+	private DataInputStream in = null;
+	private OutputStream out = null;
+	private boolean connected = false;
+	private volatile int protocol = HalProtocol.TEXT;
+	private HalListener listener = null;
+	private ExecutorService writers = null;
+	private HalOutbound outbound = null;
+	private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+	private final AtomicBoolean evicted = new AtomicBoolean(false);
+	private HalSlowClientPolicy policy = null;
+	private final Runnable writer = new Runnable()
+	{
+		public void run()
+		{
+			drain();
+		}
+	};
+	private final Runnable startWriter = new Runnable()
+	{
+		public void run()
+		{
+			try
+			{
+				writers.execute(writer);
+			}
+			catch(RejectedExecutionException ree)
+			{
+				//the listener has been stopped, write the message from this thread
+				drain();
+			}
+		}
+	};
+	private final Runnable disconnector = new Runnable()
+	{
+		public void run()
+		{
+			disconnect();
+		}
+	};
+	private final Runnable reaper = new Runnable()
+	{
+		public void run()
+		{
+			try
+			{
+				writers.execute(disconnector);
+			}
+			catch(RejectedExecutionException ree)
+			{
+				//the listener has been stopped, the reading side will notice the closed socket
+				closeSocket();
+			}
+		}
+	};
+	private HalHeartbeat heartbeat = null;
+	private HalLogin login = null;
+	private HalRateLimiter limiter = null;
+
+	//Client Attributes
+	private int id = 0;
+	private String userId = null;
+	private volatile HalRoom room = null;
+	private String userIp = null;
+	private long connectTime = 0;
+
+	/**
+	 * The class constructor.
+	 * 
+	 * @param  socket    The socket this user is bound to.
+	 * @param  server    The HalServer that this client will communicate with. 
+	 * @param  listener  The HalListener whose executor runs the writer task for this client.
+	 */
+	HalClientThread(Socket socket, HalServer server, HalListener listener)
+	{
+		//get client info
+		this.socket = socket;
+		this.server = server;
+		this.listener = listener;
+		this.writers = listener.sessions;
+		this.id = server.nextClientId();
+		this.connectTime = System.nanoTime();
+		this.userIp = socket.getInetAddress().toString();
+		this.policy = HalSlowClientPolicy.fromConfig(server);
+		this.outbound = new HalOutbound(server, policy);
+		this.heartbeat = new HalHeartbeat(server, this, reaper);
+		this.login = new HalLogin(server, this, reaper);
+		this.limiter = HalRateLimiter.fromConfig(server);
+
+		try
+		{
+			//establish client streams
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+			this.connected = true;
+
+			//add this thread to the list of connected clients and ask for a name
+			if(!login.start())
+				disconnect();
+		}
+		catch(Exception e)
+		{
+			server.log.error("Unable to establish connection with client: " + this.userIp, e);
+			disconnect();
+		}
+	}
+
+	/**
+	 * Return the user id that the client logged in with.
+	 * 
+	 * @return  String  The name of the user.
+	 */
+	public String toString()
+	{
+		return this.userId;
+	}
+
+	/**
+	 * The main process of the client thread. Logs in the user and then listens to the
+	 * client for input. Any non-null, non-blank input will be processed by the server.
+	 */
+	public void run()
+	{
+		//turned away when it connected
+		if(!connected)
+			return;
+
+		userId = aquireUserId();
+
+		if(userId == null || userId.trim().equals("null"))
+		{
+			//a client that was turned away or timed out has already been told why
+			if(login.getState() == HalLogin.WAITING)
+				sendMessage("* Error logging in!");
+
+			if(connected)
+				disconnect();
+
+			return;
+		}
+
+		server.welcome(this);
+		heartbeat.start();
+
+		while(connected)
+		{
+			try
+			{
+				if(!readInput())
+				{
+					//the client closed the connection without saying /exit
+					if(connected)
+						disconnect();
+
+					return;
+				}
+			}
+			catch(IOException ioe)
+			{
+				server.log.error("Error reading input from user/client: " + userId + "/" + userIp, ioe);
+
+				if(connected)
+					disconnect();
+			}
+			catch(Exception e)
+			{
+				server.log.error("Error communicating with user/client: " + userId + "/" + userIp, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads one line or frame from the client, depending on the protocol it is using,
+	 * and has the server process it. Blank lines are ignored, answers to a PING
+	 * only tell the heartbeat that the client is still there, and anything over the
+	 * clients rate limit is dropped or held back first.
+	 * 
+	 * @return  boolean  Whether there may be more input, false once the client has closed the connection.
+	 */
+	private boolean readInput() throws IOException
+	{
+		if(protocol == HalProtocol.BINARY)
+		{
+			HalProtocol.Message message = null;
+
+			try
+			{
+				message = HalProtocol.read(in, MAX_FRAME_LENGTH);
+			}
+			catch(EOFException eofe)
+			{
+				return false;
+			}
+
+			heartbeat.heard(message.kind != HalProtocol.PONG);
+
+			if(message.kind != HalProtocol.PONG && admit(message.text))
+				server.processMessage(this, message);
+
+			return true;
+		}
+
+		String input = HalProtocol.readLine(in, HalProtocol.MAX_LINE_LENGTH);
+
+		if(input == null)
+			return false;
+
+		input = input.trim();
+		heartbeat.heard(!input.equals(HalProtocol.PONG_TEXT));
+
+		if(!input.equals("") && !input.equals(HalProtocol.PONG_TEXT) && admit(input))
+			server.processInput(this, input);
+
+		return true;
+	}
+
+	/**
+	 * Checks a message against the clients rate limit. A message over the limit is
+	 * either dropped, or held until the limit allows it, which stops this thread
+	 * reading anything more from the client in the meantime.
+	 *
+	 * @param   message  The message the client sent.
+	 * @return  boolean  Whether or not the message should be processed.
+	 */
+	private boolean admit(String message)
+	{
+		long wait = 0;
+		boolean held = false;
+
+		while((wait = limiter.check(server, this, message, held)) > 0)
+		{
+			if(limiter.action == HalRateLimiter.DROP)
+				return false;
+
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			catch(InterruptedException ie)
+			{
+				return false;
+			}
+
+			held = true;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Assigns the user a login name. 
+	 * 
+	 * NOTE: Currently aquireUserName() is used as the only method to 
+	 * determine a username. This method assignUserId() is currently not used.
+	 * 
+	 * @return  String  The username assigned to this client.
+	 */
+	private String assignUserId()
+	{
+		//This code assigns a username to clients as they login.
+		String name = null;
+
+		try
+		{
+			for(int i = 0; i < server.maxClients; i++)
+			{
+				name = "Guest" + String.valueOf(i + 1);
+
+				if(server.findUser(name) == null)
+					break;
+			}
+		}
+		catch(Exception e)
+		{
+			server.log.error("Error assigning name to client: " + this.getIp(), e);
+			disconnect();
+		}
+
+		return name;
+	}
+
+	/**
+	 * Reads login names from the user until one is accepted. A client that asks for
+	 * the binary protocol in place of a name is switched over and asked again, and
+	 * from then on its name is read from a frame. The login has already asked for
+	 * the first name, and asks again each time one is turned down.
+	 * 
+	 * @return  String  The approved login name entered by the user, or null if the login failed.
+	 */
+	private String aquireUserId()
+	{
+		String input = null;
+		
+		try
+		{	
+			while(login.getState() == HalLogin.WAITING)
+			{
+				if(protocol == HalProtocol.BINARY)
+					input = HalProtocol.read(in, MAX_FRAME_LENGTH).text.trim();
+				else
+				{
+					input = HalProtocol.readLine(in, HalProtocol.MAX_LINE_LENGTH);
+
+					//the client closed the connection, or the login timed out and closed it
+					if(input == null)
+						return null;
+
+					if(input.trim().equalsIgnoreCase(HalProtocol.NEGOTIATE))
+					{
+						//answered in text, everything after it is sent as frames
+						this.sendMessage(HalProtocol.ACCEPT);
+						protocol = HalProtocol.BINARY;
+						login.prompt();
+						continue;
+					}
+				}
+
+				login.attempt(input);
+			}
+		}
+		catch(Exception e)
+		{
+			//a login that timed out closed the socket under the read
+			if(login.getState() == HalLogin.WAITING)
+				server.log.error("Error getting username for client: " + this.getIp(), e);
+		}
+		
+		return login.getState() == HalLogin.LOGGED_IN ? input : null;	 
+	}
+
+	/**
+	 * Returns the ip of this client.
+	 * 
+	 * @return  String  The users ip address.
+	 */
+	public String getIp()
+	{
+		return userIp.substring(userIp.indexOf("/") + 1, userIp.length());
+	}
+
+	/**
+	 * Returns the id the server gave this client when it connected.
+	 * 
+	 * @return  int  The id of this client.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Returns the username of this client.
+	 * 
+	 * @return  String  The name of this user.
+	 */
+	public String getUserId()
+	{
+		return userId;
+	}
+
+	/**
+	 * Returns the room this client is in.
+	 * 
+	 * @return  HalRoom  The room, or null if the user has not logged in.
+	 */
+	public HalRoom getRoom()
+	{
+		return room;
+	}
+
+	/**
+	 * Moves this client to another room. Only the server may call this method.
+	 * 
+	 * @param  room  The room the client has joined.
+	 */
+	public void setRoom(HalRoom room)
+	{
+		this.room = room;
+	}
+
+	/**
+	 * Returns the protocol this client is speaking.
+	 * 
+	 * @return  int  HalProtocol.TEXT or HalProtocol.BINARY.
+	 */
+	public int getProtocol()
+	{
+		return protocol;
+	}
+
+	/**
+	 * Returns when this client connected.
+	 * 
+	 * @return  long  The time it connected, from System.nanoTime().
+	 */
+	public long getConnectTime()
+	{
+		return connectTime;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be written to this client.
+	 * 
+	 * @return  int  The number of messages.
+	 */
+	public int getQueuedFrames()
+	{
+		return outbound.getWaitingFrames();
+	}
+
+	/**
+	 * Returns the number of bytes waiting to be written to this client.
+	 * 
+	 * @return  int  The number of bytes.
+	 */
+	public int getQueuedBytes()
+	{
+		return outbound.getWaitingBytes();
+	}
+
+	/**
+	 * Sends a message to this user. The message is encoded for the protocol the client
+	 * is using and added to the outbound queue.
+	 * 
+	 * @param  message  The message to send to this client.
+	 */
+	public void sendMessage(String message)
+	{
+		HalFrame frame = server.encode(protocol, message);
+		sendFrame(frame);
+		frame.release();
+	}
+
+	/**
+	 * Sends an encoded message to this user. The frame is added to the outbound queue
+	 * and the writer task is started if it is not already running. If the client is
+	 * not keeping up the frame is handled according to its slow client policy.
+	 * 
+	 * @param  frame  The encoded message to send to this client.
+	 */
+	public void sendFrame(HalFrame frame)
+	{
+		int result = outbound.offer(frame);
+
+		if(result == HalOutbound.TOO_SLOW)
+			evict();
+		else if(result == HalOutbound.QUEUED)
+			scheduleWriter();
+	}
+
+	/**
+	 * Starts the writer task, after the listeners write delay, unless it is already
+	 * running or waiting to run.
+	 */
+	private void scheduleWriter()
+	{
+		if(writeScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				listener.delayWrite(startWriter);
+			}
+			catch(RejectedExecutionException ree)
+			{
+				//the listener has been stopped, write the message from this thread
+				drain();
+			}
+		}
+	}
+
+	/**
+	 * Disconnects this client for being too slow. Everything waiting is thrown away
+	 * and replaced by a notice, and the disconnect is done by the writers executor
+	 * so that the thread sending to this client does not have to wait for it.
+	 */
+	private void evict()
+	{
+		if(evicted.getAndSet(true))
+			return;
+
+		server.evictedClients.incrementAndGet();
+		server.sendMessage("Client is too slow, disconnecting: " + getIp());
+
+		outbound.clear();
+		HalFrame notice = server.encode(protocol, "* You are too slow! You have been disconnected.");
+		outbound.add(notice);
+		notice.release();
+
+		try
+		{
+			writers.execute(disconnector);
+		}
+		catch(RejectedExecutionException ree)
+		{
+			disconnect();
+		}
+	}
+
+	/**
+	 * Writes every queued message to the client. This method holds the client lock
+	 * so that this client will only recieve one message at a time.
+	 */
+	private void drain()
+	{
+		lock.lock();
+
+		try
+		{
+			writeQueued();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		writeScheduled.set(false);
+
+		//a message may have been queued after the queue was emptied
+		if(!outbound.isEmpty())
+			scheduleWriter();
+	}
+
+	/**
+	 * Writes every queued message to the client and then flushes the stream once.
+	 * The client lock must be held.
+	 */
+	private void writeQueued()
+	{
+		HalFrame frame = null;
+		while((frame = outbound.poll()) != null)
+		{
+			try
+			{
+				if(out != null)
+				{
+					frame.writeTo(out);
+					outbound.progress();
+					server.metrics.bytesWritten.add(frame.length());
+				}
+			}
+			catch(IOException ioe)
+			{
+				//the reading side will notice the broken connection and disconnect
+				out = null;
+			}
+			finally
+			{
+				outbound.written(frame);
+			}
+		}
+
+		try
+		{
+			if(out != null)
+				out.flush();
+		}
+		catch(IOException ioe)
+		{
+			out = null;
+		}
+	}
+
+	/**
+	 * Disconnects this client. Closes all streams that are open, notifies other clients of
+	 * the disconnection and then removes this user from the clients map. If a write to
+	 * the client has been stuck for longer than the slow client policy allows, the
+	 * socket is closed first so that the stuck write gives up.
+	 */
+	public void disconnect()
+	{
+		//this.sendMessage("Disconnecting...");
+		heartbeat.stop();
+		login.stop();
+
+		try
+		{
+			if(!lock.tryLock(Math.max(policy.maxStallMillis, 1000), TimeUnit.MILLISECONDS))
+			{
+				closeSocket();
+				lock.lock();
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			closeSocket();
+			lock.lock();
+		}
+
+		try
+		{
+			this.connected = false;
+
+			//write anything still queued, such as a kick or shutdown notice
+			writeQueued();
+
+			closeSocket();
+
+			try
+			{
+				if(out != null)
+				{
+					out.close();
+					out = null;
+				}
+			}
+			catch(Exception e){}
+		
+			try
+			{
+				if(in != null)
+				{
+					in.close();
+					in = null;
+				}
+			}
+			catch(Exception e){}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		server.sendMessage("Client has disconnected: " + getIp());
+		server.removeClient(this);
+	}
+
+	/**
+	 * Closes the socket. Safe to call without the client lock, which lets a write that
+	 * is stuck on a client that stopped reading give up.
+	 */
+	private void closeSocket()
+	{
+		Socket socket = this.socket;
+
+		try
+		{
+			if(socket != null)
+			{
+				socket.shutdownInput();
+				socket.shutdownOutput();
+				socket.close();
+				this.socket = null;
+			}
+		}
+		catch(Exception e){}
+	}
 }
\ No newline at end of file
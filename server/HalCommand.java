@@ -0,0 +1,63 @@
+/**
+ * A command that clients can type, ie: "/whisper bob hello". Commands are registered
+ * with the HalServer by name, and every line a client sends that starts with a '/'
+ * is looked up by the name before the first space. The rest of the line is handed
+ * to the command as its arguments.
+ * <p><p>
+ *
+ * Commands are run by whichever thread handles the clients input, so lines from
+ * different clients are run at the same time. Lines from the same client are
+ * always run one after another in the order they were sent. No lock is held
+ * while a command runs, so a command that changes shared server state must do so
+ * safely itself, as joining a room does.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+abstract class HalCommand
+{
+	//Globals
+	private String name = null;
+	private String usage = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  name   The name typed to run the command, without the '/'.
+	 * @param  usage  How the command is typed, as shown by /help.
+	 */
+	HalCommand(String name, String usage)
+	{
+		this.name = name;
+		this.usage = usage;
+	}
+
+	/**
+	 * Runs the command.
+	 *
+	 * @param  server  The server the command was sent to.
+	 * @param  client  The client that sent the command.
+	 * @param  args    Everything after the name of the command, trimmed.
+	 */
+	abstract void execute(HalServer server, HalConnection client, String args);
+
+	/**
+	 * Returns the name typed to run the command.
+	 *
+	 * @return  String  The name of the command, without the '/'.
+	 */
+	String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Returns how the command is typed, ie: "/whisper <username> <message>".
+	 *
+	 * @return  String  The usage of the command.
+	 */
+	String getUsage()
+	{
+		return usage;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * This is the common view of a connected client that the HalServer works with.
+ * It is implemented by HalClientThread for the blocking engine and HalNioClient
+ * for the selector based engine, so that processInput(), broadcast() and the
+ * login flow do not care which engine is serving the connection.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+interface HalConnection
+{
+	/**
+	 * Returns the id the server gave this client when it connected.
+	 *
+	 * @return  int  The id of this client.
+	 */
+	public int getId();
+
+	/**
+	 * Returns the username of this client.
+	 *
+	 * @return  String  The name of this user, or null if the user has not logged in.
+	 */
+	public String getUserId();
+
+	/**
+	 * Returns the ip of this client.
+	 *
+	 * @return  String  The users ip address.
+	 */
+	public String getIp();
+
+	/**
+	 * Returns the protocol this client is speaking. Every client starts out using the
+	 * text protocol and may switch to the binary one before it logs in.
+	 *
+	 * @return  int  HalProtocol.TEXT or HalProtocol.BINARY.
+	 */
+	public int getProtocol();
+
+	/**
+	 * Returns the room this client is in.
+	 *
+	 * @return  HalRoom  The room, or null if the user has not logged in.
+	 */
+	public HalRoom getRoom();
+
+	/**
+	 * Moves this client to another room. Only the server may call this method, once
+	 * it has added the client to the members of that room.
+	 *
+	 * @param  room  The room the client has joined.
+	 */
+	public void setRoom(HalRoom room);
+
+	/**
+	 * Returns when this client connected, for timing how long it takes to log in.
+	 *
+	 * @return  long  The time it connected, from System.nanoTime().
+	 */
+	public long getConnectTime();
+
+	/**
+	 * Returns the number of messages waiting to be written to this client.
+	 *
+	 * @return  int  The number of messages.
+	 */
+	public int getQueuedFrames();
+
+	/**
+	 * Returns the number of bytes waiting to be written to this client.
+	 *
+	 * @return  int  The number of bytes.
+	 */
+	public int getQueuedBytes();
+
+	/**
+	 * Sends a message to this user. The message is only queued, it is written to the
+	 * client later so that the caller never waits on a slow client.
+	 *
+	 * @param  message  The message to send to this client.
+	 */
+	public void sendMessage(String message);
+
+	/**
+	 * Sends an already encoded message to this user. The client takes its own
+	 * reference to the frame, so the caller still has to release theirs.
+	 *
+	 * @param  frame  The encoded message to send to this client.
+	 */
+	public void sendFrame(HalFrame frame);
+
+	/**
+	 * Disconnects this client and removes it from the server.
+	 */
+	public void disconnect();
+}
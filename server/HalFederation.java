@@ -0,0 +1,507 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Links this server to other HalServer nodes so that rooms span every node. Each
+ * node tells the others about its own users, and shows the users of the other nodes
+ * as HalRemoteUsers, so every node has the same list of users and every room has
+ * the same members. Messages are sent by the node the sender is logged in to and
+ * each node delivers them to its own clients.
+ * <p><p>
+ *
+ * Every node must be linked to every other node, because a node only passes on
+ * what its own users do. A node accepts links on its peer port and keeps trying to
+ * open a link to each of the peers in its config until it has one. If two nodes
+ * open a link to each other at the same time, both keep the one opened by the node
+ * with the smaller name.
+ * <p><p>
+ *
+ * A name can only be used by one user across all the nodes. If users on two nodes
+ * log in with the same name at the same time, the user on the node with the smaller
+ * name keeps it and the other is disconnected.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalFederation
+{
+	//Constants
+	private static final long RECONNECT_MILLIS = 5000;
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	//Globals
+	private HalServer server = null;
+	private String nodeName = null;
+	private int port = 0;
+	private List<String> peers = null;
+	private long batchMillis = 0;
+	private volatile boolean running = false;
+	private ServerSocket serverSocket = null;
+	private Thread connector = null;
+	private final ConcurrentHashMap<String, HalPeerLink> links = new ConcurrentHashMap<String, HalPeerLink>();
+	private final ConcurrentHashMap<String, HalPeerLink> dialed = new ConcurrentHashMap<String, HalPeerLink>();
+	private final ConcurrentHashMap<String, String> peerNames = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server       The server being linked.
+	 * @param  nodeName     The name of this node, which must be different on every node.
+	 * @param  port         The port to accept links on, or 0 to accept none.
+	 * @param  peers        The nodes to open links to, ie: "10.0.0.2:4546".
+	 * @param  batchMillis  How long each link waits to gather messages before writing them.
+	 */
+	HalFederation(HalServer server, String nodeName, int port, List<String> peers, long batchMillis)
+	{
+		this.server = server;
+		this.nodeName = nodeName;
+		this.port = port;
+		this.peers = peers;
+		this.batchMillis = batchMillis;
+	}
+
+	/**
+	 * Returns the log of the server being linked, for its links to report errors to.
+	 *
+	 * @return  HalLog  The server log.
+	 */
+	HalLog getLog()
+	{
+		return server.log;
+	}
+
+	/**
+	 * Starts accepting links and opening links to the peers.
+	 *
+	 * @throws  IOException  If the peer port cannot be opened.
+	 */
+	void start() throws IOException
+	{
+		running = true;
+
+		if(port > 0)
+		{
+			serverSocket = new ServerSocket(port);
+
+			Thread acceptor = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					accept();
+				}
+			}, "HalFederation acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		if(!peers.isEmpty())
+		{
+			connector = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					connect();
+				}
+			}, "HalFederation connector");
+			connector.setDaemon(true);
+			connector.start();
+		}
+	}
+
+	/**
+	 * Stops accepting links and closes every link. The other nodes forget the users
+	 * of this node when their links close.
+	 */
+	void stop()
+	{
+		running = false;
+
+		try
+		{
+			if(serverSocket != null)
+				serverSocket.close();
+		}
+		catch(IOException ioe){}
+
+		if(connector != null)
+			connector.interrupt();
+
+		for(HalPeerLink link : links.values())
+			link.close();
+
+		for(HalPeerLink link : dialed.values())
+			link.close();
+	}
+
+	/**
+	 * Accepts links from other nodes until the federation is stopped.
+	 */
+	private void accept()
+	{
+		while(running)
+		{
+			try
+			{
+				Socket socket = serverSocket.accept();
+				new HalPeerLink(this, socket, false, batchMillis).start(nodeName);
+			}
+			catch(IOException ioe)
+			{
+				if(running)
+					server.log.error("Error accepting peer: " + ioe.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Opens a link to every peer that is not linked yet, and tries again every few
+	 * seconds until the federation is stopped.
+	 */
+	private void connect()
+	{
+		while(running)
+		{
+			for(String peer : peers)
+			{
+				HalPeerLink previous = dialed.get(peer);
+				String name = peerNames.get(peer);
+
+				//already linked, either by this node or by the peer, or the peer is this node
+				if((previous != null && !previous.isClosed()) || (name != null && (links.containsKey(name) || name.equals(nodeName))))
+					continue;
+
+				try
+				{
+					int colon = peer.lastIndexOf(":");
+					Socket socket = new Socket();
+					socket.connect(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))), CONNECT_TIMEOUT);
+
+					HalPeerLink link = new HalPeerLink(this, socket, true, batchMillis);
+					dialed.put(peer, link);
+					link.start(nodeName);
+				}
+				catch(Exception e){}
+			}
+
+			try
+			{
+				Thread.sleep(RECONNECT_MILLIS);
+			}
+			catch(InterruptedException ie)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Called by a link once the node at the other end has said who it is. The link is
+	 * kept unless it is a link to this node or there is already a link to that node
+	 * that is to be kept instead. The new node is then told about every user here.
+	 *
+	 * @param   link     The link.
+	 * @return  boolean  Whether or not the link is kept.
+	 */
+	synchronized boolean linked(HalPeerLink link)
+	{
+		String name = link.getNodeName();
+
+		if(!running || name.equals(nodeName))
+			return false;
+
+		for(Map.Entry<String, HalPeerLink> entry : dialed.entrySet())
+			if(entry.getValue() == link)
+				peerNames.put(entry.getKey(), name);
+
+		HalPeerLink existing = links.get(name);
+
+		if(existing != null && !existing.isClosed())
+		{
+			//both nodes keep the link opened by the node with the smaller name
+			if(initiator(existing).compareTo(initiator(link)) <= 0)
+				return false;
+
+			links.remove(name, existing);
+			existing.close();
+		}
+
+		links.put(name, link);
+		server.sendMessage("Linked to node " + link);
+
+		for(HalConnection client : server.clients.values())
+		{
+			HalRoom room = client.getRoom();
+
+			if(!(client instanceof HalRemoteUser) && client.getUserId() != null && room != null)
+				link.send(HalPeerLink.LOGIN, client.getUserId(), room.getName(), "");
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the name of the node that opened a link.
+	 *
+	 * @param   link    The link.
+	 * @return  String  The name of the node.
+	 */
+	private String initiator(HalPeerLink link)
+	{
+		return link.isOutgoing() ? nodeName : link.getNodeName();
+	}
+
+	/**
+	 * Called by a link when it closes. The users of the node at the other end are
+	 * removed from this server.
+	 *
+	 * @param  link  The link.
+	 */
+	synchronized void unlinked(HalPeerLink link)
+	{
+		if(link.getNodeName() == null)
+			return;
+
+		if(links.remove(link.getNodeName(), link))
+			server.sendMessage("Lost link to node " + link);
+
+		//a link that was replaced by a newer one may still have users
+		for(HalConnection client : server.clients.values())
+			if(client instanceof HalRemoteUser && ((HalRemoteUser)client).getLink() == link)
+				server.removeClient(client);
+	}
+
+	/**
+	 * Handles a message from another node.
+	 *
+	 * @param  link     The link the message came over.
+	 * @param  message  The message.
+	 */
+	void receive(HalPeerLink link, HalPeerLink.Message message)
+	{
+		if(message.type == HalPeerLink.LOGIN)
+		{
+			login(link, message.user, message.room);
+			return;
+		}
+
+		if(message.type == HalPeerLink.SYSTEM)
+		{
+			server.announce(message.text);
+			return;
+		}
+
+		if(message.type == HalPeerLink.KICK)
+		{
+			HalConnection client = server.findUser(message.user);
+
+			if(client != null && !(client instanceof HalRemoteUser))
+				server.kick(message.user);
+
+			return;
+		}
+
+		HalRemoteUser remote = findRemote(link, message.user);
+
+		//a user this node never accepted, because their name was already in use
+		if(remote == null)
+			return;
+
+		if(message.type == HalPeerLink.CHAT)
+			server.broadcast(remote, message.text);
+		else if(message.type == HalPeerLink.WHISPER)
+			server.whisper(remote, message.room, message.text);
+		else if(message.type == HalPeerLink.ROOM)
+			server.joinRoom(remote, message.room);
+		else if(message.type == HalPeerLink.LOGOUT)
+			server.removeClient(remote);
+	}
+
+	/**
+	 * Shows a user of another node on this server. If the name is already in use here
+	 * the user on the node with the smaller name keeps it. A user who is already shown
+	 * for the same node is only moved to the room given.
+	 *
+	 * @param  link  The link to the node the user logged in to.
+	 * @param  name  The name of the user.
+	 * @param  room  The room the user is in.
+	 */
+	private synchronized void login(HalPeerLink link, String name, String room)
+	{
+		String key = server.userKey(name);
+		HalRemoteUser remote = new HalRemoteUser(server, link, server.nextClientId(), name);
+
+		while(true)
+		{
+			HalConnection holder = server.users.get(key);
+
+			if(holder == null)
+			{
+				if(server.users.putIfAbsent(key, remote) == null)
+					break;
+			}
+			else if(holder instanceof HalRemoteUser)
+			{
+				HalRemoteUser other = (HalRemoteUser)holder;
+
+				if(other.getLink() == link)
+				{
+					if(!other.getRoom().getName().equalsIgnoreCase(room))
+						server.joinRoom(other, room);
+
+					return;
+				}
+
+				if(other.getLink().getNodeName().compareTo(link.getNodeName()) < 0)
+					return;
+
+				server.removeClient(other);
+			}
+			else
+			{
+				if(nodeName.compareTo(link.getNodeName()) < 0)
+					return;
+
+				//the user here loses their name, and is removed when they disconnect
+				if(server.users.replace(key, holder, remote))
+				{
+					holder.sendMessage("* The name " + name + " is already in use on another server.");
+					holder.disconnect();
+					break;
+				}
+			}
+		}
+
+		server.clients.put(remote.getId(), remote);
+		server.welcome(remote);
+
+		if(!room.equalsIgnoreCase(server.LOBBY))
+			server.joinRoom(remote, room);
+	}
+
+	/**
+	 * Returns the remote user with a name, if they are logged in to the node at the
+	 * other end of a link.
+	 *
+	 * @param   link           The link.
+	 * @param   name           The name of the user.
+	 * @return  HalRemoteUser  The user, or null if this server does not show them.
+	 */
+	private HalRemoteUser findRemote(HalPeerLink link, String name)
+	{
+		HalConnection client = server.users.get(server.userKey(name));
+
+		if(client instanceof HalRemoteUser && ((HalRemoteUser)client).getLink() == link)
+			return (HalRemoteUser)client;
+
+		return null;
+	}
+
+	/**
+	 * Tells every node that a user here has logged in.
+	 *
+	 * @param  client  The user.
+	 */
+	synchronized void relayLogin(HalConnection client)
+	{
+		send(HalPeerLink.LOGIN, client.getUserId(), client.getRoom().getName(), "");
+	}
+
+	/**
+	 * Tells every node that a user here has logged out.
+	 *
+	 * @param  client  The user.
+	 */
+	synchronized void relayLogout(HalConnection client)
+	{
+		send(HalPeerLink.LOGOUT, client.getUserId(), "", "");
+	}
+
+	/**
+	 * Tells every node that a user here has changed rooms.
+	 *
+	 * @param  client  The user.
+	 * @param  room    The room they have joined.
+	 */
+	synchronized void relayRoom(HalConnection client, HalRoom room)
+	{
+		send(HalPeerLink.ROOM, client.getUserId(), room.getName(), "");
+	}
+
+	/**
+	 * Passes a message said by a user here to every node.
+	 *
+	 * @param  client   The user.
+	 * @param  room     The room they said it in.
+	 * @param  message  The message, already filtered.
+	 */
+	void relayChat(HalConnection client, HalRoom room, String message)
+	{
+		send(HalPeerLink.CHAT, client.getUserId(), room.getName(), message);
+	}
+
+	/**
+	 * Passes a message from the server to every node.
+	 *
+	 * @param  message  The message.
+	 */
+	void relaySystem(String message)
+	{
+		send(HalPeerLink.SYSTEM, "", "", message);
+	}
+
+	/**
+	 * Passes a whisper from a user here to the node the other user is logged in to.
+	 *
+	 * @param  client       The user whispering.
+	 * @param  destination  The user being whispered to.
+	 * @param  message      The message.
+	 */
+	void whisper(HalConnection client, HalRemoteUser destination, String message)
+	{
+		destination.getLink().send(HalPeerLink.WHISPER, client.getUserId(), destination.getUserId(), message);
+	}
+
+	/**
+	 * Asks the node a user is logged in to to kick them.
+	 *
+	 * @param  destination  The user to kick.
+	 */
+	void kick(HalRemoteUser destination)
+	{
+		destination.getLink().send(HalPeerLink.KICK, destination.getUserId(), "", "");
+	}
+
+	/**
+	 * Sends a message over every link.
+	 *
+	 * @param  type  The type of message, ie: HalPeerLink.CHAT.
+	 * @param  user  The user the message is about.
+	 * @param  room  The room, or the user being whispered to.
+	 * @param  text  The text.
+	 */
+	private void send(int type, String user, String room, String text)
+	{
+		for(HalPeerLink link : links.values())
+			link.send(type, user, room, text);
+	}
+
+	/**
+	 * Returns the name of this node and its links, ie: "west, linked to east (10.0.0.2:4546), ...".
+	 *
+	 * @return  String  The status of the federation.
+	 */
+	public String toString()
+	{
+		StringBuffer status = new StringBuffer(nodeName);
+
+		if(links.isEmpty())
+			status.append(", not linked");
+
+		for(HalPeerLink link : links.values())
+			status.append(", linked to ").append(link);
+
+		return status.toString();
+	}
+}
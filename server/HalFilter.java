@@ -0,0 +1,199 @@
+import java.util.*;
+
+/**
+ * The language filter. The filtered words are compiled once into an Aho-Corasick
+ * automaton, so a message is checked against every word in a single pass no matter
+ * how many words there are. Words are matched without regard to case anywhere in
+ * the message, and every character of a match is replaced with a '*'.
+ * <p><p>
+ *
+ * A filter cannot be changed once it has been built, so any number of threads may
+ * use it at the same time without locking.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalFilter
+{
+	//Constants
+	private final char MASK = '*';
+
+	//Globals
+	private char[][] labels = null;
+	private int[][] targets = null;
+	private int[] fail = null;
+	private int[] matchLength = null;
+	private int wordCount = 0;
+
+	/**
+	 * The class constructor. Blank words are ignored.
+	 *
+	 * @param  words  The words to be filtered.
+	 */
+	HalFilter(String[] words)
+	{
+		ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		ArrayList<Integer> lengths = new ArrayList<Integer>();
+
+		trie.add(new TreeMap<Character, Integer>());
+		lengths.add(0);
+
+		//build a trie of the words
+		for(int i = 0; i < words.length; i++)
+		{
+			String word = words[i].trim();
+
+			if(word.length() == 0)
+				continue;
+
+			int state = 0;
+
+			for(int j = 0; j < word.length(); j++)
+			{
+				Character c = Character.toLowerCase(word.charAt(j));
+				Integer next = trie.get(state).get(c);
+
+				if(next == null)
+				{
+					next = trie.size();
+					trie.add(new TreeMap<Character, Integer>());
+					lengths.add(0);
+					trie.get(state).put(c, next);
+				}
+
+				state = next;
+			}
+
+			lengths.set(state, word.length());
+			wordCount++;
+		}
+
+		int size = trie.size();
+		labels = new char[size][];
+		targets = new int[size][];
+		fail = new int[size];
+		matchLength = new int[size];
+
+		for(int state = 0; state < size; state++)
+		{
+			TreeMap<Character, Integer> children = trie.get(state);
+			labels[state] = new char[children.size()];
+			targets[state] = new int[children.size()];
+			matchLength[state] = lengths.get(state);
+
+			int j = 0;
+			for(Map.Entry<Character, Integer> child : children.entrySet())
+			{
+				labels[state][j] = child.getKey();
+				targets[state][j++] = child.getValue();
+			}
+		}
+
+		//link every state to the longest suffix of it that is also in the trie, working
+		//outwards from the root so that shorter suffixes are always linked first
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		queue.add(0);
+
+		while(!queue.isEmpty())
+		{
+			int state = queue.poll();
+
+			for(int j = 0; j < labels[state].length; j++)
+			{
+				int child = targets[state][j];
+
+				fail[child] = state == 0 ? 0 : next(fail[state], labels[state][j]);
+
+				//a word that ends inside a longer match still has to be masked
+				matchLength[child] = Math.max(matchLength[child], matchLength[fail[child]]);
+
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Masks every filtered word in a message.
+	 *
+	 * @param   message  Unfiltered message.
+	 * @return  String   Filtered message, or the same message if nothing was filtered.
+	 */
+	String filter(String message)
+	{
+		char[] masked = null;
+		int maskedTo = 0;
+		int state = 0;
+
+		for(int i = 0; i < message.length(); i++)
+		{
+			state = next(state, Character.toLowerCase(message.charAt(i)));
+
+			if(matchLength[state] > 0)
+			{
+				if(masked == null)
+					masked = message.toCharArray();
+
+				for(int j = Math.max(i + 1 - matchLength[state], maskedTo); j <= i; j++)
+					masked[j] = MASK;
+
+				maskedTo = i + 1;
+			}
+		}
+
+		return masked == null ? message : new String(masked);
+	}
+
+	/**
+	 * Returns whether a String contains any filtered word.
+	 *
+	 * @param   text     The text to check.
+	 * @return  boolean  Whether or not a filtered word was found.
+	 */
+	boolean matches(String text)
+	{
+		int state = 0;
+
+		for(int i = 0; i < text.length(); i++)
+		{
+			state = next(state, Character.toLowerCase(text.charAt(i)));
+
+			if(matchLength[state] > 0)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the number of words in this filter.
+	 *
+	 * @return  int  The number of words being filtered.
+	 */
+	int getWordCount()
+	{
+		return wordCount;
+	}
+
+	/**
+	 * Moves the automaton on by one character, falling back along the suffix links
+	 * until a state that can be continued is found.
+	 *
+	 * @param   state  The current state.
+	 * @param   c      The next character, already in lower case.
+	 * @return  int    The new state.
+	 */
+	private int next(int state, char c)
+	{
+		while(true)
+		{
+			int j = Arrays.binarySearch(labels[state], c);
+
+			if(j >= 0)
+				return targets[state][j];
+			else if(state == 0)
+				return 0;
+
+			state = fail[state];
+		}
+	}
+}
@@ -0,0 +1,267 @@
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A message that has already been encoded for the wire. A broadcast encodes its
+ * message into one frame and hands that same frame to every client, so the text
+ * is formatted and encoded once no matter how many clients are in the room.
+ * <p><p>
+ *
+ * Frames are reference counted and come from a HalFramePool. Whoever creates a
+ * frame holds one reference, every client that queues it takes another, and the
+ * frame goes back to the pool when the last reference is released. A frame must
+ * not be changed once it has been handed to a client.
+ * <p><p>
+ *
+ * Frames are essential unless marked otherwise. Room traffic is not essential
+ * and may be skipped for a client that is not keeping up.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalFrame
+{
+	//Globals
+	private byte[] data = null;
+	private int length = 0;
+	private boolean essential = true;
+	private final AtomicInteger references = new AtomicInteger(0);
+	private HalFramePool pool = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  pool      The pool this frame is returned to when it is released.
+	 * @param  capacity  The number of bytes the frame can hold before it has to grow.
+	 */
+	HalFrame(HalFramePool pool, int capacity)
+	{
+		this.pool = pool;
+		this.data = new byte[capacity];
+	}
+
+	/**
+	 * Appends a String to the frame encoded as UTF-8. The encoding is done by hand
+	 * so that nothing is allocated unless the frame has to grow.
+	 *
+	 * @param  text  The text to append.
+	 */
+	void append(String text)
+	{
+		int count = text.length();
+		ensureCapacity(length + count * 3);
+
+		for(int i = 0; i < count; i++)
+		{
+			char c = text.charAt(i);
+
+			if(c < 0x80)
+				data[length++] = (byte)c;
+			else if(c < 0x800)
+			{
+				data[length++] = (byte)(0xc0 | (c >> 6));
+				data[length++] = (byte)(0x80 | (c & 0x3f));
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1)))
+			{
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				data[length++] = (byte)(0xf0 | (codePoint >> 18));
+				data[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+				data[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+				data[length++] = (byte)(0x80 | (codePoint & 0x3f));
+			}
+			else if(Character.isSurrogate(c))
+				data[length++] = (byte)'?';
+			else
+			{
+				data[length++] = (byte)(0xe0 | (c >> 12));
+				data[length++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				data[length++] = (byte)(0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	/**
+	 * Appends bytes that have already been encoded, ie: a message kept from an
+	 * earlier frame.
+	 *
+	 * @param  bytes  The bytes to append.
+	 */
+	void append(byte[] bytes)
+	{
+		ensureCapacity(length + bytes.length);
+		System.arraycopy(bytes, 0, data, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/**
+	 * Appends a single byte to the frame.
+	 *
+	 * @param  value  The byte to append, only the low 8 bits are used.
+	 */
+	void appendByte(int value)
+	{
+		ensureCapacity(length + 1);
+		data[length++] = (byte)value;
+	}
+
+	/**
+	 * Appends a number to the frame in network byte order.
+	 *
+	 * @param  value  The number to append.
+	 */
+	void appendInt(int value)
+	{
+		ensureCapacity(length + 4);
+		setInt(length, value);
+		length += 4;
+	}
+
+	/**
+	 * Overwrites a byte that has already been appended, ie: a length that was not
+	 * known until the rest of the frame was encoded.
+	 *
+	 * @param  offset  Where the byte is in the frame.
+	 * @param  value   The new value, only the low 8 bits are used.
+	 */
+	void setByte(int offset, int value)
+	{
+		data[offset] = (byte)value;
+	}
+
+	/**
+	 * Overwrites a number that has already been appended, in network byte order.
+	 *
+	 * @param  offset  Where the number starts in the frame.
+	 * @param  value   The new value.
+	 */
+	void setInt(int offset, int value)
+	{
+		data[offset] = (byte)(value >>> 24);
+		data[offset + 1] = (byte)(value >>> 16);
+		data[offset + 2] = (byte)(value >>> 8);
+		data[offset + 3] = (byte)value;
+	}
+
+	/**
+	 * Makes sure the frame can hold at least the given number of bytes.
+	 *
+	 * @param  capacity  The number of bytes needed.
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if(capacity <= data.length)
+			return;
+
+		byte[] larger = new byte[Math.max(capacity, data.length * 2)];
+		System.arraycopy(data, 0, larger, 0, length);
+		data = larger;
+	}
+
+	/**
+	 * Returns the number of encoded bytes in this frame.
+	 *
+	 * @return  int  The length of the frame.
+	 */
+	int length()
+	{
+		return length;
+	}
+
+	/**
+	 * Returns the number of bytes this frame can hold without growing.
+	 *
+	 * @return  int  The capacity of the frame.
+	 */
+	int capacity()
+	{
+		return data.length;
+	}
+
+	/**
+	 * Returns whether this frame must be delivered even to a client that is lagging.
+	 *
+	 * @return  boolean  Whether or not the frame is essential.
+	 */
+	boolean isEssential()
+	{
+		return essential;
+	}
+
+	/**
+	 * Marks whether this frame must be delivered even to a client that is lagging.
+	 *
+	 * @param  essential  Whether or not the frame is essential.
+	 */
+	void setEssential(boolean essential)
+	{
+		this.essential = essential;
+	}
+
+	/**
+	 * Writes the whole frame to a stream.
+	 *
+	 * @param   out          The stream to write to.
+	 * @throws  IOException  If the stream cannot be written to.
+	 */
+	void writeTo(OutputStream out) throws IOException
+	{
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Returns a copy of the encoded bytes in this frame, which stays valid after the
+	 * frame has been released.
+	 *
+	 * @return  byte[]  The encoded bytes.
+	 */
+	byte[] toByteArray()
+	{
+		return Arrays.copyOf(data, length);
+	}
+
+	/**
+	 * Copies as much of the frame as fits into a buffer, starting at an offset.
+	 *
+	 * @param   buffer  The buffer to copy into.
+	 * @param   offset  The first byte of the frame to copy.
+	 * @return  int     The number of bytes copied.
+	 */
+	int copyTo(ByteBuffer buffer, int offset)
+	{
+		int count = Math.min(length - offset, buffer.remaining());
+		buffer.put(data, offset, count);
+
+		return count;
+	}
+
+	/**
+	 * Takes a reference to this frame. Every reference must be released.
+	 */
+	void retain()
+	{
+		references.incrementAndGet();
+	}
+
+	/**
+	 * Releases a reference to this frame, returning it to its pool once nobody is
+	 * using it anymore.
+	 */
+	void release()
+	{
+		if(references.decrementAndGet() == 0 && pool != null)
+			pool.recycle(this);
+	}
+
+	/**
+	 * Empties the frame and gives it a single reference for whoever is about to fill it.
+	 */
+	void reset()
+	{
+		length = 0;
+		essential = true;
+		references.set(1);
+	}
+}
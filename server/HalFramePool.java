@@ -0,0 +1,57 @@
+import java.util.concurrent.*;
+
+/**
+ * A pool of HalFrame objects so that encoding a message does not allocate a new
+ * buffer every time. Frames that have grown much larger than usual are not kept,
+ * so one very long message does not pin a large buffer in the pool forever.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalFramePool
+{
+	//Constants
+	private final int FRAME_SIZE = 256;
+	private final int MAX_POOLED_FRAME_SIZE = 8192;
+
+	//Globals
+	private ArrayBlockingQueue<HalFrame> frames = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  size  The largest number of free frames kept in the pool.
+	 */
+	HalFramePool(int size)
+	{
+		this.frames = new ArrayBlockingQueue<HalFrame>(Math.max(size, 1));
+	}
+
+	/**
+	 * Takes an empty frame from the pool, creating one if the pool is empty. The
+	 * caller holds the only reference to it and must release it when done.
+	 *
+	 * @return  HalFrame  An empty frame.
+	 */
+	HalFrame acquire()
+	{
+		HalFrame frame = frames.poll();
+
+		if(frame == null)
+			frame = new HalFrame(this, FRAME_SIZE);
+
+		frame.reset();
+		return frame;
+	}
+
+	/**
+	 * Returns a frame that is no longer referenced to the pool.
+	 *
+	 * @param  frame  The frame to return.
+	 */
+	void recycle(HalFrame frame)
+	{
+		if(frame.capacity() <= MAX_POOLED_FRAME_SIZE)
+			frames.offer(frame);
+	}
+}
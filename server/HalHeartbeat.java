@@ -0,0 +1,196 @@
+/**
+ * Watches one logged in client for going quiet. A client that vanished without
+ * closing its connection never sends anything again, so after the server has not
+ * heard from a client for a while it sends it a PING, and a client that has not
+ * answered by the heartbeat timeout is reaped. A client that only answers PINGs
+ * and never says anything is reaped once the idle timeout has passed, if there is
+ * one. Either way the client is disconnected the normal way, so the rest of its
+ * room is told that it has left.
+ * <p><p>
+ *
+ * Clients using the text protocol from before PINGs existed show them as chat and
+ * never answer, so only clients using the binary protocol are pinged, along with
+ * text clients that have sent a PONG and so are known to answer. Text clients that
+ * answer PINGs send one unasked once they have been welcomed.
+ * <p><p>
+ *
+ * Each heartbeat has at most one timeout waiting on the servers HalTimerWheel.
+ * Hearing from the client only records the time, and when the timeout runs it
+ * works out from that time when to run next, so a busy client costs two volatile
+ * writes per message rather than a timer being moved for every message.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalHeartbeat implements Runnable
+{
+	//Globals
+	private HalServer server = null;
+	private HalConnection client = null;
+	private Runnable reaper = null;
+	private volatile long lastHeard = 0;
+	private volatile long lastActive = 0;
+	private volatile boolean pinged = false;
+	private volatile boolean answers = false;
+	private volatile boolean stopped = false;
+	private volatile HalTimerWheel.Timeout timeout = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server  The server the client is connected to.
+	 * @param  client  The client to watch.
+	 * @param  reaper  Disconnects the client without holding up the timer thread.
+	 */
+	HalHeartbeat(HalServer server, HalConnection client, Runnable reaper)
+	{
+		this.server = server;
+		this.client = client;
+		this.reaper = reaper;
+	}
+
+	/**
+	 * Starts watching the client, if heartbeats or the idle timeout are turned on.
+	 * Called once the client has logged in.
+	 */
+	void start()
+	{
+		long now = System.nanoTime();
+		lastHeard = now;
+		lastActive = now;
+
+		if(server.heartbeatMillis > 0)
+			schedule(nextCheck(server.heartbeatMillis, 0));
+		else if(server.idleTimeoutMillis > 0)
+			schedule(server.idleTimeoutMillis);
+	}
+
+	/**
+	 * Records that something was heard from the client.
+	 *
+	 * @param  active  Whether it was sent by the user, false for an answer to a PING.
+	 */
+	void heard(boolean active)
+	{
+		long now = System.nanoTime();
+		lastHeard = now;
+
+		if(active)
+			lastActive = now;
+		else if(!answers)
+			answers = true;
+
+		if(pinged)
+			pinged = false;
+	}
+
+	/**
+	 * Stops watching the client. Called when it disconnects.
+	 */
+	void stop()
+	{
+		stopped = true;
+
+		HalTimerWheel.Timeout timeout = this.timeout;
+		if(timeout != null)
+			timeout.cancel();
+	}
+
+	/**
+	 * Checks on the client. Runs on the timer thread when the timeout is due.
+	 */
+	public void run()
+	{
+		if(stopped)
+			return;
+
+		long now = System.nanoTime();
+		long quiet = (now - lastHeard) / 1000000;
+		long idle = (now - lastActive) / 1000000;
+
+		if(server.idleTimeoutMillis > 0 && idle >= server.idleTimeoutMillis)
+		{
+			reap("* You have been idle for too long! You have been disconnected.");
+			return;
+		}
+
+		if(server.heartbeatMillis <= 0)
+		{
+			schedule(server.idleTimeoutMillis - idle);
+			return;
+		}
+
+		if(quiet < server.heartbeatMillis)
+		{
+			schedule(nextCheck(server.heartbeatMillis - quiet, idle));
+			return;
+		}
+
+		if(!pinged && client.getProtocol() != HalProtocol.BINARY && !answers)
+		{
+			schedule(nextCheck(server.heartbeatMillis, idle));
+			return;
+		}
+
+		if(!pinged)
+		{
+			pinged = true;
+			server.ping(client);
+			schedule(nextCheck(server.heartbeatTimeoutMillis, idle));
+			return;
+		}
+
+		if(quiet >= server.heartbeatMillis + server.heartbeatTimeoutMillis)
+		{
+			reap("* No answer to ping! You have been disconnected.");
+			return;
+		}
+
+		schedule(nextCheck(server.heartbeatMillis + server.heartbeatTimeoutMillis - quiet, idle));
+	}
+
+	/**
+	 * Returns how long to wait before checking again, no later than when the client
+	 * would become idle.
+	 *
+	 * @param   wait  How long the heartbeat needs to wait, in milliseconds.
+	 * @param   idle  How long the user has been idle, in milliseconds.
+	 * @return  long  How long to wait, in milliseconds.
+	 */
+	private long nextCheck(long wait, long idle)
+	{
+		if(server.idleTimeoutMillis > 0)
+			return Math.min(wait, server.idleTimeoutMillis - idle);
+
+		return wait;
+	}
+
+	/**
+	 * Schedules the next check on the timer wheel.
+	 *
+	 * @param  delayMillis  How long to wait, in milliseconds.
+	 */
+	private void schedule(long delayMillis)
+	{
+		timeout = server.timers.schedule(this, delayMillis);
+
+		//stop() may have missed the new timeout
+		if(stopped)
+			timeout.cancel();
+	}
+
+	/**
+	 * Tells the client why and disconnects it.
+	 *
+	 * @param  notice  The message to send the client.
+	 */
+	private void reap(String notice)
+	{
+		stopped = true;
+		server.reapedClients.incrementAndGet();
+		server.sendMessage("Client timed out, disconnecting: " + client.getIp());
+
+		client.sendMessage(notice);
+		reaper.run();
+	}
+}
@@ -0,0 +1,199 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of how long something took, for the server metrics. Values are
+ * counted into buckets that are spaced the way an HDR histogram spaces them: each
+ * power of two is split into SUB_BUCKETS equal buckets, so every value is known to
+ * within about 12% no matter how large it is, and the whole range of a long fits
+ * in a few hundred counters.
+ * <p><p>
+ *
+ * Recording a value is one increment of an atomic counter plus an add to a
+ * LongAdder, so it can be called from any number of threads on the hot paths.
+ * Percentiles are worked out when they are read.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalHistogram
+{
+	//Constants
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	//Globals
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * Records one value.
+	 *
+	 * @param  value  The value, ie: a time in nanoseconds. Negative values count as 0.
+	 */
+	void record(long value)
+	{
+		if(value < 0)
+			value = 0;
+
+		counts.incrementAndGet(bucketOf(value));
+		total.add(value);
+
+		long highest = max.get();
+		while(value > highest && !max.compareAndSet(highest, value))
+			highest = max.get();
+	}
+
+	/**
+	 * Records the time since a start time taken from System.nanoTime().
+	 *
+	 * @param  start  When the thing being timed started.
+	 */
+	void recordSince(long start)
+	{
+		record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 * @return  long  The number of values.
+	 */
+	long getCount()
+	{
+		long count = 0;
+
+		for(int i = 0; i < BUCKETS; i++)
+			count += counts.get(i);
+
+		return count;
+	}
+
+	/**
+	 * Returns the average of the values recorded.
+	 *
+	 * @return  long  The average, or 0 if nothing has been recorded.
+	 */
+	long getMean()
+	{
+		long count = getCount();
+
+		return count == 0 ? 0 : total.sum() / count;
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 *
+	 * @return  long  The largest value, or 0 if nothing has been recorded.
+	 */
+	long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns the value that the given percentage of recorded values are at or below.
+	 * The answer is the top of the bucket it falls in, but never more than getMax().
+	 *
+	 * @param   percentile  The percentage, ie: 99.9.
+	 * @return  long        The value, or 0 if nothing has been recorded.
+	 */
+	long getPercentile(double percentile)
+	{
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if(count == 0)
+			return 0;
+
+		long wanted = Math.max((long)Math.ceil(count * percentile / 100.0), 1);
+		long seen = 0;
+
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+
+			if(seen >= wanted)
+				return Math.min(highestValueOf(i), getMax());
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Forgets every value recorded so far.
+	 */
+	void reset()
+	{
+		for(int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+
+		total.reset();
+		max.set(0);
+	}
+
+	/**
+	 * Returns which bucket a value is counted in.
+	 *
+	 * @param   value  The value, at least 0.
+	 * @return  int    The index of the bucket.
+	 */
+	private static int bucketOf(long value)
+	{
+		if(value < SUB_BUCKETS)
+			return (int)value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest value counted in a bucket.
+	 *
+	 * @param   bucket  The index of the bucket.
+	 * @return  long    The largest value in it.
+	 */
+	private static long highestValueOf(int bucket)
+	{
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+
+		return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Returns a summary of the histogram in microseconds, assuming the values are in
+	 * nanoseconds, ie: "1200 recorded, mean 35us, p50 31us, p99 120us, p99.9 410us, max 900us".
+	 *
+	 * @return  String  The summary.
+	 */
+	public String toString()
+	{
+		return getCount() + " recorded, mean " + micros(getMean()) + ", p50 " + micros(getPercentile(50))
+			+ ", p90 " + micros(getPercentile(90)) + ", p99 " + micros(getPercentile(99))
+			+ ", p99.9 " + micros(getPercentile(99.9)) + ", max " + micros(getMax());
+	}
+
+	/**
+	 * Formats a time in nanoseconds as whole microseconds.
+	 *
+	 * @param   nanos   The time in nanoseconds.
+	 * @return  String  The time, ie: "35us".
+	 */
+	private static String micros(long nanos)
+	{
+		return (nanos / 1000) + "us";
+	}
+}
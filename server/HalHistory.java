@@ -0,0 +1,604 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The chat history. Every message broadcast on the server is appended to a log on
+ * disk that is split into segment files of a fixed size. Each segment is memory
+ * mapped, so appending a message is a copy into memory and the operating system
+ * writes it out in the background. Segments are only forced to disk when they are
+ * full, when the writer has been idle for a moment and when the server shuts down,
+ * so no message waits on the disk.
+ * <p><p>
+ *
+ * Nothing is written by the thread that broadcasts the message. Messages are put
+ * on a bounded queue and a single writer thread appends them, giving each one the
+ * next sequence number. If the writer falls so far behind that the queue fills up,
+ * new messages are dropped from the history rather than holding up the chat.
+ * <p><p>
+ *
+ * A new segment is started when the current one is full or has been open for
+ * longer than the segment time, and the oldest segments are deleted once there
+ * are more than the retention limit. Each segment file is named after the sequence
+ * number of its first message. A record is laid out as follows:
+ * <pre>
+ *   int    length of the rest of the record
+ *   long   sequence number
+ *   long   time, in milliseconds since 1970
+ *   byte   kind of message, ie: HalProtocol.CHAT
+ *   short  length of the room name, then the room name in UTF-8
+ *   short  length of the users name, then the users name in UTF-8
+ *   ...    the text of the message in UTF-8
+ * </pre>
+ * The length is written last, so a record that was cut off part way through is
+ * never read back. A length of 0 marks the end of a segment.
+ * <p><p>
+ *
+ * Messages are read back by sequence number. Every segment keeps the offset of
+ * every INDEX_INTERVAL'th record, so a read only has to skip a few records to find
+ * where to start, however large the segment is.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalHistory implements Runnable
+{
+	//Constants
+	private static final int INDEX_INTERVAL = 64;
+	private static final int RECORD_HEADER_LENGTH = 4 + 8 + 8 + 1 + 2 + 2;
+	private static final int MIN_SEGMENT_BYTES = 65536;
+	private static final long FORCE_INTERVAL = 1000;
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	//Globals
+	private File directory = null;
+	private int segmentBytes = 0;
+	private long segmentMillis = 0;
+	private int maxSegments = 0;
+	private final ArrayBlockingQueue<Entry> queue;
+	private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+	private final AtomicLong dropped = new AtomicLong(0);
+	private Segment active = null;
+	private long nextSequence = 1;
+	private long lastForce = 0;
+	private boolean dirty = false;
+	private volatile boolean running = false;
+	private Thread writer = null;
+	private HalLog log = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  directory       The directory the segment files are kept in.
+	 * @param  segmentBytes    The size of each segment file.
+	 * @param  segmentMinutes  How long a segment is written to before a new one is started, 0 for no limit.
+	 * @param  maxSegments     The number of segments to keep.
+	 * @param  queueSize       The number of messages that may wait to be written.
+	 * @param  log             The log that errors are reported to.
+	 */
+	HalHistory(File directory, int segmentBytes, int segmentMinutes, int maxSegments, int queueSize, HalLog log)
+	{
+		this.log = log;
+		this.directory = directory;
+		this.segmentBytes = Math.max(segmentBytes, MIN_SEGMENT_BYTES);
+		this.segmentMillis = segmentMinutes * 60000L;
+		this.maxSegments = Math.max(maxSegments, 1);
+		this.queue = new ArrayBlockingQueue<Entry>(Math.max(queueSize, 1));
+	}
+
+	/**
+	 * Reads the segments already on disk and starts the writer thread. New messages
+	 * always go into a new segment, numbered on from the last message on disk.
+	 */
+	void open() throws IOException
+	{
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create history directory: " + directory);
+
+		File[] files = directory.listFiles();
+
+		for(int i = 0; i < files.length; i++)
+		{
+			String name = files[i].getName();
+
+			if(!name.endsWith(SEGMENT_SUFFIX))
+				continue;
+
+			try
+			{
+				long first = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+				segments.put(first, recover(files[i], first));
+			}
+			catch(NumberFormatException nfe){}
+		}
+
+		if(!segments.isEmpty())
+			nextSequence = Math.max(segments.lastEntry().getValue().lastSequence + 1, segments.lastKey());
+
+		running = true;
+		writer = new Thread(this, "HalHistory");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops the writer thread once everything waiting has been written, and forces
+	 * the current segment to disk.
+	 */
+	void close()
+	{
+		running = false;
+
+		try
+		{
+			if(writer != null)
+				writer.join(5000);
+		}
+		catch(InterruptedException ie){}
+	}
+
+	/**
+	 * Queues a message to be added to the history. Never blocks, if the writer has
+	 * fallen too far behind the message is dropped and counted.
+	 *
+	 * @param  kind  The kind of message, ie: HalProtocol.CHAT.
+	 * @param  room  The name of the room it was sent to, or "" if it went to every room.
+	 * @param  user  The name of the user who sent it, or "" if it was from the server.
+	 * @param  text  The text of the message.
+	 */
+	void append(int kind, String room, String user, String text)
+	{
+		if(!running || !queue.offer(new Entry(0, System.currentTimeMillis(), kind, room, user, text)))
+			dropped.incrementAndGet();
+	}
+
+	/**
+	 * Writes queued messages until the history is closed. Segments are rolled when
+	 * they are too old and forced to disk when there is nothing waiting.
+	 */
+	public void run()
+	{
+		while(running || !queue.isEmpty())
+		{
+			try
+			{
+				Entry entry = queue.poll(FORCE_INTERVAL, TimeUnit.MILLISECONDS);
+				long now = System.currentTimeMillis();
+
+				if(entry != null)
+					write(entry);
+
+				if(active != null && segmentMillis > 0 && now - active.opened >= segmentMillis && active.end > 0)
+					roll(now);
+				else if(dirty && queue.isEmpty() && now - lastForce >= FORCE_INTERVAL)
+					force(now);
+			}
+			catch(InterruptedException ie){}
+			catch(Exception e)
+			{
+				log.error("Error writing chat history.", e);
+			}
+		}
+
+		if(active != null)
+			force(System.currentTimeMillis());
+	}
+
+	/**
+	 * Appends one message to the current segment, starting a new one if it is full.
+	 *
+	 * @param  entry  The message to append.
+	 */
+	private void write(Entry entry) throws IOException
+	{
+		byte[] room = limit(entry.room.getBytes(CHARSET), Short.MAX_VALUE);
+		byte[] user = limit(entry.user.getBytes(CHARSET), Short.MAX_VALUE);
+		byte[] text = entry.text.getBytes(CHARSET);
+
+		//a message is never split over two segments
+		text = limit(text, segmentBytes - RECORD_HEADER_LENGTH - room.length - user.length - 4);
+		int length = RECORD_HEADER_LENGTH - 4 + room.length + user.length + text.length;
+
+		if(active == null || active.end + 4 + length + 4 > segmentBytes)
+			roll(System.currentTimeMillis());
+
+		long sequence = nextSequence++;
+		int offset = active.end;
+		MappedByteBuffer buffer = active.buffer;
+
+		buffer.position(offset + 4);
+		buffer.putLong(sequence);
+		buffer.putLong(entry.time);
+		buffer.put((byte)entry.kind);
+		buffer.putShort((short)room.length);
+		buffer.put(room);
+		buffer.putShort((short)user.length);
+		buffer.put(user);
+		buffer.put(text);
+
+		//the length goes in last, so only a finished record can be read
+		buffer.putInt(offset, length);
+
+		active.indexRecord(sequence, offset);
+		active.lastSequence = sequence;
+		active.end = offset + 4 + length;
+		dirty = true;
+	}
+
+	/**
+	 * Finishes the current segment and starts a new one, deleting the oldest segments
+	 * if there are now more than the retention limit.
+	 *
+	 * @param  now  The current time.
+	 */
+	private void roll(long now) throws IOException
+	{
+		if(active != null)
+			force(now);
+
+		File file = new File(directory, String.format("%020d", nextSequence) + SEGMENT_SUFFIX);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try
+		{
+			raf.setLength(segmentBytes);
+			active = new Segment(file, nextSequence, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes), now);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		segments.put(active.first, active);
+
+		while(segments.size() > maxSegments)
+		{
+			Segment oldest = segments.pollFirstEntry().getValue();
+
+			if(!oldest.file.delete())
+				log.error("Unable to delete old history segment: " + oldest.file);
+		}
+	}
+
+	/**
+	 * Forces the current segment to disk.
+	 *
+	 * @param  now  The current time.
+	 */
+	private void force(long now)
+	{
+		active.buffer.force();
+		lastForce = now;
+		dirty = false;
+	}
+
+	/**
+	 * Reads a segment left on disk by an earlier run, indexing its records and
+	 * finding where it ends.
+	 *
+	 * @param   file     The segment file.
+	 * @param   first    The sequence number of the first record in the segment.
+	 * @return  Segment  The segment, read only.
+	 */
+	private Segment recover(File file, long first) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		Segment segment = null;
+
+		try
+		{
+			segment = new Segment(file, first, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()), file.lastModified());
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		ByteBuffer buffer = segment.buffer;
+		int offset = 0;
+		long sequence = first;
+
+		while(offset + 4 <= buffer.capacity())
+		{
+			int length = buffer.getInt(offset);
+
+			//stop at the end of the segment, or at a record that was never finished
+			if(length < RECORD_HEADER_LENGTH - 4 || offset + 4 + length > buffer.capacity() || buffer.getLong(offset + 4) != sequence)
+				break;
+
+			segment.indexRecord(sequence, offset);
+			segment.lastSequence = sequence++;
+			offset += 4 + length;
+		}
+
+		segment.end = offset;
+
+		return segment;
+	}
+
+	/**
+	 * Reads messages from the history in the order they were sent.
+	 *
+	 * @param   from          The sequence number to start at. Earlier messages that have been deleted are skipped.
+	 * @param   count         The largest number of messages to return.
+	 * @param   room          Only return messages sent to this room, or null for every message.
+	 * @return  List<Entry>   The messages.
+	 */
+	List<Entry> read(long from, int count, String room)
+	{
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		Long start = segments.floorKey(from);
+
+		if(start == null)
+			start = Long.MIN_VALUE;
+
+		for(Segment segment : segments.tailMap(start).values())
+		{
+			//the writer moves the last sequence on before the end, so reading them the other
+			//way round means every record up to the last sequence has been written and indexed
+			long last = segment.lastSequence;
+			int end = segment.end;
+			long sequence = Math.max(from, segment.first);
+			ByteBuffer buffer = segment.buffer.duplicate();
+
+			if(sequence > last)
+				continue;
+
+			int offset = segment.offsetOf(sequence);
+
+			//skip forward from the indexed record to the one asked for
+			while(offset < end && buffer.getLong(offset + 4) < sequence)
+				offset += 4 + buffer.getInt(offset);
+
+			while(offset < end && entries.size() < count)
+			{
+				Entry entry = decode(buffer, offset);
+				offset += 4 + buffer.getInt(offset);
+
+				if(room == null || entry.room.equalsIgnoreCase(room))
+					entries.add(entry);
+			}
+
+			if(entries.size() == count)
+				break;
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Reads the latest messages sent to a room. Only the last window messages sent
+	 * anywhere on the server are searched, so a quiet room may get fewer than asked for.
+	 *
+	 * @param   room         The name of the room.
+	 * @param   count        The largest number of messages to return.
+	 * @param   window       The number of messages to search.
+	 * @return  List<Entry>  The messages, oldest first.
+	 */
+	List<Entry> recent(String room, int count, int window)
+	{
+		List<Entry> entries = read(getNextSequence() - window, window, room);
+
+		return entries.subList(Math.max(entries.size() - count, 0), entries.size());
+	}
+
+	/**
+	 * Returns the sequence number the next message written will be given.
+	 *
+	 * @return  long  The next sequence number.
+	 */
+	long getNextSequence()
+	{
+		Map.Entry<Long, Segment> last = segments.lastEntry();
+
+		return last == null ? 1 : Math.max(last.getValue().lastSequence + 1, last.getKey());
+	}
+
+	/**
+	 * Returns the sequence number of the oldest message still kept.
+	 *
+	 * @return  long  The first sequence number.
+	 */
+	long getFirstSequence()
+	{
+		Map.Entry<Long, Segment> first = segments.firstEntry();
+
+		return first == null ? 1 : first.getKey();
+	}
+
+	/**
+	 * Returns a description of the history, ie: "3 segments, messages 1 to 52013, 0 dropped".
+	 *
+	 * @return  String  The state of the history.
+	 */
+	public String toString()
+	{
+		return segments.size() + " segments, messages " + getFirstSequence() + " to " + (getNextSequence() - 1)
+			+ ", " + queue.size() + " waiting, " + dropped.get() + " dropped";
+	}
+
+	/**
+	 * Decodes the record at an offset in a segment.
+	 *
+	 * @param   buffer  The segment.
+	 * @param   offset  Where the record starts.
+	 * @return  Entry   The message in the record.
+	 */
+	private Entry decode(ByteBuffer buffer, int offset)
+	{
+		int end = offset + 4 + buffer.getInt(offset);
+		buffer.position(offset + 4);
+
+		long sequence = buffer.getLong();
+		long time = buffer.getLong();
+		int kind = buffer.get();
+		String room = readString(buffer, buffer.getShort());
+		String user = readString(buffer, buffer.getShort());
+		String text = readString(buffer, end - buffer.position());
+
+		return new Entry(sequence, time, kind, room, user, text);
+	}
+
+	/**
+	 * Reads a UTF-8 string from the current position of a buffer.
+	 *
+	 * @param   buffer  The buffer.
+	 * @param   length  The number of bytes in the string.
+	 * @return  String  The string.
+	 */
+	private String readString(ByteBuffer buffer, int length)
+	{
+		byte[] data = new byte[length];
+		buffer.get(data);
+
+		return new String(data, CHARSET);
+	}
+
+	/**
+	 * Cuts an encoded string down to a number of bytes.
+	 *
+	 * @param   data    The encoded string.
+	 * @param   length  The largest number of bytes to keep.
+	 * @return  byte[]  The string, or the same string if it was short enough.
+	 */
+	private byte[] limit(byte[] data, int length)
+	{
+		return data.length <= length ? data : Arrays.copyOf(data, length);
+	}
+
+	/**
+	 * One segment file. Only the writer thread changes a segment, and it publishes
+	 * each record by moving the end on after the record has been written.
+	 */
+	private static class Segment
+	{
+		//Globals
+		final File file;
+		final long first;
+		final MappedByteBuffer buffer;
+		final long opened;
+		volatile long lastSequence;
+		volatile int end = 0;
+		private int[] index = new int[16];
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  file    The segment file.
+		 * @param  first   The sequence number of the first record.
+		 * @param  buffer  The mapped file.
+		 * @param  opened  When the segment was started.
+		 */
+		Segment(File file, long first, MappedByteBuffer buffer, long opened)
+		{
+			this.file = file;
+			this.first = first;
+			this.buffer = buffer;
+			this.opened = opened;
+			this.lastSequence = first - 1;
+		}
+
+		/**
+		 * Remembers where a record starts, if it is one of the records that are indexed.
+		 *
+		 * @param  sequence  The sequence number of the record.
+		 * @param  offset    Where the record starts.
+		 */
+		void indexRecord(long sequence, int offset)
+		{
+			int slot = (int)((sequence - first) / INDEX_INTERVAL);
+
+			if((sequence - first) % INDEX_INTERVAL != 0)
+				return;
+
+			if(slot == index.length)
+				index = Arrays.copyOf(index, index.length * 2);
+
+			index[slot] = offset;
+		}
+
+		/**
+		 * Returns where the closest indexed record at or before a sequence number starts.
+		 *
+		 * @param   sequence  A sequence number in this segment.
+		 * @return  int       The offset of the indexed record.
+		 */
+		int offsetOf(long sequence)
+		{
+			return index[(int)((sequence - first) / INDEX_INTERVAL)];
+		}
+	}
+
+	/**
+	 * One message in the history.
+	 */
+	static class Entry
+	{
+		//Globals
+		final long sequence;
+		final long time;
+		final int kind;
+		final String room;
+		final String user;
+		final String text;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  sequence  The sequence number, or 0 if it has not been written yet.
+		 * @param  time      When the message was sent.
+		 * @param  kind      The kind of message, ie: HalProtocol.CHAT.
+		 * @param  room      The name of the room it was sent to, or "".
+		 * @param  user      The name of the user who sent it, or "".
+		 * @param  text      The text of the message.
+		 */
+		Entry(long sequence, long time, int kind, String room, String user, String text)
+		{
+			this.sequence = sequence;
+			this.time = time;
+			this.kind = kind;
+			this.room = room;
+			this.user = user;
+			this.text = text;
+		}
+
+		/**
+		 * Returns the message as it was shown in the room, ie: "bob: hello".
+		 *
+		 * @return  String  The message.
+		 */
+		String getLine()
+		{
+			switch(kind)
+			{
+				case HalProtocol.CHAT:
+					return user + ": " + text;
+				case HalProtocol.JOIN:
+					return user + " has entered the room.";
+				case HalProtocol.LEAVE:
+					return user + " has left the room.";
+				default:
+					return text;
+			}
+		}
+
+		/**
+		 * Returns the message with when and where it was sent, ie: "#52 2009-04-20
+		 * 14:02:11 [lobby] bob: hello".
+		 *
+		 * @return  String  The message.
+		 */
+		public String toString()
+		{
+			String when = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time));
+
+			return "#" + sequence + " " + when + (room.equals("") ? " " : " [" + room + "] ") + getLine();
+		}
+	}
+}
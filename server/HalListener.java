@@ -1,135 +1,268 @@
-import java.net.*;
-
-/**
- * This is the listening thread for the HalServer class. While this
- * is a thread, there should be always be only either 0 or 1 instance
- * of it running. It starts the server and listens for connections and
- * is its own seperate thread so that it will not interfere with the
- * terminal and processing taking place in the HalServer thread.
- * <p><p>
- * 
- * All this thread does in a nutshell is create a serverSocket and listen
- * on the specified port. If a connection is established then it gives a socket,
- * starts it a HalClientThread and then goes back to listening again.
- * 
- * @author  Evan Lennick <eml0300@mail.widener.edu>
- * @version 1.0
- */
-public class HalListener extends Thread
-{
-	private boolean listening = false;
-	private HalServer server = null;
-	private Socket socket = null;
-	private ServerSocket serverSocket = null;
-	private int port = 0;
-
-	/**
-	 * The thread constructor.
-	 * 
-	 * @param  server  The HalServer that started this thread.
-	 * @param  port    The port to listen for connections on.
-	 */
-	HalListener(HalServer server, int port)
-	{
-		this.server = server;
-		this.port = port;
-	}
-
-	/**
-	 * The main process of this thread. It listens for connections and starts
-	 * a client thread for them when they connect.
-	 */
-	public void run()
-	{
-		try
-		{
-			//start server
-			try
-			{
-				serverSocket = new ServerSocket(port);
-				serverSocket.setSoTimeout(250);
-			}
-			catch(BindException be)
-			{
-				server.sendMessage("Unable to start server because port " + port + " is already in use.");
-				return;
-			}
-
-			listening = true;
-			printStatus();
-			//listen for connections
-			while(listening)
-			{
-				try
-				{
-					socket = serverSocket.accept();
-				}
-				catch(SocketTimeoutException ste){}
-				catch(SocketException se){ return; }
-
-				if(socket != null)
-				{
-					HalClientThread client = new HalClientThread(socket, server);
-					client.start();
-					server.sendMessage("New client connection from " + client.getIp());
-					socket = null;
-				}
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Exception: " + e.getMessage());
-		}
-	}
-
-	/**
-	 * A method that returns the port currently being listened to.
-	 * 
-	 * @return  int  Port being listened to for connections.
-	 */
-	public int getListeningPort()
-	{
-		if(serverSocket == null)
-			return 0;
-
-		return serverSocket.getLocalPort();
-	}
-
-	/**
-	 * Prints out a list of server information.
-	 */
-	public void printStatus()
-	{
-		try
-		{
-			server.sendMessage("Server address:       \t" + InetAddress.getLocalHost());
-			server.sendMessage("Server listening port:\t" + getListeningPort());
-			server.sendMessage(server.listUsers());
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Error getting localhost address.");
-			System.err.println("*** Exception: " + e.getMessage());
-		}
-	}
-
-	/**
-	 * Stops the server. Stops listening for connections and closes the ServerSocket.
-	 */
-	public void halt()
-	{
-		listening = false;
-
-		try
-		{
-			if(serverSocket != null)
-			{
-				serverSocket.close();
-				serverSocket = null;
-			}
-
-			server.sendMessage("Server stopped.");
-		}
-		catch(Exception e){}
-	}
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This is the listening thread for the HalServer class. While this
+ * is a thread, there should be always be only either 0 or 1 instance
+ * of it running. It starts the server and listens for connections and
+ * is its own seperate thread so that it will not interfere with the
+ * terminal and processing taking place in the HalServer thread.
+ * <p><p>
+ * 
+ * All this thread does in a nutshell is create a serverSocket and listen
+ * on the specified port. If a connection is established then it hands the socket
+ * to a HalClientThread and then goes back to listening again. More than one
+ * thread can accept connections when "AcceptorThreads" is set in the config
+ * file. Client sessions are run by an executor so that the "virtual" engine can
+ * run them on virtual threads instead of platform threads.
+ * <p><p>
+ * 
+ * When "WriteDelay" is set in the config file, output for a client is written
+ * that many milliseconds after the first message is queued instead of straight
+ * away, so that messages sent in the meantime go out in the same write.
+ * 
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalListener extends Thread
+{
+	protected volatile boolean listening = false;
+	protected HalServer server = null;
+	private ServerSocket serverSocket = null;
+	protected ExecutorService sessions = null;
+	protected int port = 0;
+	protected int writeDelay = 0;
+	private ScheduledExecutorService writeTimer = null;
+
+	//Constants
+	protected final int DEFAULT_BACKLOG = 1024;
+
+	/**
+	 * The thread constructor.
+	 * 
+	 * @param  server  The HalServer that started this thread.
+	 * @param  port    The port to listen for connections on.
+	 */
+	HalListener(HalServer server, int port)
+	{
+		this.server = server;
+		this.port = port;
+	}
+
+	/**
+	 * The main process of this thread. It opens the server socket, starts any
+	 * extra acceptor threads and then accepts connections itself.
+	 */
+	public void run()
+	{
+		try
+		{
+			//start server
+			try
+			{
+				serverSocket = new ServerSocket(port, server.getConfig("AcceptBacklog", DEFAULT_BACKLOG));
+			}
+			catch(BindException be)
+			{
+				server.sendMessage("Unable to start server because port " + port + " is already in use.");
+				return;
+			}
+
+			sessions = server.newSessionExecutor();
+			startWriteTimer();
+			listening = true;
+			printStatus();
+
+			//this thread is the first acceptor
+			final ServerSocket acceptSocket = serverSocket;
+			int acceptors = server.getConfig("AcceptorThreads", 1);
+			for(int i = 1; i < acceptors; i++)
+			{
+				Thread acceptor = new Thread(new Runnable()
+				{
+					public void run()
+					{
+						acceptConnections(acceptSocket);
+					}
+				}, "HalAcceptor-" + i);
+				acceptor.start();
+			}
+
+			acceptConnections(acceptSocket);
+		}
+		catch(Exception e)
+		{
+			server.log.error("Exception: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Accepts connections until the server is stopped. Accept blocks until a client
+	 * connects or halt() closes the socket. Each connection is handed straight to the
+	 * sessions executor, which sets up the client streams on the session thread so
+	 * that a burst of connections is not held up behind stream setup.
+	 * 
+	 * @param  serverSocket  The socket to accept connections from.
+	 */
+	private void acceptConnections(ServerSocket serverSocket)
+	{
+		while(listening)
+		{
+			final Socket socket;
+
+			try
+			{
+				socket = serverSocket.accept();
+			}
+			catch(IOException ioe)
+			{
+				//halt() closed the socket
+				if(!listening || serverSocket.isClosed())
+					return;
+
+				server.log.error("Error accepting connection.", ioe);
+				continue;
+			}
+
+			try
+			{
+				sessions.execute(new Runnable()
+				{
+					public void run()
+					{
+						HalClientThread client = new HalClientThread(socket, server, HalListener.this);
+						server.sendMessage("New client connection from " + client.getIp());
+						client.run();
+					}
+				});
+			}
+			catch(Exception e)
+			{
+				//the server was stopped while this connection was being accepted
+				try
+				{
+					socket.close();
+				}
+				catch(Exception e2){}
+			}
+		}
+	}
+
+	/**
+	 * Starts the timer that delays writes, if the config file asks for a delay.
+	 */
+	protected void startWriteTimer()
+	{
+		writeDelay = server.getConfig("WriteDelay", 0);
+
+		if(writeDelay > 0)
+			writeTimer = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	/**
+	 * Stops the timer that delays writes. Writes that are already waiting still happen.
+	 */
+	protected void stopWriteTimer()
+	{
+		if(writeTimer != null)
+			writeTimer.shutdown();
+	}
+
+	/**
+	 * Runs a task that starts writing a clients output, after the write delay if
+	 * there is one.
+	 * 
+	 * @param   task                        The task that starts the write.
+	 * @throws  RejectedExecutionException  If the server has been stopped.
+	 */
+	void delayWrite(Runnable task)
+	{
+		if(writeTimer == null)
+			task.run();
+		else
+			writeTimer.schedule(task, writeDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * A method that returns the port currently being listened to.
+	 * 
+	 * @return  int  Port being listened to for connections.
+	 */
+	public int getListeningPort()
+	{
+		if(serverSocket == null)
+			return 0;
+
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Prints out a list of server information.
+	 */
+	public void printStatus()
+	{
+		try
+		{
+			server.sendMessage("Server address:       \t" + InetAddress.getLocalHost());
+			server.sendMessage("Server listening port:\t" + getListeningPort());
+			server.sendMessage("Server engine:        \t" + server.engine);
+			server.sendMessage("Server capacity:      \t" + server.getCapacity());
+			server.sendMessage("Slow clients:         \t" + server.throttledClients.get() + " throttled, " + server.evictedClients.get() + " evicted, " + server.droppedFrames.get() + " messages dropped");
+			server.sendMessage(server.roster.firstPage(server.usersPageSize).toString());
+
+			server.sendMessage("Heartbeats:           \t" + (server.heartbeatMillis > 0 ? "every " + server.heartbeatMillis / 1000 + "s, " + server.heartbeatTimeoutMillis / 1000 + "s to answer" : "off")
+				+ (server.idleTimeoutMillis > 0 ? ", idle after " + server.idleTimeoutMillis / 60000 + "m" : "") + ", " + server.reapedClients.get() + " reaped, timers " + server.timers);
+
+			server.sendMessage("Files:                \t" + server.reloader);
+			server.sendMessage("Log:                  \t" + server.log);
+			server.sendMessage("Rate limits:          \t" + HalRateLimiter.fromConfig(server) + ", " + server.rateLimitedMessages.get() + " messages over the limit");
+
+			if(server.history != null)
+				server.sendMessage("Chat history:         \t" + server.history);
+
+			if(server.federation != null)
+				server.sendMessage("Federation:           \t" + server.federation);
+
+			List<HalRoom> rooms = server.listRooms();
+			server.sendMessage("Rooms:                \t" + rooms.size() + " open");
+
+			for(HalRoom room : rooms)
+				server.sendMessage("  " + room);
+		}
+		catch(Exception e)
+		{
+			server.log.error("Error getting localhost address.", e);
+		}
+	}
+
+	/**
+	 * Stops the server. Stops listening for connections and closes the ServerSocket.
+	 */
+	public void halt()
+	{
+		listening = false;
+
+		try
+		{
+			if(serverSocket != null)
+			{
+				serverSocket.close();
+				serverSocket = null;
+			}
+
+			//running sessions finish on their own when their clients disconnect
+			if(sessions != null)
+			{
+				sessions.shutdown();
+				sessions = null;
+			}
+
+			stopWriteTimer();
+
+			server.sendMessage("Server stopped.");
+		}
+		catch(Exception e){}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,563 @@
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The server log. Everything the server prints, from the status of the server to
+ * errors talking to clients, goes through here, so no listener, command or client
+ * thread ever waits on the terminal or a log file. Messages are put in a ring of
+ * entries that is allocated once, and a single writer thread prints them in the
+ * order they were logged. If the writer falls so far behind that the ring is full,
+ * new messages are dropped and counted rather than holding up the thread logging
+ * them.
+ * <p><p>
+ *
+ * A thread logging a message claims the next entry of the ring with a compare and
+ * set, fills it in and then publishes it by setting its sequence number, so no lock
+ * is taken and threads logging at the same time never wait on each other. The
+ * writer only prints an entry once it has been published.
+ * <p><p>
+ *
+ * Every message is printed to the terminal the way the server always has, errors
+ * and warnings on the error stream starting with "***". The writer buffers what it
+ * prints and only flushes once it has caught up, so a burst of messages costs a
+ * few large writes rather than one per line. Messages can also be
+ * written to a log file, each line starting with the time and level. The file is
+ * rotated once it has grown past its size limit: "server.log" is renamed to
+ * "server.log.1", the older files move up one, and the oldest is deleted.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalLog implements Runnable
+{
+	//Constants
+	static final int DEBUG = 0;
+	static final int INFO = 1;
+	static final int WARN = 2;
+	static final int ERROR = 3;
+	private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+	private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long FLUSH_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+	//Globals
+	volatile int level = INFO;
+	private final Entry[] ring;
+	private final AtomicLongArray published;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong(0);
+	private volatile long written = 0;
+	private volatile long flushed = 0;
+	private final AtomicLong dropped = new AtomicLong(0);
+	private volatile boolean sleeping = false;
+	private volatile boolean running = false;
+	private volatile Thread writer = null;
+	private volatile File file = null;
+	private long maxFileBytes = 0;
+	private int maxFiles = 0;
+	private Writer fileWriter = null;
+	private long fileBytes = 0;
+	private long reportedDropped = 0;
+	private final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 65536), false);
+	private final PrintStream err = new PrintStream(new BufferedOutputStream(System.err, 8192), false);
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.");
+	private long stampSecond = -1;
+	private String stamp = null;
+
+	/**
+	 * The class constructor. Messages logged before the writer is started wait in
+	 * the ring.
+	 *
+	 * @param  size  The number of messages that may wait to be printed, rounded up to a power of two.
+	 */
+	HalLog(int size)
+	{
+		int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+
+		this.ring = new Entry[capacity];
+		this.published = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+
+		for(int i = 0; i < capacity; i++)
+		{
+			ring[i] = new Entry();
+			published.set(i, -1);
+		}
+	}
+
+	/**
+	 * Sets the file messages are also written to. Must be called before the writer
+	 * is started.
+	 *
+	 * @param  file          The log file, appended to if it already exists.
+	 * @param  maxFileBytes  How large the file may grow before it is rotated, 0 for no limit.
+	 * @param  maxFiles      The number of rotated files to keep.
+	 */
+	void setFile(File file, long maxFileBytes, int maxFiles)
+	{
+		this.file = file;
+		this.maxFileBytes = maxFileBytes;
+		this.maxFiles = Math.max(maxFiles, 0);
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	synchronized void open()
+	{
+		if(running)
+			return;
+
+		if(file != null)
+			openFile();
+
+		running = true;
+		writer = new Thread(this, "HalLog");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops the writer thread once everything waiting has been printed, and closes
+	 * the log file.
+	 */
+	void close()
+	{
+		running = false;
+
+		Thread writer = this.writer;
+		if(writer == null)
+			return;
+
+		LockSupport.unpark(writer);
+
+		try
+		{
+			writer.join(5000);
+		}
+		catch(InterruptedException ie){}
+	}
+
+	/**
+	 * Waits until every message logged so far has been printed, or a second has
+	 * passed. Used by the server terminal so that its prompt comes after the output
+	 * of the last command.
+	 */
+	void flush()
+	{
+		long target = next.get();
+		long deadline = System.nanoTime() + FLUSH_TIMEOUT;
+
+		while(running && flushed < target && System.nanoTime() < deadline)
+		{
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Returns whether messages of a level are being logged, so that a caller can
+	 * skip building a message that would be thrown away.
+	 *
+	 * @param   level    The level, ie: HalLog.DEBUG.
+	 * @return  boolean  Whether or not messages of the level are logged.
+	 */
+	boolean isLogging(int level)
+	{
+		return level >= this.level;
+	}
+
+	/**
+	 * Logs a message used when working out what the server is doing.
+	 *
+	 * @param  message  The message.
+	 */
+	void debug(String message)
+	{
+		log(DEBUG, message, null);
+	}
+
+	/**
+	 * Logs a message about the normal running of the server.
+	 *
+	 * @param  message  The message.
+	 */
+	void info(String message)
+	{
+		log(INFO, message, null);
+	}
+
+	/**
+	 * Logs a message about something that went wrong but did no harm.
+	 *
+	 * @param  message  The message.
+	 */
+	void warn(String message)
+	{
+		log(WARN, message, null);
+	}
+
+	/**
+	 * Logs an error.
+	 *
+	 * @param  message  The message.
+	 */
+	void error(String message)
+	{
+		log(ERROR, message, null);
+	}
+
+	/**
+	 * Logs an error and the exception that caused it.
+	 *
+	 * @param  message    The message.
+	 * @param  exception  The exception.
+	 */
+	void error(String message, Throwable exception)
+	{
+		log(ERROR, message, exception);
+	}
+
+	/**
+	 * Puts a message in the ring. Never blocks, if the ring is full the message is
+	 * dropped and counted.
+	 *
+	 * @param  level      The level of the message.
+	 * @param  message    The message.
+	 * @param  exception  The exception that caused it, or null.
+	 */
+	void log(int level, String message, Throwable exception)
+	{
+		if(level < this.level)
+			return;
+
+		long sequence = 0;
+
+		do
+		{
+			sequence = next.get();
+
+			if(sequence - written >= ring.length)
+			{
+				dropped.incrementAndGet();
+				return;
+			}
+		}
+		while(!next.compareAndSet(sequence, sequence + 1));
+
+		int index = (int)(sequence & mask);
+		Entry entry = ring[index];
+		entry.level = level;
+		entry.time = System.currentTimeMillis();
+		entry.message = message;
+		entry.exception = exception;
+
+		//publishing the sequence number hands the entry to the writer
+		published.set(index, sequence);
+
+		if(sleeping)
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Prints published messages in order until the log is closed. Output is flushed
+	 * whenever the writer has caught up.
+	 */
+	public void run()
+	{
+		long sequence = written;
+
+		while(true)
+		{
+			int index = (int)(sequence & mask);
+
+			if(published.get(index) == sequence)
+			{
+				Entry entry = ring[index];
+				print(entry);
+
+				entry.message = null;
+				entry.exception = null;
+				written = ++sequence;
+				continue;
+			}
+
+			//a message may have been claimed but not published yet, so only stop once nothing is claimed
+			if(!running && next.get() == sequence)
+				break;
+
+			flushOutput();
+			flushed = sequence;
+
+			sleeping = true;
+			if(published.get(index) != sequence && running)
+				LockSupport.parkNanos(this, IDLE_WAIT);
+			sleeping = false;
+		}
+
+		flushOutput();
+		flushed = sequence;
+		closeFile();
+	}
+
+	/**
+	 * Prints one message to the terminal and the log file.
+	 *
+	 * @param  entry  The message.
+	 */
+	private void print(Entry entry)
+	{
+		String exception = entry.exception == null ? null : "Exception: " + entry.exception.getMessage();
+		String[] trace = entry.exception == null ? null : stackTrace(entry.exception);
+
+		if(entry.level >= WARN)
+		{
+			err.println("*** " + entry.message);
+
+			if(exception != null)
+			{
+				err.println("*** " + exception);
+
+				for(String line : trace)
+					err.println(line);
+			}
+		}
+		else
+		{
+			out.println(entry.message);
+
+			if(exception != null)
+			{
+				for(String line : trace)
+					out.println(line);
+			}
+		}
+
+		if(fileWriter != null)
+		{
+			writeFile(entry, entry.message);
+
+			if(exception != null)
+			{
+				writeFile(entry, exception);
+
+				for(String line : trace)
+					writeFile(entry, line);
+			}
+		}
+	}
+
+	/**
+	 * Returns the stack trace of an exception, and of the exceptions that caused it,
+	 * one line at a time. Only called on the writer thread, so a thread logging an
+	 * error never waits for its stack trace to be formatted.
+	 *
+	 * @param   exception  The exception.
+	 * @return  String[]   The lines of the stack trace.
+	 */
+	private static String[] stackTrace(Throwable exception)
+	{
+		StringWriter trace = new StringWriter();
+		PrintWriter writer = new PrintWriter(trace);
+
+		exception.printStackTrace(writer);
+		writer.flush();
+
+		return trace.toString().split("\\r?\\n");
+	}
+
+	/**
+	 * Flushes the terminal and the log file, and notes any messages dropped since
+	 * the last time.
+	 */
+	private void flushOutput()
+	{
+		long dropped = this.dropped.get();
+
+		if(dropped != reportedDropped)
+		{
+			err.println("*** Log fell behind, " + (dropped - reportedDropped) + " messages were dropped.");
+			reportedDropped = dropped;
+		}
+
+		err.flush();
+		out.flush();
+
+		try
+		{
+			if(fileWriter != null)
+				fileWriter.flush();
+		}
+		catch(IOException ioe)
+		{
+			fileFailed(ioe);
+		}
+	}
+
+	/**
+	 * Writes one line to the log file, starting with the time and level of the
+	 * message, rotating the file first if it is full.
+	 *
+	 * @param  entry  The message.
+	 * @param  line   The line.
+	 */
+	private void writeFile(Entry entry, String line)
+	{
+		try
+		{
+			if(maxFileBytes > 0 && fileBytes >= maxFileBytes)
+				rotate();
+
+			if(fileWriter == null)
+				return;
+
+			//the date is only formatted once a second, the milliseconds are added to it
+			long second = entry.time / 1000;
+			if(second != stampSecond)
+			{
+				stamp = dateFormat.format(new Date(second * 1000));
+				stampSecond = second;
+			}
+
+			int millis = (int)(entry.time % 1000);
+			String level = LEVEL_NAMES[entry.level];
+
+			fileWriter.write(stamp);
+			fileWriter.write((char)('0' + millis / 100));
+			fileWriter.write((char)('0' + millis / 10 % 10));
+			fileWriter.write((char)('0' + millis % 10));
+			fileWriter.write(' ');
+			fileWriter.write(level);
+			fileWriter.write(' ');
+			fileWriter.write(line);
+			fileWriter.write('\n');
+			fileBytes += stamp.length() + 3 + level.length() + line.length() + 3;
+		}
+		catch(IOException ioe)
+		{
+			fileFailed(ioe);
+		}
+	}
+
+	/**
+	 * Renames the log file and the older files it has been rotated into up one
+	 * number, deleting the oldest, and starts a new log file.
+	 */
+	private void rotate() throws IOException
+	{
+		closeFile();
+
+		new File(file.getPath() + "." + maxFiles).delete();
+
+		for(int i = maxFiles - 1; i >= 1; i--)
+		{
+			File older = new File(file.getPath() + "." + i);
+
+			if(older.exists())
+				older.renameTo(new File(file.getPath() + "." + (i + 1)));
+		}
+
+		if(maxFiles > 0)
+			file.renameTo(new File(file.getPath() + ".1"));
+		else
+			file.delete();
+
+		openFile();
+	}
+
+	/**
+	 * Opens the log file for appending.
+	 */
+	private void openFile()
+	{
+		try
+		{
+			File parent = file.getAbsoluteFile().getParentFile();
+
+			if(parent != null && !parent.isDirectory())
+				parent.mkdirs();
+
+			fileBytes = file.length();
+			fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+		}
+		catch(IOException ioe)
+		{
+			fileFailed(ioe);
+		}
+	}
+
+	/**
+	 * Closes the log file.
+	 */
+	private void closeFile()
+	{
+		try
+		{
+			if(fileWriter != null)
+				fileWriter.close();
+		}
+		catch(IOException ioe){}
+
+		fileWriter = null;
+	}
+
+	/**
+	 * Stops writing to the log file after it could not be written, so that the
+	 * terminal is not flooded with the same error.
+	 *
+	 * @param  ioe  The exception.
+	 */
+	private void fileFailed(IOException ioe)
+	{
+		err.println("*** Error writing log file: " + file + ", no longer writing it.");
+		err.println("*** Exception: " + ioe.getMessage());
+
+		closeFile();
+		file = null;
+	}
+
+	/**
+	 * Returns the level named in the config file, ie: "debug" or "warn".
+	 *
+	 * @param   name  The name of the level.
+	 * @return  int   The level, or INFO if the name is not recognized.
+	 */
+	static int parseLevel(String name)
+	{
+		for(int i = 0; i < LEVEL_NAMES.length; i++)
+			if(LEVEL_NAMES[i].equalsIgnoreCase(name.trim()))
+				return i;
+
+		return INFO;
+	}
+
+	/**
+	 * Returns the level, the number of messages printed and dropped, and the log
+	 * file, ie: "info, 1200 written, 0 dropped, ring of 8192, file logs/server.log".
+	 *
+	 * @return  String  The status of the log.
+	 */
+	public String toString()
+	{
+		File file = this.file;
+
+		return LEVEL_NAMES[level].toLowerCase() + ", " + written + " written, " + dropped.get() + " dropped, ring of "
+			+ ring.length + (file == null ? ", no file" : ", file " + file.getPath());
+	}
+
+	/**
+	 * One message in the ring. Entries are reused, so they are only ever touched by
+	 * the thread that claimed them and then by the writer after they are published.
+	 */
+	private static class Entry
+	{
+		//Globals
+		int level = INFO;
+		long time = 0;
+		String message = null;
+		Throwable exception = null;
+	}
+}
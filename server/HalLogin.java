@@ -0,0 +1,188 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Logs in one client. A client that has connected but not yet picked a name holds
+ * one of the servers pending login places, not one of its client places, so a
+ * flood of connections that never log in cannot keep real users out. It only
+ * takes a client place once it asks for a name, and is turned away then if the
+ * server is full.
+ * <p><p>
+ *
+ * A login is a small state machine. It starts out WAITING for a name, and moves
+ * to LOGGED_IN once a name has been accepted, or to FAILED if the server was full,
+ * the client took longer than the login timeout or it disconnected first. The
+ * pending login place is given back on leaving WAITING, whichever way it is left,
+ * and the client place is given back when a LOGGED_IN client is CLOSED.
+ * <p><p>
+ *
+ * The login timeout waits on the servers HalTimerWheel, so a client that connects
+ * and then sends nothing, or sends its name a byte at a time, is disconnected once
+ * the timeout has passed without holding up anything but its own connection.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalLogin implements Runnable
+{
+	//Constants
+	static final int WAITING = 0;
+	static final int LOGGED_IN = 1;
+	static final int FAILED = 2;
+	static final int CLOSED = 3;
+
+	//Globals
+	private HalServer server = null;
+	private HalConnection client = null;
+	private Runnable closer = null;
+	private final AtomicInteger state = new AtomicInteger(WAITING);
+	private volatile HalTimerWheel.Timeout deadline = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server  The server the client is connected to.
+	 * @param  client  The client logging in.
+	 * @param  closer  Disconnects the client without holding up the timer thread.
+	 */
+	HalLogin(HalServer server, HalConnection client, Runnable closer)
+	{
+		this.server = server;
+		this.client = client;
+		this.closer = closer;
+	}
+
+	/**
+	 * Gives the client a pending login place, starts the login timeout and asks the
+	 * client for a name. Called when the client connects. If too many clients are
+	 * already logging in the client is told so straight away, and should be
+	 * disconnected.
+	 *
+	 * @return  boolean  Whether or not there was room for the client to log in.
+	 */
+	boolean start()
+	{
+		if(!server.addClient(client))
+		{
+			state.set(FAILED);
+			client.sendMessage("* Too many clients are logging in! Please try again later...");
+			return false;
+		}
+
+		if(server.loginTimeoutMillis > 0)
+		{
+			deadline = server.timers.schedule(this, server.loginTimeoutMillis);
+
+			//stop() may have missed the new timeout
+			if(state.get() != WAITING)
+				deadline.cancel();
+		}
+
+		prompt();
+		return true;
+	}
+
+	/**
+	 * Asks the client for a name.
+	 */
+	void prompt()
+	{
+		client.sendMessage("Login:");
+	}
+
+	/**
+	 * Tries to log the client in with the name it asked for. The client is given a
+	 * place on the server first, and gives it back if the name is turned down, in
+	 * which case it is asked for another.
+	 *
+	 * @param   name  The name the client asked for.
+	 * @return  int   The state of the login afterwards.
+	 */
+	int attempt(String name)
+	{
+		if(state.get() != WAITING)
+			return state.get();
+
+		if(!server.admitClient())
+		{
+			if(finish(FAILED))
+				client.sendMessage("* Too many clients already connected! Please try again later...");
+
+			return state.get();
+		}
+
+		if(!server.validateUserId(client, name))
+		{
+			server.releaseClient();
+			prompt();
+			return state.get();
+		}
+
+		//the timeout may have run while the name was being checked
+		if(!finish(LOGGED_IN))
+		{
+			server.users.remove(server.userKey(name), client);
+			server.releaseClient();
+		}
+
+		return state.get();
+	}
+
+	/**
+	 * Returns the state of the login.
+	 *
+	 * @return  int  WAITING, LOGGED_IN, FAILED or CLOSED.
+	 */
+	int getState()
+	{
+		return state.get();
+	}
+
+	/**
+	 * Gives up on the login if the client has not logged in yet, or gives back its
+	 * client place if it has. Called when the client disconnects.
+	 */
+	void stop()
+	{
+		if(finish(FAILED))
+			return;
+
+		if(state.compareAndSet(LOGGED_IN, CLOSED))
+			server.releaseClient();
+	}
+
+	/**
+	 * Disconnects a client that has taken too long to log in. Runs on the timer
+	 * thread when the timeout is due.
+	 */
+	public void run()
+	{
+		if(!finish(FAILED))
+			return;
+
+		server.timedOutLogins.incrementAndGet();
+		server.sendMessage("Client took too long to log in, disconnecting: " + client.getIp());
+
+		client.sendMessage("* You took too long to log in! You have been disconnected.");
+		closer.run();
+	}
+
+	/**
+	 * Moves the login out of WAITING and gives back the pending login place.
+	 *
+	 * @param   next     LOGGED_IN or FAILED.
+	 * @return  boolean  Whether or not this call moved the login, false if it had already left WAITING.
+	 */
+	private boolean finish(int next)
+	{
+		if(!state.compareAndSet(WAITING, next))
+			return false;
+
+		server.pendingLogins.decrementAndGet();
+
+		HalTimerWheel.Timeout deadline = this.deadline;
+		if(deadline != null)
+			deadline.cancel();
+
+		return true;
+	}
+}
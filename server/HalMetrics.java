@@ -0,0 +1,266 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * Counters and timings kept while the server runs. They are shown by the "stats"
+ * console command and published through JMX as HalServer:type=Metrics.
+ * <p><p>
+ *
+ * Counting is meant to cost next to nothing on the paths that every message takes.
+ * Counters are LongAdders, so threads counting at the same time do not fight over
+ * one variable, and timings go into a HalHistogram. Anything that can be worked out
+ * from what the server already keeps, such as the depth of each clients outbound
+ * queue, is only worked out when it is asked for.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalMetrics implements HalMetricsMBean
+{
+	//Constants
+	private static final String OBJECT_NAME = "HalServer:type=Metrics";
+	private static final long RATE_INTERVAL = 1000;
+
+	//Globals
+	private HalServer server = null;
+	private ObjectName name = null;
+	protected final LongAdder messagesIn = new LongAdder();
+	protected final LongAdder messagesOut = new LongAdder();
+	protected final LongAdder bytesWritten = new LongAdder();
+	protected final LongAdder logins = new LongAdder();
+	protected final HalHistogram broadcastTimes = new HalHistogram();
+	protected final HalHistogram filterTimes = new HalHistogram();
+	protected final HalHistogram loginTimes = new HalHistogram();
+	private final Rate messagesInRate = new Rate(messagesIn);
+	private final Rate messagesOutRate = new Rate(messagesOut);
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server  The server being measured.
+	 */
+	HalMetrics(HalServer server)
+	{
+		this.server = server;
+	}
+
+	/**
+	 * Publishes the metrics through the platform MBean server. If that fails the
+	 * metrics are still kept, they just cannot be seen through JMX.
+	 */
+	void register()
+	{
+		try
+		{
+			name = new ObjectName(OBJECT_NAME);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		}
+		catch(Exception e)
+		{
+			name = null;
+			server.log.error("Error publishing metrics through JMX: " + OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * Stops publishing the metrics through JMX.
+	 */
+	void unregister()
+	{
+		try
+		{
+			if(name != null)
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		catch(Exception e)
+		{
+			server.log.error("Error removing metrics from JMX: " + OBJECT_NAME, e);
+		}
+
+		name = null;
+	}
+
+	public long getMessagesIn()
+	{
+		return messagesIn.sum();
+	}
+
+	public long getMessagesOut()
+	{
+		return messagesOut.sum();
+	}
+
+	public long getBytesWritten()
+	{
+		return bytesWritten.sum();
+	}
+
+	public double getMessagesInPerSecond()
+	{
+		return messagesInRate.get();
+	}
+
+	public double getMessagesOutPerSecond()
+	{
+		return messagesOutRate.get();
+	}
+
+	public long getLogins()
+	{
+		return logins.sum();
+	}
+
+	public long getBroadcastMicros99()
+	{
+		return broadcastTimes.getPercentile(99) / 1000;
+	}
+
+	public long getFilterMicros99()
+	{
+		return filterTimes.getPercentile(99) / 1000;
+	}
+
+	public long getLoginMicros99()
+	{
+		return loginTimes.getPercentile(99) / 1000;
+	}
+
+	public String getBroadcastTimes()
+	{
+		return broadcastTimes.toString();
+	}
+
+	public String getFilterTimes()
+	{
+		return filterTimes.toString();
+	}
+
+	public String getLoginTimes()
+	{
+		return loginTimes.toString();
+	}
+
+	public long getQueuedMessages()
+	{
+		long queued = 0;
+
+		for(HalConnection client : server.clients.values())
+			queued += client.getQueuedFrames();
+
+		return queued;
+	}
+
+	public long getQueuedBytes()
+	{
+		long queued = 0;
+
+		for(HalConnection client : server.clients.values())
+			queued += client.getQueuedBytes();
+
+		return queued;
+	}
+
+	public int getMaxQueuedMessages()
+	{
+		int most = 0;
+
+		for(HalConnection client : server.clients.values())
+			most = Math.max(most, client.getQueuedFrames());
+
+		return most;
+	}
+
+	public void resetTimes()
+	{
+		broadcastTimes.reset();
+		filterTimes.reset();
+		loginTimes.reset();
+	}
+
+	/**
+	 * Returns the metrics as lines for the server console.
+	 *
+	 * @return  List<String>  The lines to print.
+	 */
+	List<String> report()
+	{
+		ArrayList<String> lines = new ArrayList<String>();
+		HalConnection busiest = null;
+
+		for(HalConnection client : server.clients.values())
+		{
+			if(busiest == null || client.getQueuedFrames() > busiest.getQueuedFrames())
+				busiest = client;
+		}
+
+		lines.add("Messages in:          \t" + getMessagesIn() + " total, " + format(getMessagesInPerSecond()) + "/s");
+		lines.add("Messages out:         \t" + getMessagesOut() + " total, " + format(getMessagesOutPerSecond()) + "/s");
+		lines.add("Bytes written:        \t" + getBytesWritten());
+		lines.add("Logins:               \t" + getLogins());
+		lines.add("Broadcast time:       \t" + broadcastTimes);
+		lines.add("Filter time:          \t" + filterTimes);
+		lines.add("Login time:           \t" + loginTimes);
+		lines.add("Outbound queues:      \t" + getQueuedMessages() + " messages, " + getQueuedBytes() + " bytes waiting"
+			+ (busiest == null || busiest.getQueuedFrames() == 0 ? "" : ", most for one client " + busiest.getQueuedFrames()
+			+ " (" + (busiest.getUserId() == null ? busiest.getIp() : busiest.getUserId()) + ")"));
+
+		return lines;
+	}
+
+	/**
+	 * Formats a rate with one decimal place.
+	 *
+	 * @param   rate    The rate.
+	 * @return  String  The formatted rate, ie: "12.5".
+	 */
+	private static String format(double rate)
+	{
+		return String.format("%.1f", rate);
+	}
+
+	/**
+	 * The rate a counter is going up at. The rate is measured between one reading
+	 * and the next, but at most once every RATE_INTERVAL, so anyone reading it more
+	 * often sees the same rate until the interval has passed.
+	 */
+	private static class Rate
+	{
+		//Globals
+		private LongAdder counter = null;
+		private long lastTime = System.currentTimeMillis();
+		private long lastCount = 0;
+		private double rate = 0;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  counter  The counter to measure.
+		 */
+		Rate(LongAdder counter)
+		{
+			this.counter = counter;
+		}
+
+		/**
+		 * Returns the rate per second, measuring it again if the interval has passed.
+		 *
+		 * @return  double  The rate.
+		 */
+		synchronized double get()
+		{
+			long now = System.currentTimeMillis();
+
+			if(now - lastTime >= RATE_INTERVAL)
+			{
+				long count = counter.sum();
+				rate = (count - lastCount) * 1000.0 / (now - lastTime);
+				lastCount = count;
+				lastTime = now;
+			}
+
+			return rate;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * The view of the server metrics that is published through JMX, so that the
+ * server can be watched with jconsole or any other JMX client while it runs.
+ * Times are in microseconds.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public interface HalMetricsMBean
+{
+	/**
+	 * Returns the number of messages received from clients.
+	 *
+	 * @return  long  The number of messages.
+	 */
+	public long getMessagesIn();
+
+	/**
+	 * Returns the number of messages queued for clients.
+	 *
+	 * @return  long  The number of messages.
+	 */
+	public long getMessagesOut();
+
+	/**
+	 * Returns the number of bytes written to clients.
+	 *
+	 * @return  long  The number of bytes.
+	 */
+	public long getBytesWritten();
+
+	/**
+	 * Returns the number of messages received each second, lately.
+	 *
+	 * @return  double  The rate.
+	 */
+	public double getMessagesInPerSecond();
+
+	/**
+	 * Returns the number of messages queued for clients each second, lately.
+	 *
+	 * @return  double  The rate.
+	 */
+	public double getMessagesOutPerSecond();
+
+	/**
+	 * Returns the number of users that have logged in.
+	 *
+	 * @return  long  The number of logins.
+	 */
+	public long getLogins();
+
+	/**
+	 * Returns the 99th percentile of the time taken to hand a broadcast to every client.
+	 *
+	 * @return  long  The time in microseconds.
+	 */
+	public long getBroadcastMicros99();
+
+	/**
+	 * Returns the 99th percentile of the time taken to filter a message.
+	 *
+	 * @return  long  The time in microseconds.
+	 */
+	public long getFilterMicros99();
+
+	/**
+	 * Returns the 99th percentile of the time from connecting to being logged in.
+	 *
+	 * @return  long  The time in microseconds.
+	 */
+	public long getLoginMicros99();
+
+	/**
+	 * Returns a summary of the broadcast times.
+	 *
+	 * @return  String  The summary.
+	 */
+	public String getBroadcastTimes();
+
+	/**
+	 * Returns a summary of the filter times.
+	 *
+	 * @return  String  The summary.
+	 */
+	public String getFilterTimes();
+
+	/**
+	 * Returns a summary of the login times.
+	 *
+	 * @return  String  The summary.
+	 */
+	public String getLoginTimes();
+
+	/**
+	 * Returns the number of messages waiting to be written, over every client.
+	 *
+	 * @return  long  The number of messages.
+	 */
+	public long getQueuedMessages();
+
+	/**
+	 * Returns the number of bytes waiting to be written, over every client.
+	 *
+	 * @return  long  The number of bytes.
+	 */
+	public long getQueuedBytes();
+
+	/**
+	 * Returns the most messages waiting to be written to any one client.
+	 *
+	 * @return  int  The number of messages.
+	 */
+	public int getMaxQueuedMessages();
+
+	/**
+	 * Forgets the times recorded so far, so that new times are not hidden by old ones.
+	 * The message counts are kept.
+	 */
+	public void resetTimes();
+}
@@ -0,0 +1,743 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This is a client connection for the HalNioListener. It does the same job as
+ * HalClientThread but never blocks: input is handed to it by the selector thread
+ * as it arrives and is split into lines, and output is queued and written by
+ * the selector thread when the socket can accept it.
+ * <p><p>
+ *
+ * Logging in is driven by the lines that arrive. Until the user has picked a
+ * valid name every line is treated as a login attempt, after that every line
+ * is queued and processed by the server on one of the listeners command threads,
+ * so the selector thread is never held up running commands. Only one command
+ * thread works through a clients queue at a time, so the clients lines are still
+ * processed in the order they were sent. If too many lines are waiting the
+ * selector stops reading from the client until the queue has gone down.
+ * <p><p>
+ *
+ * Each queued line is checked against the clients rate limit before it is
+ * processed. When a line over the limit is to be delayed, the command thread does
+ * not wait for it: the rest of the queue is left where it is and picked up again
+ * by a timeout on the servers timer wheel, and the queue filling up stops the
+ * selector reading from the client as usual.
+ * <p><p>
+ *
+ * A client that switches to the binary protocol at the login prompt has the rest
+ * of its input split into frames instead of lines. Frames are collected in the
+ * same buffer as lines, and the length at the front of each frame says exactly
+ * how much more to wait for.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalNioClient implements HalConnection
+{
+	//Constants
+	private final int MAX_PENDING_INPUT = 64;
+	private final int MAX_FRAME_LENGTH = 16384;
+
+	//Globals
+	private SocketChannel channel = null;
+	private SelectionKey key = null;
+	private HalServer server = null;
+	private HalNioListener listener = null;
+	private volatile boolean connected = false;
+	private volatile int protocol = HalProtocol.TEXT;
+	private byte[] line = new byte[64];
+	private int lineLength = 0;
+	private HalOutbound outbound = null;
+	private final ArrayDeque<HalFrame> writing = new ArrayDeque<HalFrame>(4);
+	private int writingOffset = 0;
+	private final AtomicBoolean evicted = new AtomicBoolean(false);
+	private AtomicBoolean writeScheduled = new AtomicBoolean(false);
+	private volatile boolean closeRequested = false;
+	private final ConcurrentLinkedQueue<Object> input = new ConcurrentLinkedQueue<Object>();
+	private final AtomicInteger pendingInput = new AtomicInteger(0);
+	private final AtomicBoolean dispatching = new AtomicBoolean(false);
+	private volatile boolean readPaused = false;
+	private final Runnable startWrite = new Runnable()
+	{
+		public void run()
+		{
+			listener.scheduleWrite(HalNioClient.this);
+		}
+	};
+	private final Runnable dispatcher = new Runnable()
+	{
+		public void run()
+		{
+			dispatch();
+		}
+	};
+	private final Runnable disconnector = new Runnable()
+	{
+		public void run()
+		{
+			disconnect();
+		}
+	};
+	private final Runnable resume = new Runnable()
+	{
+		public void run()
+		{
+			listener.dispatch(dispatcher);
+		}
+	};
+	private HalHeartbeat heartbeat = null;
+	private HalLogin login = null;
+	private HalRateLimiter limiter = null;
+	private boolean held = false;
+
+	//Client Attributes
+	private int id = 0;
+	private String userId = null;
+	private volatile HalRoom room = null;
+	private String userIp = null;
+	private long connectTime = 0;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  channel   The channel this user is bound to.
+	 * @param  key       The key the channel is registered with.
+	 * @param  server    The HalServer that this client will communicate with.
+	 * @param  listener  The HalNioListener that accepted this client.
+	 */
+	HalNioClient(SocketChannel channel, SelectionKey key, HalServer server, HalNioListener listener)
+	{
+		this.channel = channel;
+		this.key = key;
+		this.server = server;
+		this.listener = listener;
+		this.id = server.nextClientId();
+		this.connectTime = System.nanoTime();
+		this.outbound = new HalOutbound(server, HalSlowClientPolicy.fromConfig(server));
+		this.heartbeat = new HalHeartbeat(server, this, disconnector);
+		this.login = new HalLogin(server, this, disconnector);
+		this.limiter = HalRateLimiter.fromConfig(server);
+		this.userIp = channel.socket().getInetAddress().toString();
+	}
+
+	/**
+	 * Return the user id that the client logged in with.
+	 *
+	 * @return  String  The name of the user.
+	 */
+	public String toString()
+	{
+		return this.userId;
+	}
+
+	/**
+	 * Adds this client to the list of connected clients and prompts it for a login
+	 * name, or turns it away if too many clients are already logging in.
+	 */
+	void open()
+	{
+		this.connected = true;
+
+		if(!login.start())
+			disconnect();
+	}
+
+	/**
+	 * Reads whatever input is waiting on the channel and handles every complete
+	 * line or frame. Called by the selector thread when the channel is readable.
+	 *
+	 * @param  buffer  The selector threads read buffer.
+	 */
+	void read(ByteBuffer buffer)
+	{
+		int count = 0;
+
+		try
+		{
+			buffer.clear();
+			count = channel.read(buffer);
+		}
+		catch(IOException ioe)
+		{
+			count = -1;
+		}
+
+		if(count < 0)
+		{
+			disconnect();
+			return;
+		}
+
+		buffer.flip();
+		while(buffer.hasRemaining() && connected)
+		{
+			//the protocol can change part way through the buffer, right after a login line
+			if(protocol == HalProtocol.BINARY)
+			{
+				readFrame(buffer);
+				continue;
+			}
+
+			byte b = buffer.get();
+
+			if(b == '\n' || lineLength == HalProtocol.MAX_LINE_LENGTH)
+			{
+				if(lineLength > 0 && line[lineLength - 1] == '\r')
+					lineLength--;
+
+				String input = new String(line, 0, lineLength, server.CHARSET);
+				lineLength = 0;
+
+				try
+				{
+					processLine(input);
+				}
+				catch(Exception e)
+				{
+					server.log.error("Error communicating with user/client: " + userId + "/" + userIp, e);
+				}
+
+				if(b == '\n')
+					continue;
+			}
+
+			if(lineLength == line.length)
+			{
+				byte[] larger = new byte[Math.min(line.length * 2, HalProtocol.MAX_LINE_LENGTH)];
+				System.arraycopy(line, 0, larger, 0, lineLength);
+				line = larger;
+			}
+
+			line[lineLength++] = b;
+		}
+	}
+
+	/**
+	 * Collects the next part of a binary frame from the read buffer, and handles the
+	 * frame once all of it has arrived. A frame that claims to be too long is taken
+	 * as a broken client and disconnected.
+	 *
+	 * @param  buffer  The selector threads read buffer, ready to be read from.
+	 */
+	private void readFrame(ByteBuffer buffer)
+	{
+		int needed = 4;
+
+		if(lineLength >= 4)
+		{
+			int length = ((line[0] & 0xff) << 24) | ((line[1] & 0xff) << 16) | ((line[2] & 0xff) << 8) | (line[3] & 0xff);
+
+			if(length < HalProtocol.HEADER_LENGTH || length > MAX_FRAME_LENGTH)
+			{
+				server.log.error("Invalid frame from user/client: " + userId + "/" + userIp);
+				buffer.position(buffer.limit());
+				disconnect();
+				return;
+			}
+
+			needed = 4 + length;
+		}
+
+		if(line.length < needed)
+		{
+			byte[] larger = new byte[Math.max(needed, line.length * 2)];
+			System.arraycopy(line, 0, larger, 0, lineLength);
+			line = larger;
+		}
+
+		int count = Math.min(needed - lineLength, buffer.remaining());
+		buffer.get(line, lineLength, count);
+		lineLength += count;
+
+		//check the length as soon as it is known, even if nothing else has arrived
+		if(needed == 4 && lineLength == 4)
+		{
+			readFrame(buffer);
+			return;
+		}
+
+		if(lineLength < needed)
+			return;
+
+		lineLength = 0;
+
+		try
+		{
+			processMessage(HalProtocol.decode(line, 4, needed - 4));
+		}
+		catch(IOException ioe)
+		{
+			server.log.error("Invalid frame from user/client: " + userId + "/" + userIp);
+			buffer.position(buffer.limit());
+			disconnect();
+		}
+		catch(Exception e)
+		{
+			server.log.error("Error communicating with user/client: " + userId + "/" + userIp, e);
+		}
+	}
+
+	/**
+	 * Handles one line of input. Until the user has logged in each line is taken
+	 * as a login name, unless it asks for the binary protocol. After that any
+	 * non-blank input is queued to be processed by the server, except answers to a
+	 * PING, which only tell the heartbeat that the client is still there.
+	 *
+	 * @param  line  The line of input received.
+	 */
+	private void processLine(String line)
+	{
+		if(userId == null)
+		{
+			if(line.trim().equalsIgnoreCase(HalProtocol.NEGOTIATE))
+			{
+				//answered in text, everything after it is sent as frames
+				sendMessage(HalProtocol.ACCEPT);
+				protocol = HalProtocol.BINARY;
+				login.prompt();
+			}
+			else
+				login(line);
+		}
+		else
+		{
+			String input = line.trim();
+			heartbeat.heard(!input.equals(HalProtocol.PONG_TEXT));
+
+			if(!input.equals("") && !input.equals(HalProtocol.PONG_TEXT))
+				queue(input);
+		}
+	}
+
+	/**
+	 * Handles one frame of input. Until the user has logged in the text of each frame
+	 * is taken as a login name, after that every frame but a PONG is queued to be
+	 * processed by the server.
+	 *
+	 * @param  message  The message received.
+	 */
+	private void processMessage(HalProtocol.Message message)
+	{
+		if(userId == null)
+			login(message.text.trim());
+		else
+		{
+			heartbeat.heard(message.kind != HalProtocol.PONG);
+
+			if(message.kind != HalProtocol.PONG)
+				queue(message);
+		}
+	}
+
+	/**
+	 * Tries to log the user in with the name they asked for. The login asks again if
+	 * the name was turned down, and a client that cannot log in is disconnected.
+	 *
+	 * @param  name  The name the user asked for.
+	 */
+	private void login(String name)
+	{
+		int state = login.attempt(name);
+
+		if(state == HalLogin.LOGGED_IN)
+		{
+			userId = name;
+			server.welcome(this);
+			heartbeat.start();
+		}
+		else if(state != HalLogin.WAITING)
+			disconnect();
+	}
+
+	/**
+	 * Queues a line or message to be processed by the server on a command thread.
+	 *
+	 * @param  item  The line, or the HalProtocol.Message, received.
+	 */
+	private void queue(Object item)
+	{
+		input.add(item);
+
+		if(pendingInput.incrementAndGet() >= MAX_PENDING_INPUT)
+			pauseReading();
+
+		if(dispatching.compareAndSet(false, true))
+			listener.dispatch(dispatcher);
+	}
+
+	/**
+	 * Processes every queued line or message. Runs on a command thread, and only one
+	 * thread runs it for this client at a time. Lines over the rate limit are either
+	 * thrown away, or left at the front of the queue until the limit allows them, in
+	 * which case this client stays marked as dispatching so that nothing else picks
+	 * up the queue in the meantime.
+	 */
+	private void dispatch()
+	{
+		do
+		{
+			Object item = null;
+			while((item = input.peek()) != null)
+			{
+				long wait = 0;
+
+				if(connected)
+				{
+					String text = item instanceof HalProtocol.Message ? ((HalProtocol.Message)item).text : (String)item;
+					wait = limiter.check(server, this, text, held);
+				}
+
+				if(wait > 0 && limiter.action == HalRateLimiter.DELAY)
+				{
+					held = true;
+					server.timers.schedule(resume, (wait + 999999) / 1000000);
+					return;
+				}
+
+				held = false;
+
+				//a line still over the limit here is dropped
+				input.poll();
+				boolean admitted = connected && wait == 0;
+
+				try
+				{
+					if(admitted && item instanceof HalProtocol.Message)
+						server.processMessage(this, (HalProtocol.Message)item);
+					else if(admitted)
+						server.processInput(this, (String)item);
+				}
+				catch(Exception e)
+				{
+					server.log.error("Error communicating with user/client: " + userId + "/" + userIp, e);
+				}
+
+				if(pendingInput.decrementAndGet() < MAX_PENDING_INPUT / 2 && readPaused)
+					resumeReading();
+			}
+
+			dispatching.set(false);
+		}
+		//a line may have been queued after the queue was found empty
+		while(!input.isEmpty() && dispatching.compareAndSet(false, true));
+	}
+
+	/**
+	 * Stops the selector reading from this client until its queued input has been
+	 * processed. Only the selector thread may call this method.
+	 */
+	private void pauseReading()
+	{
+		readPaused = true;
+
+		//the command thread may have caught up before it could see that reading was paused
+		if(pendingInput.get() < MAX_PENDING_INPUT / 2)
+			readPaused = false;
+		else if(key.isValid())
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Asks the selector thread to start reading from this client again.
+	 */
+	private void resumeReading()
+	{
+		readPaused = false;
+		listener.scheduleWrite(this);
+	}
+
+	/**
+	 * Writes as much queued output as the channel will take without blocking. As
+	 * many waiting frames as fit are copied into the write buffer and written with
+	 * a single call, so a burst of messages does not cost one write per message.
+	 * If output is left over the selector is asked to report when the channel is
+	 * writable again. Only the selector thread may call this method, since it
+	 * shares the selector threads write buffer.
+	 *
+	 * @param  buffer  The selector threads write buffer.
+	 */
+	void flush(ByteBuffer buffer)
+	{
+		writeScheduled.set(false);
+
+		try
+		{
+			while(true)
+			{
+				buffer.clear();
+
+				//the frames that are part way out go first, then whatever else fits
+				int offset = writingOffset;
+				for(HalFrame frame : writing)
+				{
+					if(!buffer.hasRemaining())
+						break;
+
+					frame.copyTo(buffer, offset);
+					offset = 0;
+				}
+
+				HalFrame next = null;
+				while(buffer.hasRemaining() && (next = outbound.poll()) != null)
+				{
+					writing.add(next);
+					next.copyTo(buffer, 0);
+				}
+
+				if(buffer.position() == 0)
+					break;
+
+				buffer.flip();
+
+				int written = channel.write(buffer);
+
+				if(written > 0)
+				{
+					outbound.progress();
+					server.metrics.bytesWritten.add(written);
+				}
+
+				//release every frame that has been written completely
+				written += writingOffset;
+				while(!writing.isEmpty() && written >= writing.peek().length())
+				{
+					written -= writing.peek().length();
+					outbound.written(writing.poll());
+				}
+
+				writingOffset = written;
+
+				//the socket is full, wait until the selector says it is writable
+				if(buffer.hasRemaining())
+					break;
+			}
+
+			if(key.isValid())
+			{
+				int ops = readPaused ? 0 : SelectionKey.OP_READ;
+
+				if(!writing.isEmpty() || !outbound.isEmpty())
+					ops |= SelectionKey.OP_WRITE;
+
+				key.interestOps(ops);
+			}
+		}
+		catch(CancelledKeyException cke){}
+		catch(IOException ioe)
+		{
+			close();
+		}
+
+		if(closeRequested)
+			close();
+	}
+
+	/**
+	 * Returns the ip of this client.
+	 *
+	 * @return  String  The users ip address.
+	 */
+	public String getIp()
+	{
+		return userIp.substring(userIp.indexOf("/") + 1, userIp.length());
+	}
+
+	/**
+	 * Returns the id the server gave this client when it connected.
+	 *
+	 * @return  int  The id of this client.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Returns the username of this client.
+	 *
+	 * @return  String  The name of this user.
+	 */
+	public String getUserId()
+	{
+		return userId;
+	}
+
+	/**
+	 * Returns the room this client is in.
+	 *
+	 * @return  HalRoom  The room, or null if the user has not logged in.
+	 */
+	public HalRoom getRoom()
+	{
+		return room;
+	}
+
+	/**
+	 * Moves this client to another room. Only the server may call this method.
+	 *
+	 * @param  room  The room the client has joined.
+	 */
+	public void setRoom(HalRoom room)
+	{
+		this.room = room;
+	}
+
+	/**
+	 * Returns the protocol this client is speaking.
+	 *
+	 * @return  int  HalProtocol.TEXT or HalProtocol.BINARY.
+	 */
+	public int getProtocol()
+	{
+		return protocol;
+	}
+
+	/**
+	 * Returns when this client connected.
+	 *
+	 * @return  long  The time it connected, from System.nanoTime().
+	 */
+	public long getConnectTime()
+	{
+		return connectTime;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be written to this client.
+	 *
+	 * @return  int  The number of messages.
+	 */
+	public int getQueuedFrames()
+	{
+		return outbound.getWaitingFrames();
+	}
+
+	/**
+	 * Returns the number of bytes waiting to be written to this client.
+	 *
+	 * @return  int  The number of bytes.
+	 */
+	public int getQueuedBytes()
+	{
+		return outbound.getWaitingBytes();
+	}
+
+	/**
+	 * Sends a message to this user. The message is encoded for the protocol the client
+	 * is using and queued.
+	 *
+	 * @param  message  The message to send to this client.
+	 */
+	public void sendMessage(String message)
+	{
+		HalFrame frame = server.encode(protocol, message);
+		sendFrame(frame);
+		frame.release();
+	}
+
+	/**
+	 * Sends an encoded message to this user. The frame is queued and written by the
+	 * selector thread, so this method never blocks. If the client is not keeping up
+	 * the frame is handled according to its slow client policy.
+	 *
+	 * @param  frame  The encoded message to send to this client.
+	 */
+	public void sendFrame(HalFrame frame)
+	{
+		if(!connected)
+			return;
+
+		int result = outbound.offer(frame);
+
+		if(result == HalOutbound.TOO_SLOW)
+			evict();
+		else if(result == HalOutbound.QUEUED && writeScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				listener.delayWrite(startWrite);
+			}
+			catch(RejectedExecutionException ree)
+			{
+				listener.scheduleWrite(this);
+			}
+		}
+	}
+
+	/**
+	 * Disconnects this client for being too slow. Everything waiting is thrown away
+	 * and replaced by a notice.
+	 */
+	private void evict()
+	{
+		if(evicted.getAndSet(true))
+			return;
+
+		server.evictedClients.incrementAndGet();
+		server.sendMessage("Client is too slow, disconnecting: " + getIp());
+
+		outbound.clear();
+		HalFrame notice = server.encode(protocol, "* You are too slow! You have been disconnected.");
+		outbound.add(notice);
+		notice.release();
+
+		disconnect();
+	}
+
+	/**
+	 * Disconnects this client. Only the selector thread may write to the channel, so
+	 * when called from any other thread the selector thread is asked to finish the
+	 * queued output and close the connection.
+	 */
+	public void disconnect()
+	{
+		if(listener.canWrite())
+			close();
+		else
+		{
+			closeRequested = true;
+			listener.scheduleWrite(this);
+		}
+	}
+
+	/**
+	 * Closes this client. Writes any output that can go out without blocking, closes
+	 * the channel, notifies other clients of the disconnection and then removes this
+	 * user from the clients map.
+	 */
+	private void close()
+	{
+		if(!connected)
+			return;
+
+		this.connected = false;
+		heartbeat.stop();
+		login.stop();
+
+		flush(listener.writeBuffer);
+
+		try
+		{
+			key.cancel();
+			channel.close();
+		}
+		catch(Exception e){}
+
+		//return frames that could not be written to the pool
+		HalFrame frame = null;
+		while((frame = writing.poll()) != null)
+			outbound.written(frame);
+
+		writingOffset = 0;
+
+		outbound.clear();
+
+		server.sendMessage("Client has disconnected: " + getIp());
+		server.removeClient(this);
+	}
+}
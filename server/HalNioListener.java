@@ -0,0 +1,284 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This is the selector based listening thread for the HalServer class. It is
+ * used instead of HalListener when the server is configured with "Engine=nio".
+ * <p><p>
+ *
+ * Rather than starting a HalClientThread for every connection, this single
+ * thread accepts connections, reads client input and writes client output for
+ * every client through one Selector. Each connection is represented by a
+ * HalNioClient which only holds a partial line and its pending output, so an
+ * idle client costs a few hundred bytes instead of a thread and its stack.
+ * Client commands are run on a small pool of command threads, one per core by
+ * default, so that busy clients are served in parallel and the selector thread
+ * only moves bytes.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalNioListener extends HalListener
+{
+	//Constants
+	private final int READ_BUFFER_SIZE = 8192;
+	private final int WRITE_BUFFER_SIZE = 65536;
+
+	//Globals
+	private Selector selector = null;
+	private ServerSocketChannel serverChannel = null;
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private ConcurrentLinkedQueue<HalNioClient> pendingWrites = new ConcurrentLinkedQueue<HalNioClient>();
+	private ExecutorService commandThreads = null;
+
+	/**
+	 * The thread constructor.
+	 *
+	 * @param  server  The HalServer that started this thread.
+	 * @param  port    The port to listen for connections on.
+	 */
+	HalNioListener(HalServer server, int port)
+	{
+		super(server, port);
+	}
+
+	/**
+	 * The main process of this thread. Waits for the selector to report
+	 * connections that are ready to be accepted, read or written and handles
+	 * each of them without blocking.
+	 */
+	public void run()
+	{
+		try
+		{
+			//start server
+			try
+			{
+				selector = Selector.open();
+				serverChannel = ServerSocketChannel.open();
+				serverChannel.socket().bind(new InetSocketAddress(port), server.getConfig("AcceptBacklog", DEFAULT_BACKLOG));
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				startWriteTimer();
+				commandThreads = Executors.newFixedThreadPool(Math.max(server.getConfig("CommandThreads", Runtime.getRuntime().availableProcessors()), 1));
+			}
+			catch(BindException be)
+			{
+				server.sendMessage("Unable to start server because port " + port + " is already in use.");
+				closeSelector();
+				return;
+			}
+
+			listening = true;
+			printStatus();
+
+			//handle ready connections
+			while(listening)
+			{
+				selector.select();
+
+				if(!listening)
+					break;
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					try
+					{
+						if(!key.isValid())
+							continue;
+
+						if(key.isAcceptable())
+							accept();
+						else
+						{
+							HalNioClient client = (HalNioClient)key.attachment();
+
+							if(key.isReadable())
+								client.read(readBuffer);
+
+							if(key.isValid() && key.isWritable())
+								client.flush(writeBuffer);
+						}
+					}
+					catch(CancelledKeyException cke){}
+				}
+
+				//write output queued since the last pass
+				flushPending();
+			}
+		}
+		catch(ClosedSelectorException cse){}
+		catch(Exception e)
+		{
+			server.log.error("Exception: " + e.getMessage());
+		}
+		finally
+		{
+			//finish any output and disconnects that were requested before the server stopped
+			flushPending();
+		}
+	}
+
+	/**
+	 * Writes the output of every client that has queued output since the last pass.
+	 */
+	private void flushPending()
+	{
+		HalNioClient client = null;
+		while((client = pendingWrites.poll()) != null)
+			client.flush(writeBuffer);
+	}
+
+	/**
+	 * Accept every connection that is waiting and register it with the selector.
+	 */
+	private void accept()
+	{
+		SocketChannel channel = null;
+
+		try
+		{
+			while((channel = serverChannel.accept()) != null)
+			{
+				channel.configureBlocking(false);
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+
+				HalNioClient client = new HalNioClient(channel, key, server, this);
+				key.attach(client);
+				server.sendMessage("New client connection from " + client.getIp());
+				client.open();
+			}
+		}
+		catch(Exception e)
+		{
+			server.log.error("Error accepting connection.", e);
+
+			try
+			{
+				if(channel != null)
+					channel.close();
+			}
+			catch(Exception e2){}
+		}
+	}
+
+	/**
+	 * Run a clients queued commands on one of the command threads. Once the server
+	 * has stopped they are run on the calling thread instead.
+	 *
+	 * @param  dispatcher  The task that processes the clients queued input.
+	 */
+	void dispatch(Runnable dispatcher)
+	{
+		try
+		{
+			commandThreads.execute(dispatcher);
+		}
+		catch(RejectedExecutionException ree)
+		{
+			dispatcher.run();
+		}
+	}
+
+	/**
+	 * Queue a client to have its pending output written by the selector thread.
+	 *
+	 * @param  client  The client that has output waiting.
+	 */
+	void scheduleWrite(HalNioClient client)
+	{
+		//nobody is left to write the output, so write it from this thread
+		if(!isAlive())
+		{
+			client.flush(writeBuffer);
+			return;
+		}
+
+		pendingWrites.add(client);
+
+		if(Thread.currentThread() != this && selector != null)
+			selector.wakeup();
+	}
+
+	/**
+	 * Returns whether the calling thread may write to client channels. Only the
+	 * selector thread may write while it is running, after it has stopped the
+	 * thread stopping the server cleans up.
+	 *
+	 * @return  boolean  Whether or not the calling thread may write.
+	 */
+	boolean canWrite()
+	{
+		return Thread.currentThread() == this || !isAlive();
+	}
+
+	/**
+	 * A method that returns the port currently being listened to.
+	 *
+	 * @return  int  Port being listened to for connections.
+	 */
+	public int getListeningPort()
+	{
+		if(serverChannel == null)
+			return 0;
+
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the server. Stops listening for connections and closes the selector.
+	 */
+	public void halt()
+	{
+		listening = false;
+
+		try
+		{
+			if(serverChannel != null)
+			{
+				serverChannel.close();
+				serverChannel = null;
+			}
+		}
+		catch(Exception e){}
+
+		closeSelector();
+
+		//wait for the selector thread so that clients can be cleaned up after it
+		try
+		{
+			if(Thread.currentThread() != this)
+				join(1000);
+		}
+		catch(InterruptedException ie){}
+
+		if(commandThreads != null)
+			commandThreads.shutdown();
+
+		stopWriteTimer();
+
+		server.sendMessage("Server stopped.");
+	}
+
+	/**
+	 * Closes the selector, waking the selector thread if it is waiting.
+	 */
+	private void closeSelector()
+	{
+		try
+		{
+			if(selector != null)
+				selector.close();
+		}
+		catch(Exception e){}
+	}
+}
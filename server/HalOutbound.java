@@ -0,0 +1,219 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The output waiting to be written to one client. Both connection engines queue
+ * their output here, and it is where the clients HalSlowClientPolicy is applied
+ * when the client is not keeping up.
+ * <p><p>
+ *
+ * A frame counts as waiting from the moment it is queued until the writer reports
+ * that it has been written, so a frame stuck in a blocked write still counts
+ * towards the limits. Any number of threads may offer frames.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalOutbound
+{
+	//Constants
+	static final int QUEUED = 0;
+	static final int DROPPED = 1;
+	static final int TOO_SLOW = 2;
+	private final int ESSENTIAL_RESERVE = 32;
+
+	//Globals
+	private HalServer server = null;
+	private HalSlowClientPolicy policy = null;
+	private ArrayBlockingQueue<HalFrame> frames = null;
+	private final AtomicInteger waitingFrames = new AtomicInteger(0);
+	private final AtomicInteger waitingBytes = new AtomicInteger(0);
+	private volatile long lastProgress = 0;
+	private volatile boolean throttled = false;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server  The server that keeps count of slow clients.
+	 * @param  policy  The policy for this client.
+	 */
+	HalOutbound(HalServer server, HalSlowClientPolicy policy)
+	{
+		this.server = server;
+		this.policy = policy;
+
+		//leave room for messages meant only for this client when room traffic is skipped
+		this.frames = new ArrayBlockingQueue<HalFrame>(Math.max(policy.maxMessages, 1) + ESSENTIAL_RESERVE);
+	}
+
+	/**
+	 * Queues a frame to be written. The queue takes its own reference to the frame.
+	 *
+	 * @param   frame  The frame to queue.
+	 * @return  int    QUEUED, DROPPED if the frame was thrown away, or TOO_SLOW if
+	 *                 the client should be disconnected.
+	 */
+	int offer(HalFrame frame)
+	{
+		if(isLagging())
+		{
+			markThrottled();
+
+			if(policy.action == HalSlowClientPolicy.DISCONNECT)
+				return TOO_SLOW;
+			else if(policy.action == HalSlowClientPolicy.SKIP && !frame.isEssential())
+			{
+				server.droppedFrames.incrementAndGet();
+				return DROPPED;
+			}
+			else if(policy.action == HalSlowClientPolicy.DROP_OLDEST)
+			{
+				HalFrame oldest = null;
+				while(isLagging() && (oldest = frames.poll()) != null)
+				{
+					written(oldest);
+					server.droppedFrames.incrementAndGet();
+				}
+			}
+		}
+
+		frame.retain();
+
+		//the stall clock starts when a client that was keeping up is given something to write
+		if(waitingFrames.getAndIncrement() == 0)
+			lastProgress = System.currentTimeMillis();
+
+		waitingBytes.addAndGet(frame.length());
+
+		if(!frames.offer(frame))
+		{
+			written(frame);
+			markThrottled();
+			server.droppedFrames.incrementAndGet();
+			return DROPPED;
+		}
+
+		server.metrics.messagesOut.increment();
+		return QUEUED;
+	}
+
+	/**
+	 * Queues a frame without applying the policy, for the notice sent to a client
+	 * that is being disconnected for being too slow.
+	 *
+	 * @param  frame  The frame to queue.
+	 */
+	void add(HalFrame frame)
+	{
+		frame.retain();
+		waitingFrames.incrementAndGet();
+		waitingBytes.addAndGet(frame.length());
+
+		if(!frames.offer(frame))
+			written(frame);
+		else
+			server.metrics.messagesOut.increment();
+	}
+
+	/**
+	 * Takes the next frame to write. The frame still counts as waiting until it is
+	 * passed to written().
+	 *
+	 * @return  HalFrame  The next frame, or null if nothing is waiting.
+	 */
+	HalFrame poll()
+	{
+		return frames.poll();
+	}
+
+	/**
+	 * Reports that some of the current frame has been written.
+	 */
+	void progress()
+	{
+		lastProgress = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reports that a frame taken from the queue is done with, either because it has
+	 * been written or because it was thrown away, and releases it. Only progress()
+	 * counts as the client keeping up, so a writer stuck in a blocked write still
+	 * stalls while frames queued behind it are dropped.
+	 *
+	 * @param  frame  The frame that is done with.
+	 */
+	void written(HalFrame frame)
+	{
+		waitingBytes.addAndGet(-frame.length());
+		waitingFrames.decrementAndGet();
+		frame.release();
+	}
+
+	/**
+	 * Throws away every queued frame.
+	 */
+	void clear()
+	{
+		HalFrame frame = null;
+		while((frame = frames.poll()) != null)
+			written(frame);
+	}
+
+	/**
+	 * Returns the number of frames waiting, including any being written.
+	 *
+	 * @return  int  The number of frames.
+	 */
+	int getWaitingFrames()
+	{
+		return waitingFrames.get();
+	}
+
+	/**
+	 * Returns the number of bytes waiting, including any being written.
+	 *
+	 * @return  int  The number of bytes.
+	 */
+	int getWaitingBytes()
+	{
+		return waitingBytes.get();
+	}
+
+	/**
+	 * Returns whether there are queued frames.
+	 *
+	 * @return  boolean  Whether or not the queue is empty.
+	 */
+	boolean isEmpty()
+	{
+		return frames.isEmpty();
+	}
+
+	/**
+	 * Returns whether the client has more output waiting than its policy allows.
+	 *
+	 * @return  boolean  Whether or not the client is lagging.
+	 */
+	boolean isLagging()
+	{
+		int waiting = waitingFrames.get();
+
+		if(waiting == 0)
+			return false;
+
+		return waiting >= policy.maxMessages || waitingBytes.get() >= policy.maxBytes
+			|| (policy.maxStallMillis > 0 && System.currentTimeMillis() - lastProgress > policy.maxStallMillis);
+	}
+
+	/**
+	 * Counts this client as throttled the first time it falls behind.
+	 */
+	private void markThrottled()
+	{
+		if(!throttled)
+		{
+			throttled = true;
+			server.throttledClients.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A connection to another HalServer node. Nodes that are linked tell each other
+ * about every user that logs in, changes room or leaves, and pass on what those
+ * users say, so that each node can show its own users the whole of every room.
+ * <p><p>
+ *
+ * Each link has a reader thread, which hands what arrives to the HalFederation in
+ * the order it was sent, and a writer thread. Sending only queues the message. The
+ * writer takes everything that is waiting, writes it through one buffered stream
+ * and flushes once, so a busy link sends many messages in each write instead of one
+ * write per message. The writer can also be told to wait a moment before each batch
+ * so that more messages are sent together. At most MAX_QUEUED messages wait for the
+ * writer. A node that stops reading until that many are waiting is disconnected,
+ * and is sent everything it needs again when it links back.
+ * <p><p>
+ *
+ * Every message is a type followed by three strings, each sent as its length in
+ * bytes and then the string in UTF-8:
+ * <pre>
+ *   byte  type, ie: CHAT
+ *   str   the user the message is about, or the node name for HELLO
+ *   str   the room, or the user being whispered to
+ *   str   the text
+ * </pre>
+ * Strings that do not apply to the type are empty, and strings longer than
+ * MAX_STRING_BYTES are cut short. The first message each side sends is HELLO.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalPeerLink
+{
+	//Constants
+	static final int HELLO = 1;
+	static final int LOGIN = 2;
+	static final int LOGOUT = 3;
+	static final int ROOM = 4;
+	static final int CHAT = 5;
+	static final int WHISPER = 6;
+	static final int SYSTEM = 7;
+	static final int KICK = 8;
+	static final String VERSION = "2";
+	static final int MAX_QUEUED = 65536;
+	static final int MAX_STRING_BYTES = 1048576;
+	private static final int BUFFER_SIZE = 65536;
+	private static final long POLL_MILLIS = 1000;
+
+	//Globals
+	private HalFederation federation = null;
+	private Socket socket = null;
+	private boolean outgoing = false;
+	private long batchMillis = 0;
+	private DataInputStream in = null;
+	private DataOutputStream out = null;
+	private volatile String nodeName = null;
+	private final LinkedBlockingQueue<Message> queue = new LinkedBlockingQueue<Message>(MAX_QUEUED);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private final AtomicLong sent = new AtomicLong(0);
+	private final AtomicLong batches = new AtomicLong(0);
+	private Thread writer = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  federation   The federation this link belongs to.
+	 * @param  socket       The connected socket.
+	 * @param  outgoing     Whether this node opened the connection.
+	 * @param  batchMillis  How long the writer waits to gather each batch, or 0 not to wait.
+	 */
+	HalPeerLink(HalFederation federation, Socket socket, boolean outgoing, long batchMillis) throws IOException
+	{
+		this.federation = federation;
+		this.socket = socket;
+		this.outgoing = outgoing;
+		this.batchMillis = batchMillis;
+
+		socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+	}
+
+	/**
+	 * Says hello and starts the reader and writer threads.
+	 *
+	 * @param  localName  The name of this node.
+	 */
+	void start(String localName)
+	{
+		send(HELLO, localName, VERSION, "");
+
+		writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				write();
+			}
+		}, "HalPeerLink writer " + socket.getRemoteSocketAddress());
+		writer.setDaemon(true);
+		writer.start();
+
+		Thread reader = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				read();
+			}
+		}, "HalPeerLink reader " + socket.getRemoteSocketAddress());
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Queues a message for the other node. Messages sent after the link has closed
+	 * are thrown away. If the queue is full the other node has stopped keeping up,
+	 * so the socket is closed and the reader and writer close the link.
+	 *
+	 * @param  type  The type of message, ie: CHAT.
+	 * @param  user  The user the message is about.
+	 * @param  room  The room, or the user being whispered to.
+	 * @param  text  The text.
+	 */
+	void send(int type, String user, String room, String text)
+	{
+		if(closed.get() || queue.offer(new Message(type, user, room, text)) || socket.isClosed())
+			return;
+
+		federation.getLog().warn("Peer is not keeping up, disconnecting: " + this);
+
+		try
+		{
+			socket.close();
+		}
+		catch(IOException ioe){}
+	}
+
+	/**
+	 * Reads messages until the link closes. Nothing but HELLO is accepted until the
+	 * other node has said who it is.
+	 */
+	private void read()
+	{
+		try
+		{
+			Message hello = readMessage();
+
+			if(hello.type != HELLO || !hello.room.equals(VERSION))
+				throw new IOException("Peer did not say hello: " + socket.getRemoteSocketAddress());
+
+			nodeName = hello.user;
+
+			if(!federation.linked(this))
+			{
+				close();
+				return;
+			}
+
+			while(!closed.get())
+				federation.receive(this, readMessage());
+		}
+		catch(EOFException eofe){}
+		catch(IOException ioe)
+		{
+			if(!closed.get())
+			{
+				federation.getLog().error("Error reading from peer: " + this, ioe);
+			}
+		}
+
+		close();
+	}
+
+	/**
+	 * Reads one message.
+	 *
+	 * @return  Message  The message.
+	 */
+	private Message readMessage() throws IOException
+	{
+		int type = in.readUnsignedByte();
+		return new Message(type, readString(), readString(), readString());
+	}
+
+	/**
+	 * Reads one string of a message.
+	 *
+	 * @return  String  The string.
+	 */
+	private String readString() throws IOException
+	{
+		int length = in.readInt();
+
+		if(length < 0 || length > MAX_STRING_BYTES)
+			throw new IOException("Invalid string length: " + length);
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, HalProtocol.CHARSET);
+	}
+
+	/**
+	 * Writes one string of a message, cut short if it is longer than MAX_STRING_BYTES.
+	 *
+	 * @param  text  The string.
+	 */
+	private void writeString(String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(HalProtocol.CHARSET);
+		int length = Math.min(bytes.length, MAX_STRING_BYTES);
+
+		out.writeInt(length);
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Writes batches of messages until the link closes.
+	 */
+	private void write()
+	{
+		ArrayList<Message> batch = new ArrayList<Message>();
+
+		try
+		{
+			while(!closed.get())
+			{
+				Message first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+				if(first == null)
+					continue;
+
+				if(batchMillis > 0)
+					Thread.sleep(batchMillis);
+
+				batch.add(first);
+				queue.drainTo(batch);
+
+				for(int i = 0; i < batch.size(); i++)
+				{
+					Message message = batch.get(i);
+					out.writeByte(message.type);
+					writeString(message.user);
+					writeString(message.room);
+					writeString(message.text);
+				}
+
+				out.flush();
+				sent.addAndGet(batch.size());
+				batches.incrementAndGet();
+				batch.clear();
+			}
+		}
+		catch(InterruptedException ie){}
+		catch(IOException ioe)
+		{
+			if(!closed.get())
+			{
+				federation.getLog().error("Error writing to peer: " + this, ioe);
+			}
+		}
+
+		close();
+	}
+
+	/**
+	 * Closes the link. The federation is told once, whichever thread notices first.
+	 */
+	void close()
+	{
+		if(!closed.compareAndSet(false, true))
+			return;
+
+		try
+		{
+			socket.close();
+		}
+		catch(IOException ioe){}
+
+		if(writer != null)
+			writer.interrupt();
+
+		queue.clear();
+		federation.unlinked(this);
+	}
+
+	/**
+	 * Returns whether the link has closed.
+	 *
+	 * @return  boolean  Whether or not the link is closed.
+	 */
+	boolean isClosed()
+	{
+		return closed.get();
+	}
+
+	/**
+	 * Returns the name of the node at the other end.
+	 *
+	 * @return  String  The name, or null until it has said hello.
+	 */
+	String getNodeName()
+	{
+		return nodeName;
+	}
+
+	/**
+	 * Returns whether this node opened the connection.
+	 *
+	 * @return  boolean  Whether or not the link is outgoing.
+	 */
+	boolean isOutgoing()
+	{
+		return outgoing;
+	}
+
+	/**
+	 * Returns the node name and how the link is doing, ie: "east (10.0.0.2:4546), 1200 messages in 300 writes".
+	 *
+	 * @return  String  The status of the link.
+	 */
+	public String toString()
+	{
+		return (nodeName == null ? "?" : nodeName) + " (" + socket.getInetAddress().getHostAddress() + ":" + socket.getPort() + "), "
+			+ sent.get() + " messages in " + batches.get() + " writes";
+	}
+
+	/**
+	 * One message between nodes.
+	 */
+	static class Message
+	{
+		//Globals
+		final int type;
+		final String user;
+		final String room;
+		final String text;
+
+		/**
+		 * The class constructor. Null strings are sent as empty ones.
+		 *
+		 * @param  type  The type of message, ie: CHAT.
+		 * @param  user  The user the message is about.
+		 * @param  room  The room, or the user being whispered to.
+		 * @param  text  The text.
+		 */
+		Message(int type, String user, String room, String text)
+		{
+			this.type = type;
+			this.user = user == null ? "" : user;
+			this.room = room == null ? "" : room;
+			this.text = text == null ? "" : text;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Limits how fast one client may send messages, so that a user pasting a page of
+ * text cannot flood their room. Every connection is given its own limiter when it
+ * connects, built from the settings in the config file.
+ * <p><p>
+ *
+ * The limiter is a pair of token buckets, one counting messages and one counting
+ * bytes. Each fills at its rate per second up to its burst, and a message takes
+ * one token from the first and its length from the second. A message that finds
+ * either bucket short is over the limit and is handled according to the action:
+ * <ul>
+ * <li>DROP - the message is thrown away.</li>
+ * <li>DELAY - the message waits until the buckets have filled enough, and nothing
+ *     more is read from the client in the meantime.</li>
+ * </ul>
+ * Either way the client is sent a notice the first time a message is over the
+ * limit, and not again until it has slowed down for long enough that both buckets
+ * have filled back up.
+ * <p><p>
+ *
+ * Each bucket is kept as a single time, the time at which it will next be full,
+ * and is updated with a compare and set, so no lock is taken. A bucket with a rate
+ * of 0 never runs out.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalRateLimiter
+{
+	//Constants
+	static final int DROP = 0;
+	static final int DELAY = 1;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	//Globals
+	int messagesPerSecond = 0;
+	int messageBurst = 0;
+	int bytesPerSecond = 0;
+	int byteBurst = 0;
+	int action = DROP;
+	private long messageInterval = 0;
+	private long byteInterval = 0;
+	private final AtomicLong messagesFull = new AtomicLong(Long.MIN_VALUE);
+	private final AtomicLong bytesFull = new AtomicLong(Long.MIN_VALUE);
+	private final AtomicBoolean limited = new AtomicBoolean(false);
+
+	/**
+	 * Creates a limiter from the server settings.
+	 *
+	 * @param   server          The server whose settings are used.
+	 * @return  HalRateLimiter  The limiter described by the settings.
+	 */
+	static HalRateLimiter fromConfig(HalServer server)
+	{
+		HalRateLimiter limiter = new HalRateLimiter();
+
+		limiter.messagesPerSecond = Math.max(server.getConfig("RateLimitMessages", server.DEFAULT_RATE_LIMIT_MESSAGES), 0);
+		limiter.messageBurst = Math.max(server.getConfig("RateLimitMessageBurst", server.DEFAULT_RATE_LIMIT_MESSAGE_BURST), 1);
+		limiter.bytesPerSecond = Math.max(server.getConfig("RateLimitBytes", server.DEFAULT_RATE_LIMIT_BYTES), 0);
+		limiter.byteBurst = Math.max(server.getConfig("RateLimitByteBurst", server.DEFAULT_RATE_LIMIT_BYTE_BURST), 1);
+		limiter.action = parseAction(server.configs.getProperty("RateLimitAction", "drop"));
+		limiter.messageInterval = limiter.messagesPerSecond == 0 ? 0 : NANOS_PER_SECOND / limiter.messagesPerSecond;
+		limiter.byteInterval = limiter.bytesPerSecond == 0 ? 0 : NANOS_PER_SECOND / limiter.bytesPerSecond;
+
+		return limiter;
+	}
+
+	/**
+	 * Returns the action named in the config file, ie: "drop" or "delay".
+	 *
+	 * @param   name  The name of the action.
+	 * @return  int   The action, or DROP if the name is not recognized.
+	 */
+	static int parseAction(String name)
+	{
+		if(name.trim().equalsIgnoreCase("delay"))
+			return DELAY;
+
+		return DROP;
+	}
+
+	/**
+	 * Returns the config file name of this limiters action.
+	 *
+	 * @return  String  The name of the action.
+	 */
+	String getActionName()
+	{
+		return action == DELAY ? "delay" : "drop";
+	}
+
+	/**
+	 * Returns whether the limiter lets any message through without counting it.
+	 *
+	 * @return  boolean  Whether or not both rates are 0.
+	 */
+	boolean isOff()
+	{
+		return messageInterval == 0 && byteInterval == 0;
+	}
+
+	/**
+	 * Takes the tokens for one message, if the buckets hold enough.
+	 *
+	 * @param   message  The message, as the client sent it.
+	 * @return  long     0 if the message may be sent now, or else how many nanoseconds
+	 *                   until the buckets will hold enough for it.
+	 */
+	long acquire(String message)
+	{
+		if(isOff())
+			return 0;
+
+		//a message bigger than the burst would never fit, so it takes the whole bucket
+		long bytes = Math.min(utf8Length(message), byteBurst);
+		long now = System.nanoTime();
+
+		while(true)
+		{
+			long messages = messagesFull.get();
+			long nextMessages = Math.max(messages, now) + messageInterval;
+			long wait = nextMessages - now - messageInterval * messageBurst;
+
+			if(byteInterval > 0)
+			{
+				long nextBytes = Math.max(bytesFull.get(), now) + byteInterval * bytes;
+				wait = Math.max(wait, nextBytes - now - byteInterval * byteBurst);
+			}
+
+			if(wait > 0)
+				return wait;
+
+			if(!messagesFull.compareAndSet(messages, nextMessages))
+				continue;
+
+			//the message bucket has been charged, so the byte bucket must be too
+			long full = 0;
+			do
+			{
+				full = bytesFull.get();
+			}
+			while(!bytesFull.compareAndSet(full, Math.max(full, now) + byteInterval * bytes));
+
+			return 0;
+		}
+	}
+
+	/**
+	 * Takes the tokens for one message from a client, as acquire() does, and counts
+	 * and tells the client about messages that are over the limit.
+	 *
+	 * @param   server   The server the client is connected to.
+	 * @param   client   The client that sent the message.
+	 * @param   message  The message, as the client sent it.
+	 * @param   held     Whether the message was over the limit before and has been
+	 *                   held back since, so has already been counted.
+	 * @return  long     0 if the message may be sent now, or else how many nanoseconds
+	 *                   until the buckets will hold enough for it.
+	 */
+	long check(HalServer server, HalConnection client, String message, boolean held)
+	{
+		long now = System.nanoTime();
+		boolean rested = messagesFull.get() <= now && bytesFull.get() <= now;
+		long wait = acquire(message);
+
+		if(held)
+			return wait;
+
+		if(wait == 0)
+		{
+			if(rested && limited.get())
+				limited.set(false);
+
+			return 0;
+		}
+
+		server.rateLimitedMessages.incrementAndGet();
+
+		//only the first message over the limit is answered, not every line of a paste
+		if(limited.compareAndSet(false, true))
+		{
+			if(action == DELAY)
+				client.sendMessage("* You are sending messages too fast! They are being slowed down.");
+			else
+				client.sendMessage("* You are sending messages too fast! Some of them were not sent.");
+		}
+
+		return wait;
+	}
+
+	/**
+	 * Returns the number of bytes a string takes in UTF-8, without encoding it.
+	 *
+	 * @param   text  The string.
+	 * @return  int   The number of bytes.
+	 */
+	static int utf8Length(String text)
+	{
+		int bytes = 0;
+
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+
+			if(c < 0x80)
+				bytes++;
+			else if(c < 0x800 || Character.isSurrogate(c))
+				bytes += 2;
+			else
+				bytes += 3;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the limits, ie: "10 messages/s (burst 20), 4096 bytes/s (burst 16384), drop".
+	 *
+	 * @return  String  The limits, or "off".
+	 */
+	public String toString()
+	{
+		if(isOff())
+			return "off";
+
+		return (messagesPerSecond == 0 ? "no message limit" : messagesPerSecond + " messages/s (burst " + messageBurst + ")")
+			+ ", " + (bytesPerSecond == 0 ? "no byte limit" : bytesPerSecond + " bytes/s (burst " + byteBurst + ")")
+			+ ", " + getActionName();
+	}
+}
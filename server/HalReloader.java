@@ -0,0 +1,266 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reloads the files the server reads its settings from, such as the message of the
+ * day and the filtered words, whenever they change, so that they can be edited
+ * without restarting the server and dropping every user.
+ * <p><p>
+ *
+ * One thread waits on a WatchService for changes to the directories the files are
+ * in. Editors often write a file in several steps, so once a file has changed the
+ * thread waits until nothing has changed for a moment before reloading it. Each
+ * file has a loader that builds the new settings from scratch and then publishes
+ * them with a single reference swap, so threads using the settings never wait for
+ * a reload and never see one half built. A file that cannot be read leaves the old
+ * settings in place.
+ * <p><p>
+ *
+ * Every successful load gives the file a new version number, and records how long
+ * the load took and, when the load was set off by the file changing, how long
+ * after the change the new settings were published.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalReloader implements Runnable
+{
+	//Globals
+	private HalServer server = null;
+	private long quietMillis = 0;
+	private final List<Watched> files = new CopyOnWriteArrayList<Watched>();
+	private WatchService watcher = null;
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server       The server whose files are watched.
+	 * @param  quietMillis  How long a file must go unchanged before it is reloaded.
+	 */
+	HalReloader(HalServer server, long quietMillis)
+	{
+		this.server = server;
+		this.quietMillis = quietMillis;
+	}
+
+	/**
+	 * Adds a file to be reloaded when it changes. Must be called before the watcher
+	 * is started.
+	 *
+	 * @param  path    The file.
+	 * @param  loader  Reads the file and publishes the settings in it, returning false if it could not.
+	 */
+	void watch(String path, Callable<Boolean> loader)
+	{
+		files.add(new Watched(new File(path), loader));
+	}
+
+	/**
+	 * Starts watching the directories of the files. If the directories cannot be
+	 * watched the files can still be reloaded from the console.
+	 */
+	synchronized void start()
+	{
+		if(running)
+			return;
+
+		try
+		{
+			watcher = FileSystems.getDefault().newWatchService();
+			HashSet<Path> directories = new HashSet<Path>();
+
+			for(Watched file : files)
+				directories.add(file.directory);
+
+			for(Path directory : directories)
+				directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		catch(IOException ioe)
+		{
+			server.log.error("Unable to watch settings files for changes.", ioe);
+			close();
+			return;
+		}
+
+		running = true;
+		thread = new Thread(this, "HalReloader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching the files.
+	 */
+	synchronized void stop()
+	{
+		running = false;
+		close();
+	}
+
+	/**
+	 * Reloads every file now, whether or not it has changed.
+	 */
+	void reloadAll()
+	{
+		for(Watched file : files)
+			reload(file, false);
+	}
+
+	/**
+	 * Waits for the files to change and reloads each one once it has stopped changing.
+	 */
+	public void run()
+	{
+		HashSet<Watched> changed = new HashSet<Watched>();
+
+		try
+		{
+			while(running)
+			{
+				WatchKey key = changed.isEmpty() ? watcher.take() : watcher.poll(quietMillis, TimeUnit.MILLISECONDS);
+
+				//nothing has changed for a moment, so the files are finished being written
+				if(key == null)
+				{
+					for(Watched file : changed)
+						reload(file, true);
+
+					changed.clear();
+					continue;
+				}
+
+				Path directory = (Path)key.watchable();
+
+				for(WatchEvent<?> event : key.pollEvents())
+				{
+					for(Watched file : files)
+					{
+						//events were lost, so any of the files may have changed
+						if(event.kind() == StandardWatchEventKinds.OVERFLOW && file.directory.equals(directory))
+							changed.add(file);
+						else if(file.directory.equals(directory) && file.name.equals(event.context()))
+							changed.add(file);
+					}
+				}
+
+				key.reset();
+			}
+		}
+		catch(InterruptedException ie){}
+		catch(ClosedWatchServiceException cwse){}
+	}
+
+	/**
+	 * Reloads one file and records how long it took. Only one file is reloaded at a
+	 * time, whether by the watcher or from the console.
+	 *
+	 * @param  file     The file.
+	 * @param  changed  Whether the reload was set off by the file changing.
+	 */
+	private synchronized void reload(Watched file, boolean changed)
+	{
+		long start = System.nanoTime();
+		boolean loaded = false;
+
+		try
+		{
+			loaded = file.loader.call().booleanValue();
+		}
+		catch(Exception e)
+		{
+			server.log.error("Error reloading file: " + file.file.getPath(), e);
+		}
+
+		if(!loaded)
+			return;
+
+		long modified = file.file.lastModified();
+
+		file.loadNanos = System.nanoTime() - start;
+		file.lagMillis = !changed || modified == 0 ? -1 : Math.max(System.currentTimeMillis() - modified, 0);
+		file.version++;
+
+		server.sendMessage("Loaded " + file);
+	}
+
+	/**
+	 * Closes the watch service, waking the watcher thread if it is waiting.
+	 */
+	private void close()
+	{
+		try
+		{
+			if(watcher != null)
+				watcher.close();
+		}
+		catch(IOException ioe){}
+	}
+
+	/**
+	 * Returns the version of every file and how its last load went, ie:
+	 * "motd.txt version 3 (took 0.4ms, 212ms after it changed); filter.txt version 1 (took 2.1ms)".
+	 * The watcher is noted at the end.
+	 *
+	 * @return  String  The status of the files.
+	 */
+	public String toString()
+	{
+		StringBuffer status = new StringBuffer();
+
+		for(Watched file : files)
+		{
+			if(status.length() > 0)
+				status.append("; ");
+
+			status.append(file);
+		}
+
+		return status.append(running ? ", watching for changes" : ", not watching").toString();
+	}
+
+	/**
+	 * A file being watched, and how its last load went.
+	 */
+	private static class Watched
+	{
+		//Globals
+		final File file;
+		final Path directory;
+		final Path name;
+		final Callable<Boolean> loader;
+		volatile int version = 0;
+		volatile long loadNanos = 0;
+		volatile long lagMillis = -1;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  file    The file.
+		 * @param  loader  Reads the file and publishes the settings in it.
+		 */
+		Watched(File file, Callable<Boolean> loader)
+		{
+			this.file = file;
+			this.directory = file.getAbsoluteFile().toPath().getParent();
+			this.name = file.toPath().getFileName();
+			this.loader = loader;
+		}
+
+		/**
+		 * Returns the version of the file and how its last load went.
+		 *
+		 * @return  String  The status of the file.
+		 */
+		public String toString()
+		{
+			return file.getPath() + " version " + version + " (took " + (loadNanos / 1000) / 1000.0 + "ms"
+				+ (lagMillis < 0 ? "" : ", " + lagMillis + "ms after it changed")
+				+ (file.exists() ? "" : ", file not found") + ")";
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * A user who is logged in to another node of a federation. Remote users are kept
+ * in the same maps and rooms as the clients of this server, so they show up in
+ * every list of users and their messages reach the clients here, but nothing is
+ * ever written to them. The node they are logged in to sends them what they
+ * should see.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalRemoteUser implements HalConnection
+{
+	//Globals
+	private HalServer server = null;
+	private HalPeerLink link = null;
+	private int id = 0;
+	private String userId = null;
+	private volatile HalRoom room = null;
+	private long connectTime = 0;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  server  The server the user is shown on.
+	 * @param  link    The link to the node the user is logged in to.
+	 * @param  id      The id the server gave this user.
+	 * @param  userId  The name of the user.
+	 */
+	HalRemoteUser(HalServer server, HalPeerLink link, int id, String userId)
+	{
+		this.server = server;
+		this.link = link;
+		this.id = id;
+		this.userId = userId;
+		this.connectTime = System.nanoTime();
+	}
+
+	/**
+	 * Returns the link to the node this user is logged in to.
+	 *
+	 * @return  HalPeerLink  The link.
+	 */
+	HalPeerLink getLink()
+	{
+		return link;
+	}
+
+	/**
+	 * Returns the id the server gave this user.
+	 *
+	 * @return  int  The id of this user.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Returns the name of this user.
+	 *
+	 * @return  String  The name of this user.
+	 */
+	public String getUserId()
+	{
+		return userId;
+	}
+
+	/**
+	 * Returns the name of the node this user is logged in to, in place of an ip.
+	 *
+	 * @return  String  The name of the node.
+	 */
+	public String getIp()
+	{
+		return link.getNodeName();
+	}
+
+	/**
+	 * Returns the protocol of this user. Nothing is written to a remote user, so this
+	 * is always the text protocol.
+	 *
+	 * @return  int  HalProtocol.TEXT.
+	 */
+	public int getProtocol()
+	{
+		return HalProtocol.TEXT;
+	}
+
+	/**
+	 * Returns the room this user is in.
+	 *
+	 * @return  HalRoom  The room.
+	 */
+	public HalRoom getRoom()
+	{
+		return room;
+	}
+
+	/**
+	 * Moves this user to another room.
+	 *
+	 * @param  room  The room the user has joined.
+	 */
+	public void setRoom(HalRoom room)
+	{
+		this.room = room;
+	}
+
+	/**
+	 * Returns when this server was told about this user.
+	 *
+	 * @return  long  The time, from System.nanoTime().
+	 */
+	public long getConnectTime()
+	{
+		return connectTime;
+	}
+
+	/**
+	 * Returns 0, nothing is ever waiting to be written to a remote user.
+	 *
+	 * @return  int  0.
+	 */
+	public int getQueuedFrames()
+	{
+		return 0;
+	}
+
+	/**
+	 * Returns 0, nothing is ever waiting to be written to a remote user.
+	 *
+	 * @return  int  0.
+	 */
+	public int getQueuedBytes()
+	{
+		return 0;
+	}
+
+	/**
+	 * Does nothing, the node the user is logged in to sends them their messages.
+	 *
+	 * @param  message  The message.
+	 */
+	public void sendMessage(String message){}
+
+	/**
+	 * Does nothing, the node the user is logged in to sends them their messages.
+	 *
+	 * @param  frame  The encoded message.
+	 */
+	public void sendFrame(HalFrame frame){}
+
+	/**
+	 * Removes this user from this server only. The user stays logged in to their
+	 * own node.
+	 */
+	public void disconnect()
+	{
+		server.removeClient(this);
+	}
+}
@@ -0,0 +1,178 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The most recent messages sent to a room, kept so that they can be replayed to a
+ * user who joins the room part way through a conversation. The buffer is a ring of
+ * a fixed number of slots, and each new message takes the slot of the oldest one.
+ * <p><p>
+ *
+ * Adding a message takes no lock. The sender claims the next sequence number and
+ * stores the message in the slot that number falls on, so any number of threads
+ * can broadcast to the same room at once. Messages are then published in the order
+ * they were numbered, each sender waiting the few instructions it takes the senders
+ * numbered before it to store theirs, so every message below the published
+ * sequence number is in its slot and a user who joins is never shown a gap where a
+ * message was still being stored. A reader copies the
+ * slots it wants and only keeps the messages whose sequence numbers are the ones
+ * it expected, so a slot that is overwritten while it is being read is skipped
+ * rather than shown out of order.
+ * <p><p>
+ *
+ * A message keeps the bytes it was encoded as when it was broadcast, one copy for
+ * each protocol that was in use, so replaying it does not encode it again.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalReplayBuffer
+{
+	//Globals
+	private AtomicReferenceArray<Entry> slots = null;
+	private final AtomicLong nextSequence = new AtomicLong(0);
+	private final AtomicLong published = new AtomicLong(0);
+	private int maxBytes = 0;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  length    The number of messages kept, or 0 to keep none.
+	 * @param  maxBytes  The most bytes replayed to a user at once.
+	 */
+	HalReplayBuffer(int length, int maxBytes)
+	{
+		this.slots = new AtomicReferenceArray<Entry>(Math.max(length, 0));
+		this.maxBytes = Math.max(maxBytes, 0);
+	}
+
+	/**
+	 * Adds a message to the buffer, in place of the oldest message if it is full.
+	 *
+	 * @param   kind    The kind of message, ie: HalProtocol.CHAT.
+	 * @param   sender  The id of the user who sent it.
+	 * @param   name    The name of the user who sent it.
+	 * @param   text    The text of the message.
+	 * @return  Entry   The message as it was stored, or null if no messages are kept.
+	 */
+	Entry add(int kind, int sender, String name, String text)
+	{
+		if(slots.length() == 0)
+			return null;
+
+		Entry entry = new Entry(nextSequence.getAndIncrement(), kind, sender, name, text);
+		slots.set((int)(entry.sequence % slots.length()), entry);
+
+		//only the sender of a message can publish past it, once every earlier message is published
+		while(published.get() != entry.sequence)
+			Thread.yield();
+
+		published.set(entry.sequence + 1);
+
+		return entry;
+	}
+
+	/**
+	 * Returns the published sequence number. Every message numbered below it has
+	 * been stored, and every message not yet stored, or added from now on, has a
+	 * sequence number at least this high.
+	 *
+	 * @return  long  The next sequence number to be published.
+	 */
+	long getNextSequence()
+	{
+		return published.get();
+	}
+
+	/**
+	 * Returns the messages still in the buffer that were added before a sequence
+	 * number, oldest first.
+	 *
+	 * @param   before       The sequence number to stop at, from getNextSequence().
+	 * @return  List<Entry>  The messages, oldest first.
+	 */
+	List<Entry> recent(long before)
+	{
+		ArrayList<Entry> found = new ArrayList<Entry>();
+
+		for(long sequence = Math.max(before - slots.length(), 0); sequence < before; sequence++)
+		{
+			Entry entry = slots.get((int)(sequence % slots.length()));
+
+			if(entry != null && entry.sequence == sequence)
+				found.add(entry);
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns the most bytes that should be replayed to a user at once.
+	 *
+	 * @return  int  The number of bytes.
+	 */
+	int getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * One message in the buffer. The message itself never changes, and the encoded
+	 * bytes are filled in once for each protocol, either by the broadcast that sent
+	 * it or by the first replay that needed them.
+	 */
+	static class Entry
+	{
+		//Globals
+		final long sequence;
+		final int kind;
+		final int sender;
+		final String name;
+		final String text;
+		private volatile byte[] encodedText = null;
+		private volatile byte[] encodedBinary = null;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  sequence  The sequence number of the message in its buffer.
+		 * @param  kind      The kind of message, ie: HalProtocol.CHAT.
+		 * @param  sender    The id of the user who sent it.
+		 * @param  name      The name of the user who sent it.
+		 * @param  text      The text of the message.
+		 */
+		Entry(long sequence, int kind, int sender, String name, String text)
+		{
+			this.sequence = sequence;
+			this.kind = kind;
+			this.sender = sender;
+			this.name = name;
+			this.text = text;
+		}
+
+		/**
+		 * Returns the message as it is encoded for a protocol.
+		 *
+		 * @param   protocol  The protocol, ie: HalProtocol.BINARY.
+		 * @return  byte[]    The encoded message, or null if it has not been encoded yet.
+		 */
+		byte[] getEncoded(int protocol)
+		{
+			return protocol == HalProtocol.BINARY ? encodedBinary : encodedText;
+		}
+
+		/**
+		 * Keeps the message as it is encoded for a protocol. Two threads may both
+		 * encode the same message, which does no harm since they encode the same bytes.
+		 *
+		 * @param  protocol  The protocol, ie: HalProtocol.BINARY.
+		 * @param  encoded   The encoded message.
+		 */
+		void setEncoded(int protocol, byte[] encoded)
+		{
+			if(protocol == HalProtocol.BINARY)
+				encodedBinary = encoded;
+			else
+				encodedText = encoded;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A chat room. Every logged in user is in exactly one room, and what they say is
+ * only sent to the other members of that room. Each room keeps its own members and
+ * its own roster, so sending to one room never touches the state of another.
+ * <p><p>
+ *
+ * Sending to the members only reads the members map, so it takes no lock. Joining
+ * and leaving lock the room itself, which only holds up others joining or leaving
+ * the same room. A room that is not permanent closes when its last member leaves,
+ * and a closed room cannot be joined, so a user can never end up in a room that
+ * the server has already forgotten about.
+ * <p><p>
+ *
+ * Each member has a Join, which marks where in the replay buffer they started
+ * being sent messages live. Messages from before that point were replayed to them
+ * when they joined instead.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalRoom
+{
+	//Globals
+	private String name = null;
+	private boolean permanent = false;
+	private boolean closed = false;
+	private final ConcurrentSkipListMap<Integer, HalConnection> members = new ConcurrentSkipListMap<Integer, HalConnection>();
+	private final ConcurrentHashMap<HalConnection, Join> joins = new ConcurrentHashMap<HalConnection, Join>();
+	private final AtomicLong messages = new AtomicLong(0);
+	protected final HalRoster roster = new HalRoster();
+	protected HalReplayBuffer replay = null;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  name          The name of the room, as it was first typed.
+	 * @param  permanent     Whether the room stays open when it is empty.
+	 * @param  replayLength  The number of recent messages kept to show users who join.
+	 * @param  replayBytes   The most bytes of recent messages shown to a user who joins.
+	 */
+	HalRoom(String name, boolean permanent, int replayLength, int replayBytes)
+	{
+		this.name = name;
+		this.permanent = permanent;
+		this.replay = new HalReplayBuffer(replayLength, replayBytes);
+	}
+
+	/**
+	 * Adds a logged in client to the room.
+	 *
+	 * @param   client   The client joining the room.
+	 * @param   join     Where the client starts being sent messages live, held by the joining thread.
+	 * @return  boolean  Whether the client was added, false if the room has closed.
+	 */
+	synchronized boolean add(HalConnection client, Join join)
+	{
+		if(closed)
+			return false;
+
+		//the join is in place before the client can be sent anything
+		joins.put(client, join);
+		members.put(client.getId(), client);
+		roster.add(client.getId(), client.getUserId());
+
+		return true;
+	}
+
+	/**
+	 * Removes a client from the room. Clients that are not members are ignored.
+	 *
+	 * @param   client   The client leaving the room.
+	 * @return  boolean  Whether the client was a member of the room.
+	 */
+	synchronized boolean remove(HalConnection client)
+	{
+		if(!members.remove(client.getId(), client))
+			return false;
+
+		joins.remove(client);
+		roster.remove(client.getId());
+
+		if(!permanent && members.isEmpty())
+			closed = true;
+
+		return true;
+	}
+
+	/**
+	 * Returns whether the room has closed, after its last member left.
+	 *
+	 * @return  boolean  Whether or not the room is closed.
+	 */
+	synchronized boolean isClosed()
+	{
+		return closed;
+	}
+
+	/**
+	 * Returns the members of the room, in the order they arrived on the server. The
+	 * collection can be read while clients join and leave.
+	 *
+	 * @return  Collection<HalConnection>  The members of the room.
+	 */
+	Collection<HalConnection> getMembers()
+	{
+		return members.values();
+	}
+
+	/**
+	 * Returns where a member started being sent messages live.
+	 *
+	 * @param   client  The member.
+	 * @return  Join    The join of the member, or null if they are not a member.
+	 */
+	Join getJoin(HalConnection client)
+	{
+		return joins.get(client);
+	}
+
+	/**
+	 * Counts one message sent to the room.
+	 */
+	void countMessage()
+	{
+		messages.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of messages sent to the room since it was opened.
+	 *
+	 * @return  long  The number of messages.
+	 */
+	long getMessageCount()
+	{
+		return messages.get();
+	}
+
+	/**
+	 * Returns the number of members in the room.
+	 *
+	 * @return  int  The number of members.
+	 */
+	int size()
+	{
+		return roster.size();
+	}
+
+	/**
+	 * Returns the name of the room.
+	 *
+	 * @return  String  The name of the room.
+	 */
+	String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Returns the name of the room and how busy it is, ie: "lobby: 3 members, 120 messages".
+	 *
+	 * @return  String  The status of the room.
+	 */
+	public String toString()
+	{
+		return name + ": " + size() + " members, " + getMessageCount() + " messages";
+	}
+
+	/**
+	 * Where in the replay buffer a member started being sent messages live. Until
+	 * the replay of a joining member has been queued, messages sent to the room are
+	 * held by their join rather than sent, and once the replay is queued the ones
+	 * it did not include are queued after it. The thread sending to the room only
+	 * waits to add a frame to the held list, never for the replay to be built, and a
+	 * live message is never queued ahead of the older messages being replayed.
+	 */
+	static class Join
+	{
+		//Globals
+		private long first = Long.MAX_VALUE;
+		private volatile boolean replayed = false;
+		private ArrayList<HalFrame> held = new ArrayList<HalFrame>();
+		private ArrayList<Long> heldSequences = new ArrayList<Long>();
+
+		/**
+		 * Queues the messages held while the replay was being queued, leaving out the
+		 * ones the replay already included. Messages from the first sequence number on
+		 * are sent live from now on, and older ones are not sent again.
+		 *
+		 * @param  client  The member, or null to throw the held messages away.
+		 * @param  first   The next sequence number of the replay buffer when the replay was taken.
+		 */
+		synchronized void replayed(HalConnection client, long first)
+		{
+			for(int i = 0; i < held.size(); i++)
+			{
+				if(client != null && heldSequences.get(i).longValue() >= first)
+					client.sendFrame(held.get(i));
+
+				held.get(i).release();
+			}
+
+			held.clear();
+			heldSequences.clear();
+			this.first = client == null ? Long.MAX_VALUE : first;
+			this.replayed = true;
+		}
+
+		/**
+		 * Returns whether a message should be sent to the member live now. While their
+		 * replay is still being queued the message is held instead, and queued by
+		 * replayed() if the replay did not include it. A member whose join was given
+		 * up is sent nothing live.
+		 *
+		 * @param   sequence  The sequence number of the message in the replay buffer.
+		 * @param   frame     The message as it would be sent to the member, which takes its own reference if it is held.
+		 * @return  boolean   Whether the message should be sent live.
+		 */
+		boolean admits(long sequence, HalFrame frame)
+		{
+			if(replayed)
+				return sequence >= first;
+
+			synchronized(this)
+			{
+				if(replayed)
+					return sequence >= first;
+
+				frame.retain();
+				held.add(frame);
+				heldSequences.add(Long.valueOf(sequence));
+				return false;
+			}
+		}
+	}
+}
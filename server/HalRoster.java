@@ -0,0 +1,330 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The list of users that are logged in, in the order they arrived. Users are added
+ * when they are welcomed and removed when they leave, and every change moves the
+ * roster on to a new version.
+ * <p><p>
+ *
+ * Listing every user is done from a snapshot of the roster. A snapshot is only
+ * built when the roster has changed since the last one, so asking for the list
+ * again and again does not walk the whole roster each time. The first page of
+ * the roster is read straight from the roster instead, so greeting a new user
+ * costs the same however many users are in the room.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalRoster
+{
+	//Globals
+	private final ConcurrentSkipListMap<Integer, String> names = new ConcurrentSkipListMap<Integer, String>();
+	private final AtomicInteger count = new AtomicInteger(0);
+	private final AtomicLong version = new AtomicLong(0);
+	private volatile Snapshot snapshot = new Snapshot(0, new int[0], new String[0]);
+
+	/**
+	 * Adds a user to the roster.
+	 *
+	 * @param  id    The id of the users connection.
+	 * @param  name  The name of the user.
+	 */
+	void add(int id, String name)
+	{
+		if(names.put(id, name) == null)
+			count.incrementAndGet();
+
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Removes a user from the roster. Ids that are not in the roster are ignored.
+	 *
+	 * @param  id  The id of the users connection.
+	 */
+	void remove(int id)
+	{
+		if(names.remove(id) != null)
+		{
+			count.decrementAndGet();
+			version.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of users in the roster.
+	 *
+	 * @return  int  The number of users.
+	 */
+	int size()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Returns the current version of the roster.
+	 *
+	 * @return  long  The number of changes made to the roster so far.
+	 */
+	long getVersion()
+	{
+		return version.get();
+	}
+
+	/**
+	 * Returns a snapshot of the roster, building a new one only if the roster has
+	 * changed since the last snapshot was taken.
+	 *
+	 * @return  Snapshot  The users in the roster.
+	 */
+	Snapshot snapshot()
+	{
+		Snapshot current = snapshot;
+		long latest = version.get();
+
+		if(current.version == latest)
+			return current;
+
+		//the version is read first, so a change made while copying only makes the
+		//snapshot look older than it is and it is rebuilt the next time it is asked for
+		ArrayList<Integer> ids = new ArrayList<Integer>(count.get());
+		ArrayList<String> users = new ArrayList<String>(count.get());
+
+		for(Map.Entry<Integer, String> user : names.entrySet())
+		{
+			ids.add(user.getKey());
+			users.add(user.getValue());
+		}
+
+		int[] idArray = new int[ids.size()];
+		for(int i = 0; i < idArray.length; i++)
+			idArray[i] = ids.get(i);
+
+		current = new Snapshot(latest, idArray, users.toArray(new String[0]));
+
+		if(snapshot.version < latest)
+			snapshot = current;
+
+		return current;
+	}
+
+	/**
+	 * Returns the first users in the roster, ie: "There are 3 users connected: alice,
+	 * bob, carol". If there are more than fit on a page, the page says how many pages
+	 * there are.
+	 *
+	 * @param   pageSize  The largest number of names to list.
+	 * @return  Page      The first page of the roster.
+	 */
+	Page firstPage(int pageSize)
+	{
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		ArrayList<String> users = new ArrayList<String>();
+
+		for(Map.Entry<Integer, String> user : names.entrySet())
+		{
+			if(ids.size() == pageSize)
+				break;
+
+			ids.add(user.getKey());
+			users.add(user.getValue());
+		}
+
+		int total = Math.max(size(), ids.size());
+		int[] idArray = new int[ids.size()];
+
+		for(int i = 0; i < idArray.length; i++)
+			idArray[i] = ids.get(i);
+
+		return new Page(null, total, 1, pages(total, pageSize), idArray, users.toArray(new String[0]));
+	}
+
+	/**
+	 * Returns one page of the users whose names contain some text. Asking for a page
+	 * past the end returns the last page.
+	 *
+	 * @param   match     The text to look for, or null to list every user.
+	 * @param   page      The page to return, starting from 1.
+	 * @param   pageSize  The number of names on a page.
+	 * @return  Page      The page of users.
+	 */
+	Page page(String match, int page, int pageSize)
+	{
+		Snapshot current = snapshot();
+		int first = (page - 1) * pageSize;
+		int found = 0;
+		int listed = 0;
+		int[] ids = new int[Math.min(pageSize, current.names.length)];
+		String[] users = new String[ids.length];
+
+		for(int i = 0; i < current.names.length; i++)
+		{
+			if(match != null && !contains(current.names[i], match))
+				continue;
+
+			if(found >= first && found < first + pageSize)
+			{
+				ids[listed] = current.ids[i];
+				users[listed++] = current.names[i];
+			}
+
+			found++;
+		}
+
+		if(page > 1 && first >= found)
+			return page(match, Math.max(pages(found, pageSize), 1), pageSize);
+
+		return new Page(match, found, page, pages(found, pageSize), Arrays.copyOf(ids, listed), Arrays.copyOf(users, listed));
+	}
+
+	/**
+	 * Returns the number of pages it takes to list some users.
+	 *
+	 * @param   total     The number of users being paged through.
+	 * @param   pageSize  The number of names on a page.
+	 * @return  int       The number of pages.
+	 */
+	private int pages(int total, int pageSize)
+	{
+		return (total + pageSize - 1) / pageSize;
+	}
+
+	/**
+	 * Returns whether a name contains some text, ignoring case.
+	 *
+	 * @param   name     The name to search.
+	 * @param   match    The text to look for.
+	 * @return  boolean  Whether or not the text was found.
+	 */
+	private boolean contains(String name, String match)
+	{
+		for(int i = 0; i + match.length() <= name.length(); i++)
+		{
+			if(name.regionMatches(true, i, match, 0, match.length()))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * The users in the roster at one version. A snapshot never changes, so it can be
+	 * shared by any number of threads.
+	 */
+	static class Snapshot
+	{
+		//Globals
+		final long version;
+		final int[] ids;
+		final String[] names;
+		private volatile String text = null;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  version  The version of the roster the snapshot was taken at.
+		 * @param  ids      The ids of the users connections, in the same order as their names.
+		 * @param  names    The names of the users, in the order they arrived.
+		 */
+		Snapshot(long version, int[] ids, String[] names)
+		{
+			this.version = version;
+			this.ids = ids;
+			this.names = names;
+		}
+
+		/**
+		 * Returns every user in the snapshot, ie: "There are 3 users connected: alice,
+		 * bob, carol". The line is built the first time it is asked for and then reused.
+		 *
+		 * @return  String  The users in the snapshot.
+		 */
+		public String toString()
+		{
+			if(text == null)
+			{
+				StringBuilder list = new StringBuilder("There are " + names.length + " users connected: ");
+
+				for(int i = 0; i < names.length; i++)
+				{
+					if(i > 0)
+						list.append(", ");
+
+					list.append(names[i]);
+				}
+
+				text = list.toString();
+			}
+
+			return text;
+		}
+	}
+
+	/**
+	 * One page of users from the roster, with the ids of their connections so that
+	 * clients using the binary protocol can tell users apart without parsing names.
+	 */
+	static class Page
+	{
+		//Globals
+		final String match;
+		final int total;
+		final int page;
+		final int pages;
+		final int[] ids;
+		final String[] names;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  match  The text the users were searched for by, or null if every user was listed.
+		 * @param  total  The number of users found.
+		 * @param  page   The page shown, starting from 1.
+		 * @param  pages  The number of pages the users found take up.
+		 * @param  ids    The ids of the users on this page.
+		 * @param  names  The names of the users on this page.
+		 */
+		Page(String match, int total, int page, int pages, int[] ids, String[] names)
+		{
+			this.match = match;
+			this.total = total;
+			this.page = page;
+			this.pages = pages;
+			this.ids = ids;
+			this.names = names;
+		}
+
+		/**
+		 * Returns the page as a line of text, ie: "There are 120 users connected, page
+		 * 2 of 3: alice, bob" or "2 users matching "bo": bob, bobby".
+		 *
+		 * @return  String  The page of users.
+		 */
+		public String toString()
+		{
+			StringBuilder list = new StringBuilder();
+
+			if(match == null)
+				list.append("There are " + total + " users connected");
+			else
+				list.append(total + " users matching \"" + match + "\"");
+
+			if(pages > 1)
+				list.append(", page " + page + " of " + pages);
+
+			list.append(": ");
+
+			for(int i = 0; i < names.length; i++)
+			{
+				if(i > 0)
+					list.append(", ");
+
+				list.append(names[i]);
+			}
+
+			return list.toString();
+		}
+	}
+}
@@ -1,508 +1,1913 @@
-import java.io.*;
-import java.net.*;
-import java.util.*;
-
-/**
- * This is the main class for the Hal chat server. It starts the HalListener
- * thread when the server is started and stops the thread when the server is
- * stopped.
- * 
- * @author  Evan Lennick <eml0300@mail.widener.edu>
- * @version 1.0
- */
-public class HalServer extends Thread
-{
-	//Globals
-	private HalListener listener = null;
-	private BufferedReader in = null;
-	protected Vector clients = new Vector(0);
-	protected StringBuffer motd = new StringBuffer();
-	protected boolean langFilter = false;
-	protected String[] filteredWords = null;
-
-	//Constants
-	protected final String MOTD_FILE = "motd.txt";
-	protected final String FILTER_FILE = "filter.txt";
-	protected final String VERSION = "0.1";
-	protected final int DEFAULT_PORT = 4545;
-	protected final int MAX_CLIENTS = 8;
-
-	/**
-	 * Starts the main thread.
-	 * 
-	 * @param  args  Input parameters are not used in this class.
-	 */
-	public static void main(String[] args)
-	{
-		HalServer server = new HalServer();
-		server.start();
-	}
-
-	/**
-	 * Initializes and starts the server terminal. The server automatically
-	 * starts listening on the default port when the server program is started
-	 * as well.
-	 */
-	public void start()
-	{
-		sendMessage("Initializing...");
-
-		String input = "";
-
-		//retrieve the login message from the location MOTD_FILE
-		sendMessage("Retrieving MOTD data from file: " + MOTD_FILE);
-		if(new File(MOTD_FILE).exists())
-            readMotdFile(MOTD_FILE);
-		else
-			motd.append("Hal Server Beta " + VERSION);
-
-		//retrieve the list of filtered words from the location FILTER_FILE
-		sendMessage("Retrieving filtered words from file: " + FILTER_FILE);
-		if(new File(FILTER_FILE).exists())
-			readFilterFile(FILTER_FILE);
-		else
-			langFilter = false;
-
-		try
-		{
-			//start the server 
-			startServer(DEFAULT_PORT);
-
-			//open a stream to listen to the local terminal input
-			in = new BufferedReader(new InputStreamReader(System.in));
-
-			//while the input is not "exit", listen for input and respond appropriately
-			while(!input.equalsIgnoreCase("exit"))
-			{
-				System.out.print("> ");
-				input = (in.readLine()).trim();
-
-				//start the server
-				if(input.toLowerCase().startsWith("start"))
-				{
-					int port = DEFAULT_PORT;
-
-					try
-					{
-						port = Integer.parseInt(input.substring(input.indexOf(" "), input.length()).trim());
-					}
-					catch(Exception e){}
-
-					startServer(port);
-				}
-				//stop the server
-				else if(input.equalsIgnoreCase("stop"))
-				{
-					if(listener != null)
-					{
-						listener.halt();
-						listener = null;
-					}
-					else
-						sendMessage("Server is not running!");
-
-					disconnectClients();
-				}
-				//display the server status
-				else if(input.equalsIgnoreCase("status"))
-				{
-					if(listener == null)
-						sendMessage("Server is currently not running.");
-					else
-						listener.printStatus();
-				}
-				//list the users currently connected to the server
-				else if(input.equalsIgnoreCase("users"))
-				{
-					sendMessage(listUsers());
-				}
-				//broadcast a message to all users connected
-				else if(input.toLowerCase().startsWith("message"))
-				{
-					String message = null;
-
-					try
-					{
-						message = input.substring(input.indexOf(" "), input.length()).trim();
-						broadcast("* Server: " + message + " *");
-						sendMessage("Message sent to all clients.");
-					}
-					catch(Exception e)
-					{
-						sendMessage("Correct usage: message <message to be sent>");
-					}
-				}
-				//kick a user, specified by name
-				else if(input.toLowerCase().startsWith("kick"))
-				{
-					String user = null;
-
-					try
-					{
-						user = input.substring(input.indexOf(" "), input.length()).trim();
-
-						kick(user);
-					}
-					catch(Exception e)
-					{
-						sendMessage("Correct usage: kick <username to be kicked>");
-					}
-				}
-				//break out of the loop
-				else if(input.equalsIgnoreCase("exit"))
-				{
-					break;
-				}
-				//unrecognized command
-				else
-				{
-					sendMessage("Commands: start, stop, status, users, message, kick, exit");
-				}
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Exception: " + e.getMessage());
-			e.printStackTrace();
-		}
-		finally
-		{
-			shutdown();
-			sendMessage("Exiting...");
-		}
-	}
-
-	/**
-	 * Start the server by starting the HalListener thread.
-	 * 
-	 * @param  port  Port number to start the server listening on.
-	 */
-	public void startServer(int port)
-	{
-		try
-		{
-			sendMessage("Starting server...");
-
-			if(listener == null)
-			{
-				listener = new HalListener(this, port);
-				listener.start();
-			}
-			else
-				sendMessage("Server is already running!");
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Error starting server on port: " + port);
-			System.err.println("*** Exception: " + e.getMessage());
-		}
-	}
-
-	/**
-	 * Process client commands. This method is synchronized to make sure that only one
-	 * clients input is being processed at a time. Valid client command are "/users,
-	 * /whisper, /help, /exit". Anything not matching these commands will be broadcast
-	 * as a normal message.
-	 * 
-	 * @param   client   The client having its input processed.
-	 * @param   input    The input being processed.
-	 */
-	public synchronized void processInput(HalClientThread client, String input)
-	{
-		//send a list of currently connected users to the client who requested it
-		if(input.equalsIgnoreCase("/users"))
-			client.sendMessage(listUsers());
-		//attempt to send a whispered message to the destination client requested
-		else if(input.toLowerCase().startsWith("/whisper"))
-		{
-			String user = null;
-			String message = null;
-
-			try
-			{
-				user = input.substring(input.indexOf(" "), input.indexOf(" ", input.indexOf(" ") + 1)).trim();
-				message = input.substring(input.indexOf(" ", input.indexOf(" ") + 1), input.length()).trim();
-
-				for(int i = 0; i < clients.size(); i++)
-				{
-					if(((HalClientThread)clients.get(i)).getUserId().toLowerCase().equals(user.toLowerCase()))
-					{
-						((HalClientThread)clients.get(i)).sendMessage(client.getUserId() + " (whispered): " + message);
-						client.sendMessage("To " + ((HalClientThread)clients.get(i)).getUserId() + " (whispered): " + message);
-						return;
-					}
-				}
-
-				client.sendMessage("* Cannot find user: " + user);
-			}
-			catch(Exception e)
-			{
-				client.sendMessage("* Correct usage: /whisper <username> <message>");
-			}
-		}
-		//send the client a list of commands
-		else if(input.equalsIgnoreCase("/help"))
-			client.sendMessage("* Commands: /users /whisper /exit /help");
-		//disconnect the client
-		else if(input.equalsIgnoreCase("/exit"))
-			client.disconnect();
-		//broadcast the client input to every other client connected
-		else
-			broadcast(client, input);
-	}
-
-	/**
-	 * Broadcast a message to all clients and label it as being from the client who sent it.
-	 * If the language filter is on then filter the message before it is sent out. This method
-	 * is synchronized to make sure that messages broadcast one by one.
-	 * 
-	 * @param   client   The client who sent this message.
-	 * @param   message  The message to be broadcast.
-	 */
-	public synchronized void broadcast(HalClientThread client, String message)
-	{
-		if(langFilter)
-			message = filter(message);
-		
-		for(int i = 0; i < clients.size(); i++)
-			((HalClientThread)clients.get(i)).sendMessage(client.getUserId() + ": " + message);
-	}
-
-	/**
-	 * Broadcast a message to all clients but dont label it as being from any user or source. If
-	 * the language filter is on then filter the message before it is sent out. This method is
-	 * synchronized to make sure that messages broadcast one by one.
-	 * 
-	 * @param   message  The message to be sent.
-	 */
-	public synchronized void broadcast(String message)
-	{
-		if(langFilter)
-			message = filter(message);
-
-		for(int i = 0; i < clients.size(); i++)
-			((HalClientThread)clients.get(i)).sendMessage(message);
-	}
-
-	/**
-	 * Kick a user out of the chat room. They are disconnected but can reconnect if they wish.
-	 * 
-	 * @param   user   The name of the user to be kicked.
-	 */
-	public void kick(String user)
-	{
-		synchronized(clients)
-		{
-			for(int i = 0; i < clients.size(); i++)
-			{
-				if(((HalClientThread)clients.get(i)).getUserId().toLowerCase().equals(user.toLowerCase()))
-				{
-					((HalClientThread)clients.get(i)).sendMessage("* You have been kicked by the server.");
-					((HalClientThread)clients.get(i)).disconnect();
-					sendMessage("User  " + user + "  has been kicked from the server.");
-					break;
-				}
-
-				sendMessage("Cannot find user: " + user);
-			}
-		}
-	}
-
-	/**
-	 * Return a String containing a formatted list of all users connected.
-	 * 
-	 * @return   String   A formatted list of all users connected.
-	 */
-	public String listUsers()
-	{
-		String usersString = "There are " + clients.size() + " users connected: ";
-
-		synchronized(clients)
-		{
-			for(int i = 0; i < clients.size(); i++)
-			{
-				if(i > 0)
-					usersString += ", ";
-
-				usersString += ((HalClientThread)clients.get(i)).getUserId();
-			}
-		}
-
-		return usersString;
-	}
-
-	/**
-	 * Read the message of the day file. Whatever is contained inside this file will
-	 * be posted for users to see right as they log in.
-	 * 
-	 * @param  motdString  A String representing the location of the motd file.
-	 */
-	public void readMotdFile(String motdString)
-	{
-		BufferedReader in = null;
-		String input = null;
-		File motdFile = null;
-
-		try
-		{
-			motdFile = new File(motdString);
-			in = new BufferedReader(new FileReader(motdFile));
-
-			for(int i = 0; (input = in.readLine()) != null; i++)
-				motd.append(input);
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Error reading MOTD file: " + motdFile.getPath());
-			System.err.println("*** Exception: " + e.getMessage());
-		}
-		finally
-		{
-			try
-			{
-				if(in != null)
-				{
-					in.close();
-					in = null;
-				}
-			}
-			catch(Exception e){}
-		}
-	}
-
-	/**
-	 * Read the filtered words file. There should be one line inside this file of comma
-	 * delimited words. ie: "damn,crap,poop". Any words in this list will be filtered
-	 * out of all messages during chatting.
-	 * 
-	 * @param  filterString  A String representing the location of the filter file.
-	 */
-	public void readFilterFile(String filterString)
-	{
-		BufferedReader in = null;
-		String input = null;
-		File filterFile = null;
-
-		try
-		{
-			filterFile = new File(filterString);
-			in = new BufferedReader(new FileReader(filterFile));
-
-			input = in.readLine();
-			filteredWords = input.split(",");
-
-			for(int i = 0; i < filteredWords.length; i++)
-				filteredWords[i] = filteredWords[i].trim();
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Error reading filter file: " + filterFile.getPath());
-			System.err.println("*** Exception: " + e.getMessage());
-		}
-		finally
-		{
-			try
-			{
-				if(in != null)
-				{
-					in.close();
-					in = null;
-				}
-			}
-			catch(Exception e){}
-		}
-
-		langFilter = true;
-	}
-
-	/**
-	 * Disconnect all clients. This method is called right before the server shuts down
-	 * to try and ensure that all clients are notified of the shutdown and get a clean
-	 * disconnection.
-	 */
-	public void disconnectClients()
-	{
-		//send a disconnect message to all clients that are connected
-		try
-		{
-			synchronized(clients)
-			{
-				while(clients.size() > 0)
-				{
-					((HalClientThread)clients.get(0)).sendMessage("* Server is shutting down! *");
-					((HalClientThread)clients.get(0)).disconnect();
-					clients.trimToSize();
-				}
-			}
-		}
-		catch(Exception e)
-		{
-			System.err.println("*** Exception: " + e.getMessage());
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Shuts down the server. Disconnects all users and stops the Listener thread.
-	 */
-	public void shutdown()
-	{
-		disconnectClients();
-
-		//shutdown local input stream
-		try
-		{
-			if(in != null)
-			{
-				in.close();
-				in = null;
-			}
-		}
-		catch(Exception e){}
-		
-		//shutdown server if it is listening
-		try
-		{
-			if(listener != null)
-			{
-				listener.halt();
-				listener = null;
-			}
-		}
-		catch(Exception e){}
-	}
-
-	/**
-	 * Checks messages for words that need to be filtered. Words that are filtered
-	 * are listed in the filter file that is specified by FILTER_FILE.
-	 * 
-	 * @param  message  Unfiltered message.
-	 * @param  String   Filtered message.
-	 */
-	public synchronized String filter(String message)
-	{
-		for(int i = 0; i < filteredWords.length; i++)
-		{
-			if(message.toLowerCase().indexOf(filteredWords[i]) != -1)
-			{
-				String blockString = "";
-				for(int j = 0; j < filteredWords[i].length(); j++)
-					blockString += "*";
-
-				message = message.replaceAll(filteredWords[i].toLowerCase(), blockString);	
-			}
-		}
-
-		return message;
-	}
-
-	/**
-	 * Outputs a message to the local server screen.
-	 * 
-	 * @param  message  Message to be displayed locally.
-	 */
-	public synchronized void sendMessage(String message)
-	{
-		System.out.println(message);
-	}
+import java.io.*;
+import java.net.*;
+import java.lang.reflect.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This is the main class for the Hal chat server. It starts the HalListener
+ * thread when the server is started and stops the thread when the server is
+ * stopped.
+ * 
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+public class HalServer extends Thread
+{
+	//Globals
+	private HalListener listener = null;
+	private BufferedReader in = null;
+	protected ConcurrentSkipListMap<Integer, HalConnection> clients = new ConcurrentSkipListMap<Integer, HalConnection>();
+	protected ConcurrentHashMap<String, HalConnection> users = new ConcurrentHashMap<String, HalConnection>();
+	protected HalRoster roster = new HalRoster();
+	protected final ConcurrentHashMap<String, HalRoom> rooms = new ConcurrentHashMap<String, HalRoom>();
+	protected HalRoom lobby = null;
+	protected HalHistory history = null;
+	protected int usersPageSize = 0;
+	protected int replayLength = 0;
+	protected int replayBytes = 0;
+	protected final AtomicReference<String> motd = new AtomicReference<String>("");
+	protected final AtomicReference<HalFilter> languageFilter = new AtomicReference<HalFilter>(null);
+	protected HalReloader reloader = null;
+	protected Properties configs = new Properties();
+	protected String configFile = "serverconfig.txt";
+	protected String engine = "blocking";
+	protected int port = 0;
+	protected final LinkedHashMap<String, HalCommand> commands = new LinkedHashMap<String, HalCommand>();
+	private final AtomicInteger nextClientId = new AtomicInteger(0);
+	protected HalFramePool frames = null;
+	protected HalMetrics metrics = null;
+	protected HalLog log = null;
+	protected volatile HalFederation federation = null;
+	protected HalTimerWheel timers = null;
+	protected long heartbeatMillis = 0;
+	protected long heartbeatTimeoutMillis = 0;
+	protected long idleTimeoutMillis = 0;
+	protected final AtomicLong reapedClients = new AtomicLong(0);
+	protected final AtomicLong rateLimitedMessages = new AtomicLong(0);
+	protected final AtomicLong throttledClients = new AtomicLong(0);
+	protected final AtomicLong evictedClients = new AtomicLong(0);
+	protected final AtomicLong droppedFrames = new AtomicLong(0);
+	protected volatile int maxClients = 0;
+	protected final AtomicInteger admittedClients = new AtomicInteger(0);
+	protected final AtomicLong rejectedClients = new AtomicLong(0);
+	protected volatile int maxPendingLogins = 0;
+	protected final AtomicInteger pendingLogins = new AtomicInteger(0);
+	protected long loginTimeoutMillis = 0;
+	protected final AtomicLong timedOutLogins = new AtomicLong(0);
+
+	//Constants
+	protected final String MOTD_FILE = "motd.txt";
+	protected final String FILTER_FILE = "filter.txt";
+	protected final String VERSION = "0.1";
+	protected final int DEFAULT_PORT = 4545;
+	protected final int DEFAULT_MAX_CLIENTS = 8;
+	protected final int DEFAULT_MAX_PENDING_LOGINS = 32;
+	protected final int DEFAULT_LOGIN_TIMEOUT_SECONDS = 30;
+	protected final int MAX_NAME_LENGTH = 12;
+	protected final int MAX_ROOM_NAME_LENGTH = 20;
+	protected final String LOBBY = "lobby";
+	protected final int DEFAULT_HISTORY_SEGMENT_BYTES = 8388608;
+	protected final int DEFAULT_HISTORY_SEGMENT_MINUTES = 60;
+	protected final int DEFAULT_HISTORY_MAX_SEGMENTS = 24;
+	protected final int DEFAULT_HISTORY_QUEUE_SIZE = 65536;
+	protected final int HISTORY_REPLAY_LENGTH = 20;
+	protected final int MAX_HISTORY_REPLAY_LENGTH = 50;
+	protected final int HISTORY_SEARCH_WINDOW = 5000;
+	protected final int DEFAULT_FRAME_POOL_SIZE = 4096;
+	protected final int DEFAULT_USERS_PAGE_SIZE = 50;
+	protected final int DEFAULT_REPLAY_LENGTH = 20;
+	protected final int DEFAULT_REPLAY_BYTES = 8192;
+	protected final int DEFAULT_PEER_BATCH_MILLIS = 0;
+	protected final int DEFAULT_HEARTBEAT_SECONDS = 60;
+	protected final int DEFAULT_HEARTBEAT_TIMEOUT_SECONDS = 30;
+	protected final int DEFAULT_IDLE_TIMEOUT_MINUTES = 0;
+	protected final int TIMER_TICK_MILLIS = 100;
+	protected final int TIMER_WHEEL_SIZE = 512;
+	protected final int DEFAULT_RATE_LIMIT_MESSAGES = 10;
+	protected final int DEFAULT_RATE_LIMIT_MESSAGE_BURST = 20;
+	protected final int DEFAULT_RATE_LIMIT_BYTES = 4096;
+	protected final int DEFAULT_RATE_LIMIT_BYTE_BURST = 16384;
+	protected final String NEW_LINE = System.getProperty("line.separator");
+	protected final Charset CHARSET = Charset.forName("UTF-8");
+	protected final int LOG_RING_SIZE = 8192;
+	protected final int DEFAULT_LOG_FILE_BYTES = 10485760;
+	protected final int DEFAULT_LOG_FILES = 5;
+	protected final int RELOAD_QUIET_MILLIS = 200;
+
+	/**
+	 * The class constructor.
+	 */
+	public HalServer()
+	{
+		log = new HalLog(LOG_RING_SIZE);
+		frames = new HalFramePool(DEFAULT_FRAME_POOL_SIZE);
+		metrics = new HalMetrics(this);
+		timers = new HalTimerWheel(TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE, log);
+		port = DEFAULT_PORT;
+		maxClients = DEFAULT_MAX_CLIENTS;
+		maxPendingLogins = DEFAULT_MAX_PENDING_LOGINS;
+		usersPageSize = DEFAULT_USERS_PAGE_SIZE;
+		replayLength = DEFAULT_REPLAY_LENGTH;
+		replayBytes = DEFAULT_REPLAY_BYTES;
+		lobby = new HalRoom(LOBBY, true, replayLength, replayBytes);
+		rooms.put(roomKey(LOBBY), lobby);
+
+		registerCommands();
+	}
+
+	/**
+	 * Starts the main thread.
+	 * 
+	 * @param  args[0]  Location of the config file. Optional, defaults to "serverconfig.txt".
+	 */
+	public static void main(String[] args)
+	{
+		HalServer server = new HalServer();
+
+		if(args.length > 0)
+			server.configFile = args[0];
+
+		server.start();
+	}
+
+	/**
+	 * Initializes and starts the server terminal. The server automatically
+	 * starts listening on the default port when the server program is started
+	 * as well.
+	 */
+	public void start()
+	{
+		sendMessage("Initializing...");
+
+		String input = "";
+
+		//retrieve the server settings from the location configFile
+		sendMessage("Retrieving server settings from file: " + configFile);
+		if(new File(configFile).exists())
+			readConfigFile(configFile);
+
+		//everything logged so far waits in the log until it knows where to write
+		openLog();
+
+		engine = configs.getProperty("Engine", engine).trim().toLowerCase();
+		port = getConfig("Port", DEFAULT_PORT);
+		frames = new HalFramePool(getConfig("FramePoolSize", DEFAULT_FRAME_POOL_SIZE));
+		maxClients = getConfig("MaxClients", DEFAULT_MAX_CLIENTS);
+		maxPendingLogins = getConfig("MaxPendingLogins", DEFAULT_MAX_PENDING_LOGINS);
+		loginTimeoutMillis = getConfig("LoginTimeoutSeconds", DEFAULT_LOGIN_TIMEOUT_SECONDS) * 1000L;
+		usersPageSize = Math.max(getConfig("UsersPageSize", DEFAULT_USERS_PAGE_SIZE), 1);
+		replayLength = getConfig("ReplayLength", DEFAULT_REPLAY_LENGTH);
+		replayBytes = getConfig("ReplayBytes", DEFAULT_REPLAY_BYTES);
+		heartbeatMillis = getConfig("HeartbeatSeconds", DEFAULT_HEARTBEAT_SECONDS) * 1000L;
+		heartbeatTimeoutMillis = getConfig("HeartbeatTimeoutSeconds", DEFAULT_HEARTBEAT_TIMEOUT_SECONDS) * 1000L;
+		idleTimeoutMillis = getConfig("IdleTimeoutMinutes", DEFAULT_IDLE_TIMEOUT_MINUTES) * 60000L;
+
+		//nobody has joined yet, so the lobby can be replaced with one using the configured replay sizes
+		lobby = new HalRoom(LOBBY, true, replayLength, replayBytes);
+		rooms.put(roomKey(LOBBY), lobby);
+		sendMessage("Using connection engine: " + engine);
+
+		//retrieve the login message from the location MOTD_FILE and the list of filtered
+		//words from the location FILTER_FILE, and again whenever either file changes
+		sendMessage("Retrieving MOTD data from file: " + MOTD_FILE);
+		sendMessage("Retrieving filtered words from file: " + FILTER_FILE);
+		reloader = new HalReloader(this, RELOAD_QUIET_MILLIS);
+		reloader.watch(MOTD_FILE, new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return readMotdFile(MOTD_FILE);
+			}
+		});
+		reloader.watch(FILTER_FILE, new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return readFilterFile(FILTER_FILE);
+			}
+		});
+		reloader.reloadAll();
+		reloader.start();
+
+		//publish the metrics so that they can be watched through JMX
+		metrics.register();
+
+		//one thread runs the heartbeat of every client
+		timers.start();
+
+		//keep the chat history in the directory HistoryDirectory, unless it is blank
+		String historyDirectory = configs.getProperty("HistoryDirectory", "history").trim();
+		if(!historyDirectory.equals(""))
+			openHistory(new File(historyDirectory));
+
+		//link to the other nodes of a federation, if this server is one of them
+		int peerPort = getConfig("PeerPort", 0);
+		String peers = configs.getProperty("Peers", "").trim();
+		if(peerPort > 0 || !peers.equals(""))
+			openFederation(peerPort, peers);
+
+		try
+		{
+			//start the server 
+			startServer(port);
+
+			//open a stream to listen to the local terminal input
+			in = new BufferedReader(new InputStreamReader(System.in));
+
+			//while the input is not "exit", listen for input and respond appropriately
+			while(!input.equalsIgnoreCase("exit"))
+			{
+				log.flush();
+				System.out.print("> ");
+				input = (in.readLine()).trim();
+
+				//start the server
+				if(input.toLowerCase().startsWith("start"))
+				{
+					int startPort = port;
+
+					try
+					{
+						startPort = Integer.parseInt(input.substring(input.indexOf(" "), input.length()).trim());
+					}
+					catch(Exception e){}
+
+					startServer(startPort);
+				}
+				//stop the server
+				else if(input.equalsIgnoreCase("stop"))
+				{
+					if(listener != null)
+					{
+						listener.halt();
+						listener = null;
+					}
+					else
+						sendMessage("Server is not running!");
+
+					disconnectClients();
+				}
+				//display the server status
+				else if(input.equalsIgnoreCase("status"))
+				{
+					if(listener == null)
+						sendMessage("Server is currently not running.");
+					else
+						listener.printStatus();
+				}
+				//read the MOTD and filter files again, without waiting for them to change
+				else if(input.equalsIgnoreCase("reload"))
+				{
+					reloader.reloadAll();
+					sendMessage("Files: " + reloader);
+				}
+				//display the message counts, timings and queue depths
+				else if(input.equalsIgnoreCase("stats"))
+				{
+					for(String line : metrics.report())
+						sendMessage(line);
+				}
+				//forget the timings recorded so far
+				else if(input.equalsIgnoreCase("stats reset"))
+				{
+					metrics.resetTimes();
+					sendMessage("Timings have been reset.");
+				}
+				//list the users currently connected to the server
+				else if(input.equalsIgnoreCase("users"))
+				{
+					sendMessage(listUsers());
+				}
+				//show messages from the chat history, ie: "history 5000 20"
+				else if(input.toLowerCase().startsWith("history"))
+				{
+					HalHistory history = this.history;
+
+					if(history == null)
+						sendMessage("History is not being kept.");
+					else
+					{
+						try
+						{
+							String[] parts = input.trim().split(" +");
+							int count = parts.length > 2 ? Integer.parseInt(parts[2]) : HISTORY_REPLAY_LENGTH;
+							long from = parts.length > 1 ? Long.parseLong(parts[1]) : history.getNextSequence() - count;
+
+							for(HalHistory.Entry entry : history.read(from, count, null))
+								sendMessage(entry.toString());
+
+							sendMessage("History: " + history);
+						}
+						catch(NumberFormatException nfe)
+						{
+							sendMessage("Correct usage: history [first message number] [number of messages]");
+						}
+					}
+				}
+				//broadcast a message to all users connected
+				else if(input.toLowerCase().startsWith("message"))
+				{
+					String message = null;
+
+					try
+					{
+						message = input.substring(input.indexOf(" "), input.length()).trim();
+						broadcast("* Server: " + message + " *");
+						sendMessage("Message sent to all clients.");
+					}
+					catch(Exception e)
+					{
+						sendMessage("Correct usage: message <message to be sent>");
+					}
+				}
+				//show or change the maximum number of clients
+				else if(input.toLowerCase().startsWith("capacity"))
+				{
+					try
+					{
+						if(input.indexOf(" ") != -1)
+						{
+							int capacity = Integer.parseInt(input.substring(input.indexOf(" "), input.length()).trim());
+
+							if(capacity < 0)
+								throw new NumberFormatException();
+
+							maxClients = capacity;
+						}
+
+						sendMessage(getCapacity());
+					}
+					catch(Exception e)
+					{
+						sendMessage("Correct usage: capacity <maximum number of clients>");
+					}
+				}
+				//kick a user, specified by name
+				else if(input.toLowerCase().startsWith("kick"))
+				{
+					String user = null;
+
+					try
+					{
+						user = input.substring(input.indexOf(" "), input.length()).trim();
+
+						kick(user);
+					}
+					catch(Exception e)
+					{
+						sendMessage("Correct usage: kick <username to be kicked>");
+					}
+				}
+				//break out of the loop
+				else if(input.equalsIgnoreCase("exit"))
+				{
+					break;
+				}
+				//unrecognized command
+				else
+				{
+					sendMessage("Commands: start, stop, status, stats, users, history, message, capacity, kick, reload, exit");
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			log.error("Exception: " + e.getMessage(), e);
+		}
+		finally
+		{
+			shutdown();
+			sendMessage("Exiting...");
+			log.close();
+		}
+	}
+
+	/**
+	 * Start the server by starting the HalListener thread.
+	 * 
+	 * @param  port  Port number to start the server listening on.
+	 */
+	public void startServer(int port)
+	{
+		try
+		{
+			sendMessage("Starting server...");
+
+			if(listener == null)
+			{
+				if(engine.equals("nio"))
+					listener = new HalNioListener(this, port);
+				else
+					listener = new HalListener(this, port);
+
+				listener.start();
+			}
+			else
+				sendMessage("Server is already running!");
+		}
+		catch(Exception e)
+		{
+			log.error("Error starting server on port: " + port, e);
+		}
+	}
+
+	/**
+	 * Create the executor that client sessions are run on. The "virtual" engine runs
+	 * every session on its own virtual thread when the JVM supports them, otherwise
+	 * sessions are run on platform threads.
+	 * 
+	 * @return  ExecutorService  The executor to run client sessions on.
+	 */
+	public ExecutorService newSessionExecutor()
+	{
+		if(engine.equals("virtual"))
+		{
+			try
+			{
+				//looked up by name so that the server still runs on JVMs without virtual threads
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService)factory.invoke(null);
+			}
+			catch(Exception e)
+			{
+				sendMessage("Virtual threads are not supported by this JVM, using platform threads.");
+			}
+		}
+
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Register the commands that clients can type. Valid client commands are "/users,
+	 * /whisper, /join, /leave, /rooms, /help, /exit".
+	 */
+	private void registerCommands()
+	{
+		//send a page of the users in the room to the client who requested it
+		registerCommand(new HalCommand("users", "/users [name] [page]")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				sendRoster(client, findUsers(client.getRoom(), args));
+			}
+		});
+
+		//attempt to send a whispered message to the destination client requested
+		registerCommand(new HalCommand("whisper", "/whisper <username> <message>")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				int space = args.indexOf(" ");
+
+				if(space == -1)
+				{
+					client.sendMessage("* Correct usage: " + getUsage());
+					return;
+				}
+
+				whisper(client, args.substring(0, space), args.substring(space + 1).trim());
+			}
+		});
+
+		//move the client to another room, opening it if nobody is in it yet
+		registerCommand(new HalCommand("join", "/join <room>")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				if(args.equals("") || args.indexOf(" ") != -1)
+					client.sendMessage("* Correct usage: " + getUsage());
+				else if(args.length() > MAX_ROOM_NAME_LENGTH)
+					client.sendMessage("* Room name must be between 1 and " + MAX_ROOM_NAME_LENGTH + " characters long.");
+				else if(isFiltered(args))
+					client.sendMessage("* Please choose a less vulgar room name.");
+				else
+					joinRoom(client, args);
+			}
+		});
+
+		//move the client back to the lobby
+		registerCommand(new HalCommand("leave", "/leave")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				joinRoom(client, LOBBY);
+			}
+		});
+
+		//send the client the latest messages from the history of their room
+		registerCommand(new HalCommand("history", "/history [count]")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				int count = HISTORY_REPLAY_LENGTH;
+
+				try
+				{
+					if(!args.equals(""))
+						count = Math.min(Math.max(Integer.parseInt(args), 1), MAX_HISTORY_REPLAY_LENGTH);
+				}
+				catch(NumberFormatException nfe)
+				{
+					client.sendMessage("* Correct usage: " + getUsage());
+					return;
+				}
+
+				if(history == null)
+				{
+					client.sendMessage("* History is not being kept.");
+					return;
+				}
+
+				HalRoom room = client.getRoom();
+				SimpleDateFormat time = new SimpleDateFormat("HH:mm");
+
+				client.sendMessage("* History of " + room.getName() + ":");
+
+				for(HalHistory.Entry entry : history.recent(room.getName(), count, HISTORY_SEARCH_WINDOW))
+					client.sendMessage(entry.getLine() + " (" + time.format(new Date(entry.time)) + ")");
+
+				client.sendMessage("* End of history.");
+			}
+		});
+
+		//send the client a list of the open rooms
+		registerCommand(new HalCommand("rooms", "/rooms")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				StringBuilder list = new StringBuilder("* Rooms:");
+				List<HalRoom> open = listRooms();
+
+				for(int i = 0; i < open.size(); i++)
+					list.append(i == 0 ? " " : ", ").append(open.get(i).getName()).append(" (").append(open.get(i).size()).append(")");
+
+				client.sendMessage(list.toString());
+			}
+		});
+
+		//disconnect the client
+		registerCommand(new HalCommand("exit", "/exit")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				client.disconnect();
+			}
+		});
+
+		//send the client a list of commands
+		registerCommand(new HalCommand("help", "/help")
+		{
+			void execute(HalServer server, HalConnection client, String args)
+			{
+				StringBuilder help = new StringBuilder("* Commands:");
+
+				for(HalCommand command : commands.values())
+					help.append(" ").append(command.getUsage());
+
+				client.sendMessage(help.toString());
+			}
+		});
+	}
+
+	/**
+	 * Register a command that clients can type. Commands must be registered before
+	 * the server starts listening.
+	 * 
+	 * @param  command  The command to register.
+	 */
+	public void registerCommand(HalCommand command)
+	{
+		commands.put(command.getName().toLowerCase(), command);
+	}
+
+	/**
+	 * Process client input. A line starting with the name of a registered command,
+	 * ie: "/whisper bob hi", runs that command and anything else is broadcast as a
+	 * normal message. The line is only split when it looks like a command, so plain
+	 * chat goes straight to broadcast(). No lock is held, so input from different
+	 * clients is processed at the same time.
+	 * 
+	 * @param   client   The client having its input processed.
+	 * @param   input    The input being processed.
+	 */
+	public void processInput(HalConnection client, String input)
+	{
+		metrics.messagesIn.increment();
+
+		if(input.length() > 1 && input.charAt(0) == '/')
+		{
+			int space = input.indexOf(' ');
+			HalCommand command = commands.get((space == -1 ? input.substring(1) : input.substring(1, space)).toLowerCase());
+
+			if(command != null)
+			{
+				command.execute(this, client, space == -1 ? "" : input.substring(space + 1).trim());
+				return;
+			}
+		}
+
+		broadcast(client, input);
+	}
+
+	/**
+	 * Process a message a client sent using the binary protocol. A CHAT frame holds
+	 * a line exactly as the user typed it, so it is handled like a line of text. A
+	 * WHISPER frame already names who it is for, so it goes straight to them.
+	 * 
+	 * @param   client   The client having its input processed.
+	 * @param   message  The message being processed.
+	 */
+	public void processMessage(HalConnection client, HalProtocol.Message message)
+	{
+		if(message.kind == HalProtocol.WHISPER)
+		{
+			metrics.messagesIn.increment();
+			whisper(client, message.name, message.text.trim());
+			return;
+		}
+
+		String input = message.text.trim();
+
+		if(!input.equals(""))
+			processInput(client, input);
+	}
+
+	/**
+	 * Send a message to one user only. The sender is shown what they whispered, or
+	 * told that nobody is using that name. A whisper to a user of another node is
+	 * passed on to that node.
+	 * 
+	 * @param   client   The client whispering.
+	 * @param   user     The name of the user being whispered to.
+	 * @param   message  The message being whispered.
+	 */
+	public void whisper(HalConnection client, String user, String message)
+	{
+		HalConnection destination = findUser(user);
+
+		if(destination != null)
+		{
+			if(!isRemote(destination))
+				deliver(Collections.singletonList(destination), HalProtocol.WHISPER, client, message, true);
+			else if(!isRemote(client))
+				federation.whisper(client, (HalRemoteUser)destination, message);
+
+			client.sendMessage("To " + destination.getUserId() + " (whispered): " + message);
+		}
+		else
+			client.sendMessage("* Cannot find user: " + user);
+	}
+
+	/**
+	 * Broadcast a message to everyone in the senders room and label it as being from the
+	 * client who sent it. If the language filter is on then filter the message before it
+	 * is sent out. Each client only queues the message, so a slow client never holds up
+	 * the broadcast. The message is formatted and encoded once for each protocol in use
+	 * and the same frame is queued for every member. Room traffic is not essential, so it
+	 * may be skipped for clients that are not keeping up. Messages from clients of this
+	 * server are passed on to the other nodes of the federation.
+	 * 
+	 * @param   client   The client who sent this message.
+	 * @param   message  The message to be broadcast.
+	 */
+	public void broadcast(HalConnection client, String message)
+	{
+		HalRoom room = client.getRoom();
+
+		if(room == null)
+			return;
+
+		message = filter(message);
+
+		room.countMessage();
+
+		//the message is published before it is sent, so a user joining now either has it replayed or is sent it live, exactly once
+		HalReplayBuffer.Entry recent = room.replay.add(HalProtocol.CHAT, client.getId(), client.getUserId(), message);
+
+		if(federation != null && !isRemote(client))
+			federation.relayChat(client, room, message);
+
+		long start = System.nanoTime();
+		deliver(room.getMembers(), HalProtocol.CHAT, client, message, false, room, recent);
+		metrics.broadcastTimes.recordSince(start);
+		record(HalProtocol.CHAT, room, client, message);
+	}
+
+	/**
+	 * Broadcast a message to all clients in every room but dont label it as being from any user or source. If
+	 * the language filter is on then filter the message before it is sent out. Each client
+	 * only queues the message, so a slow client never holds up the broadcast. Room traffic
+	 * is not essential, so it may be skipped for clients that are not keeping up. The
+	 * message is sent to every node of the federation as well.
+	 * 
+	 * @param   message  The message to be sent.
+	 */
+	public void broadcast(String message)
+	{
+		message = filter(message);
+
+		if(federation != null)
+			federation.relaySystem(message);
+
+		announce(message);
+	}
+
+	/**
+	 * Send a message from the server to the clients of this server only, without
+	 * filtering it.
+	 * 
+	 * @param   message  The message to be sent.
+	 */
+	public void announce(String message)
+	{
+		long start = System.nanoTime();
+		deliver(clients.values(), HalProtocol.SYSTEM, null, message, false);
+		metrics.broadcastTimes.recordSince(start);
+		record(HalProtocol.SYSTEM, null, null, message);
+	}
+
+	/**
+	 * Add a message to the chat history, if it is being kept. The message is only
+	 * queued, so this never waits on the disk.
+	 * 
+	 * @param   kind     The kind of message, ie: HalProtocol.CHAT.
+	 * @param   room     The room the message was sent to, or null if it went to every room.
+	 * @param   sender   The client the message is about, or null if it is from the server.
+	 * @param   message  The text of the message, or null if the kind has none.
+	 */
+	private void record(int kind, HalRoom room, HalConnection sender, String message)
+	{
+		HalHistory history = this.history;
+
+		if(history != null)
+			history.append(kind, room == null ? "" : room.getName(), sender == null ? "" : sender.getUserId(), message == null ? "" : message);
+	}
+
+	/**
+	 * Start the server log writing, at the level set by LogLevel. Messages are also
+	 * written to LogFile, unless it is blank, which is rotated once it is larger than
+	 * LogFileBytes with LogFiles old files kept.
+	 */
+	public void openLog()
+	{
+		log.level = HalLog.parseLevel(configs.getProperty("LogLevel", "info"));
+
+		String logFile = configs.getProperty("LogFile", "").trim();
+		if(!logFile.equals(""))
+			log.setFile(new File(logFile), getConfig("LogFileBytes", DEFAULT_LOG_FILE_BYTES), getConfig("LogFiles", DEFAULT_LOG_FILES));
+
+		log.open();
+	}
+
+	/**
+	 * Open the chat history, reading any history left by an earlier run. If it cannot
+	 * be opened the server runs without keeping history.
+	 * 
+	 * @param   directory  The directory the history is kept in.
+	 */
+	public void openHistory(File directory)
+	{
+		sendMessage("Keeping chat history in directory: " + directory);
+
+		HalHistory opened = new HalHistory(directory,
+			getConfig("HistorySegmentBytes", DEFAULT_HISTORY_SEGMENT_BYTES),
+			getConfig("HistorySegmentMinutes", DEFAULT_HISTORY_SEGMENT_MINUTES),
+			getConfig("HistoryMaxSegments", DEFAULT_HISTORY_MAX_SEGMENTS),
+			getConfig("HistoryQueueSize", DEFAULT_HISTORY_QUEUE_SIZE),
+			log);
+
+		try
+		{
+			opened.open();
+			history = opened;
+		}
+		catch(Exception e)
+		{
+			log.error("Error opening chat history: " + directory, e);
+		}
+	}
+
+	/**
+	 * Start linking to the other nodes of a federation. If the peer port cannot be
+	 * opened the server runs on its own.
+	 * 
+	 * @param   peerPort  The port to accept links from other nodes on, or 0 to accept none.
+	 * @param   peers     The nodes to link to, ie: "10.0.0.2:4546,10.0.0.3:4546".
+	 */
+	public void openFederation(int peerPort, String peers)
+	{
+		String nodeName = configs.getProperty("NodeName", "").trim();
+		ArrayList<String> addresses = new ArrayList<String>();
+
+		for(String peer : peers.split(","))
+			if(!peer.trim().equals(""))
+				addresses.add(peer.trim());
+
+		try
+		{
+			if(nodeName.equals(""))
+				nodeName = InetAddress.getLocalHost().getHostName() + ":" + peerPort;
+
+			HalFederation opened = new HalFederation(this, nodeName, peerPort, addresses, getConfig("PeerBatchMillis", DEFAULT_PEER_BATCH_MILLIS));
+			opened.start();
+			federation = opened;
+			sendMessage("Joined federation as node " + nodeName + (peerPort > 0 ? ", accepting peers on port " + peerPort : ""));
+		}
+		catch(Exception e)
+		{
+			log.error("Error joining federation as node: " + nodeName, e);
+		}
+	}
+
+	/**
+	 * Queue a message for a group of clients. The message is encoded at most twice, once
+	 * as a line of text and once as a binary frame, and only if some client is using
+	 * that protocol. Clients that have not logged in yet are skipped, so nothing but
+	 * their own login prompts reaches them while they choose a protocol and a name.
+	 * Users of other nodes are skipped too, their own node sends them the message.
+	 * 
+	 * @param   recipients  The clients to send the message to.
+	 * @param   kind        The kind of message, ie: HalProtocol.CHAT.
+	 * @param   sender      The client the message is about, or null if it is from the server.
+	 * @param   message     The text of the message.
+	 * @param   essential   Whether the message must reach clients that are lagging.
+	 */
+	public void deliver(Collection<HalConnection> recipients, int kind, HalConnection sender, String message, boolean essential)
+	{
+		deliver(recipients, kind, sender, message, essential, null, null);
+	}
+
+	/**
+	 * Queue a message for a group of clients, as above, and keep the bytes it was
+	 * encoded as in the replay buffer of the room it was sent to. Members who had the
+	 * message replayed to them when they joined are not sent it again, and members
+	 * whose replay is still being queued are sent it after their replay.
+	 * 
+	 * @param   recipients  The clients to send the message to.
+	 * @param   kind        The kind of message, ie: HalProtocol.CHAT.
+	 * @param   sender      The client the message is about, or null if it is from the server.
+	 * @param   message     The text of the message.
+	 * @param   essential   Whether the message must reach clients that are lagging.
+	 * @param   room        The room the message was sent to, or null if it is not being kept.
+	 * @param   recent      The message in the replay buffer, or null if it is not being kept.
+	 */
+	public void deliver(Collection<HalConnection> recipients, int kind, HalConnection sender, String message, boolean essential, HalRoom room, HalReplayBuffer.Entry recent)
+	{
+		HalFrame text = null;
+		HalFrame binary = null;
+
+		for(HalConnection recipient : recipients)
+		{
+			if(recipient.getUserId() == null || isRemote(recipient))
+				continue;
+
+			HalFrame frame = null;
+
+			if(recipient.getProtocol() == HalProtocol.BINARY)
+			{
+				if(binary == null)
+				{
+					binary = encodeBinary(kind, sender, message);
+					binary.setEssential(essential);
+				}
+
+				frame = binary;
+			}
+			else
+			{
+				if(text == null)
+				{
+					text = encodeText(kind, sender, message);
+					text.setEssential(essential);
+				}
+
+				frame = text;
+			}
+
+			if(recent != null)
+			{
+				HalRoom.Join join = room.getJoin(recipient);
+
+				//a member still being sent their replay has the message held until it is queued
+				if(join != null && !join.admits(recent.sequence, frame))
+					continue;
+			}
+
+			recipient.sendFrame(frame);
+		}
+
+		if(text != null)
+		{
+			if(recent != null)
+				recent.setEncoded(HalProtocol.TEXT, text.toByteArray());
+
+			text.release();
+		}
+
+		if(binary != null)
+		{
+			if(recent != null)
+				recent.setEncoded(HalProtocol.BINARY, binary.toByteArray());
+
+			binary.release();
+		}
+	}
+
+	/**
+	 * Send a client the recent messages of a room that they have just joined, as one
+	 * frame so that they are written together. Messages are taken newest first until
+	 * the byte limit of the room is reached, and sent oldest first. A message that was
+	 * never encoded for the protocol of the client is encoded now and kept for the
+	 * next user who joins.
+	 * 
+	 * @param   client  The client that has joined.
+	 * @param   room    The room they have joined.
+	 * @param   before  The next sequence number of the replay buffer when they joined.
+	 */
+	public void replay(HalConnection client, HalRoom room, long before)
+	{
+		List<HalReplayBuffer.Entry> recent = room.replay.recent(before);
+		int protocol = client.getProtocol();
+		int bytes = 0;
+		int first = recent.size();
+
+		while(first > 0)
+		{
+			HalReplayBuffer.Entry entry = recent.get(first - 1);
+			byte[] encoded = entry.getEncoded(protocol);
+
+			if(encoded == null)
+			{
+				HalFrame frame = frames.acquire();
+
+				if(protocol == HalProtocol.BINARY)
+					appendBinary(frame, entry.kind, entry.sender, entry.name, entry.text);
+				else
+					appendText(frame, entry.kind, entry.name, entry.text);
+
+				encoded = frame.toByteArray();
+				frame.release();
+				entry.setEncoded(protocol, encoded);
+			}
+
+			if(bytes + encoded.length > room.replay.getMaxBytes())
+				break;
+
+			bytes += encoded.length;
+			first--;
+		}
+
+		if(first == recent.size())
+			return;
+
+		HalFrame frame = frames.acquire();
+
+		for(int i = first; i < recent.size(); i++)
+			frame.append(recent.get(i).getEncoded(protocol));
+
+		client.sendFrame(frame);
+		frame.release();
+	}
+
+	/**
+	 * Send one page of users to a client, as a ROSTER frame if it is using the binary
+	 * protocol or as a line of text otherwise.
+	 * 
+	 * @param   client  The client to send the page to.
+	 * @param   page    The page of users.
+	 */
+	public void sendRoster(HalConnection client, HalRoster.Page page)
+	{
+		if(client.getProtocol() != HalProtocol.BINARY)
+		{
+			client.sendMessage(page.toString());
+			return;
+		}
+
+		HalFrame frame = frames.acquire();
+		frame.appendInt(0);
+		frame.appendByte(HalProtocol.ROSTER);
+		frame.appendInt(0);
+		appendName(frame, page.match);
+		frame.appendInt(page.total);
+		frame.appendInt(page.page);
+		frame.appendInt(page.pages);
+
+		for(int i = 0; i < page.names.length; i++)
+		{
+			frame.appendInt(page.ids[i]);
+			appendName(frame, page.names[i]);
+		}
+
+		frame.setInt(0, frame.length() - 4);
+		client.sendFrame(frame);
+		frame.release();
+	}
+
+	/**
+	 * Send a client a PING, as a PING frame if it is using the binary protocol or as
+	 * a line of text otherwise.
+	 * 
+	 * @param  client  The client to ping.
+	 */
+	public void ping(HalConnection client)
+	{
+		HalFrame frame = client.getProtocol() == HalProtocol.BINARY ? encodeBinary(HalProtocol.PING, null, "") : encode(HalProtocol.PING_TEXT);
+		client.sendFrame(frame);
+		frame.release();
+	}
+
+	/**
+	 * Encode a message as a line of text ready to be queued for clients. The caller
+	 * holds a reference to the frame and must release it when it is done with it.
+	 * 
+	 * @param   message   The message to be encoded.
+	 * @return  HalFrame  The encoded message.
+	 */
+	public HalFrame encode(String message)
+	{
+		HalFrame frame = frames.acquire();
+		frame.append(message);
+		frame.append(NEW_LINE);
+
+		return frame;
+	}
+
+	/**
+	 * Encode a message from the server for a client using the given protocol. The
+	 * caller holds a reference to the frame and must release it when it is done with it.
+	 * 
+	 * @param   protocol  The protocol the client is using, ie: HalProtocol.BINARY.
+	 * @param   message   The message to be encoded.
+	 * @return  HalFrame  The encoded message.
+	 */
+	public HalFrame encode(int protocol, String message)
+	{
+		if(protocol == HalProtocol.BINARY)
+			return encodeBinary(HalProtocol.SYSTEM, null, message);
+
+		return encode(message);
+	}
+
+	/**
+	 * Encode a message as the line of text the text protocol uses for that kind of
+	 * message, ie: "bob: hello" for a CHAT from bob.
+	 * 
+	 * @param   kind      The kind of message, ie: HalProtocol.CHAT.
+	 * @param   sender    The client the message is about, or null if it is from the server.
+	 * @param   message   The text of the message.
+	 * @return  HalFrame  The encoded message.
+	 */
+	private HalFrame encodeText(int kind, HalConnection sender, String message)
+	{
+		HalFrame frame = frames.acquire();
+		appendText(frame, kind, sender == null ? null : sender.getUserId(), message);
+
+		return frame;
+	}
+
+	/**
+	 * Append a message to a frame as a line of text.
+	 * 
+	 * @param   frame    The frame being encoded.
+	 * @param   kind     The kind of message, ie: HalProtocol.CHAT.
+	 * @param   name     The name of the user the message is about, or null if it is from the server.
+	 * @param   message  The text of the message.
+	 */
+	private void appendText(HalFrame frame, int kind, String name, String message)
+	{
+		if(name != null)
+			frame.append(name);
+
+		switch(kind)
+		{
+			case HalProtocol.CHAT:
+				frame.append(": ");
+				frame.append(message);
+				break;
+			case HalProtocol.WHISPER:
+				frame.append(" (whispered): ");
+				frame.append(message);
+				break;
+			case HalProtocol.JOIN:
+				frame.append(" has entered the room.");
+				break;
+			case HalProtocol.LEAVE:
+				frame.append(" has left the room.");
+				break;
+			default:
+				frame.append(message);
+		}
+
+		frame.append(NEW_LINE);
+	}
+
+	/**
+	 * Encode a message as a binary frame. The length of the frame and of the name are
+	 * filled in once the rest has been encoded, so the text is only encoded once.
+	 * 
+	 * @param   kind      The kind of message, ie: HalProtocol.CHAT.
+	 * @param   sender    The client the message is about, or null if it is from the server.
+	 * @param   message   The text of the message, or null if the kind has none.
+	 * @return  HalFrame  The encoded message.
+	 */
+	private HalFrame encodeBinary(int kind, HalConnection sender, String message)
+	{
+		HalFrame frame = frames.acquire();
+		appendBinary(frame, kind, sender == null ? 0 : sender.getId(), sender == null ? null : sender.getUserId(), message);
+
+		return frame;
+	}
+
+	/**
+	 * Append a message to a frame as a binary frame, after whatever the frame holds already.
+	 * 
+	 * @param   frame    The frame being encoded.
+	 * @param   kind     The kind of message, ie: HalProtocol.CHAT.
+	 * @param   id       The id of the user the message is about, or 0 if it is from the server.
+	 * @param   name     The name of that user, or null if it is from the server.
+	 * @param   message  The text of the message, or null if the kind has none.
+	 */
+	private void appendBinary(HalFrame frame, int kind, int id, String name, String message)
+	{
+		int start = frame.length();
+		frame.appendInt(0);
+		frame.appendByte(kind);
+		frame.appendInt(id);
+		appendName(frame, name);
+
+		if(message != null)
+			frame.append(message);
+
+		frame.setInt(start, frame.length() - start - 4);
+	}
+
+	/**
+	 * Append a name to a binary frame, after the byte holding its length. A name
+	 * longer than HalProtocol.MAX_NAME_BYTES cannot be sent.
+	 * 
+	 * @param   frame  The frame being encoded.
+	 * @param   name   The name, or null for none.
+	 */
+	private void appendName(HalFrame frame, String name)
+	{
+		int start = frame.length();
+		frame.appendByte(0);
+
+		if(name != null)
+			frame.append(name);
+
+		int length = frame.length() - start - 1;
+
+		if(length > HalProtocol.MAX_NAME_BYTES)
+			throw new IllegalArgumentException("Name is too long: " + name);
+
+		frame.setByte(start, length);
+	}
+
+	/**
+	 * Cut a String short so that it fits in a number of bytes once encoded as UTF-8.
+	 * It is only cut between characters, never through the middle of one.
+	 * 
+	 * @param   text      The text.
+	 * @param   maxBytes  The most bytes the encoded text may take.
+	 * @return  String    The text, or as much of it as fits.
+	 */
+	private static String truncate(String text, int maxBytes)
+	{
+		int bytes = 0;
+
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			int size = 3;
+
+			if(c < 0x80)
+				size = 1;
+			else if(c < 0x800)
+				size = 2;
+			else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+				size = 4;
+
+			if(bytes + size > maxBytes)
+				return text.substring(0, i);
+
+			bytes += size;
+
+			if(size == 4)
+				i++;
+		}
+
+		return text;
+	}
+
+	/**
+	 * Kick a user out of the chat room. They are disconnected but can reconnect if they wish.
+	 * A user of another node is kicked by that node.
+	 * 
+	 * @param   user   The name of the user to be kicked.
+	 */
+	public void kick(String user)
+	{
+		HalConnection client = findUser(user);
+
+		if(client != null)
+		{
+			if(isRemote(client))
+				federation.kick((HalRemoteUser)client);
+			else
+			{
+				client.sendMessage("* You have been kicked by the server.");
+				client.disconnect();
+			}
+
+			sendMessage("User  " + user + "  has been kicked from the server.");
+		}
+		else
+			sendMessage("Cannot find user: " + user);
+	}
+
+	/**
+	 * Find a logged in user by name. Names are not case sensitive.
+	 * 
+	 * @param   user           The name of the user.
+	 * @return  HalConnection  The client using that name, or null if nobody is.
+	 */
+	public HalConnection findUser(String user)
+	{
+		HalConnection client = users.get(userKey(user));
+
+		//a client that has only just reserved its name is not logged in yet
+		if(client == null || client.getUserId() == null)
+			return null;
+
+		return client;
+	}
+
+	/**
+	 * Returns the key a name is stored under in the users map, so that names which
+	 * only differ by case are treated as the same name.
+	 * 
+	 * @param   user    The name of the user.
+	 * @return  String  The key for that name.
+	 */
+	protected String userKey(String user)
+	{
+		return user.toLowerCase();
+	}
+
+	/**
+	 * Return a String containing a formatted list of all users connected. The list is
+	 * only rebuilt when somebody has joined or left since it was last asked for.
+	 * 
+	 * @return   String   A formatted list of all users connected.
+	 */
+	public String listUsers()
+	{
+		return roster.snapshot().toString();
+	}
+
+	/**
+	 * Return one page of the users in a room, ie: "bob 2" for the second page of users
+	 * with "bob" in their name. Both parts are optional. The text is cut short if it
+	 * is too long to be sent back as a name in a ROSTER frame.
+	 * 
+	 * @param    room           The room to list the users of.
+	 * @param    query          The text to look for and the page to show.
+	 * @return   HalRoster.Page A page of users.
+	 */
+	public HalRoster.Page findUsers(HalRoom room, String query)
+	{
+		String match = query;
+		int page = 1;
+		int space = query.lastIndexOf(" ");
+
+		try
+		{
+			page = Integer.parseInt(query.substring(space + 1));
+			match = space == -1 ? "" : query.substring(0, space).trim();
+		}
+		catch(NumberFormatException e){}
+
+		match = truncate(match, HalProtocol.MAX_NAME_BYTES);
+
+		return room.roster.page(match.equals("") ? null : match, Math.max(page, 1), usersPageSize);
+	}
+
+	/**
+	 * Move a client into a room, opening the room if it is not open yet. The room they
+	 * were in is told that they have left and the new room that they have entered, and
+	 * the client is sent the first page of users in the new room. Other nodes are told
+	 * when a client of this server changes rooms.
+	 * 
+	 * @param   client  The client changing rooms.
+	 * @param   name    The name of the room, names are not case sensitive.
+	 */
+	public void joinRoom(HalConnection client, String name)
+	{
+		HalRoom current = client.getRoom();
+
+		if(current != null && roomKey(current.getName()).equals(roomKey(name)))
+		{
+			client.sendMessage("* You are already in " + current.getName() + ".");
+			return;
+		}
+
+		HalRoom room = null;
+		//messages sent to the room are held for the client until its replay has been queued
+		HalRoom.Join join = new HalRoom.Join();
+
+		//a room that closes just as it is found cannot be joined, so open a new one
+		do
+		{
+			room = rooms.get(roomKey(name));
+
+			if(room == null)
+			{
+				HalRoom opened = new HalRoom(name, false, replayLength, replayBytes);
+				room = rooms.putIfAbsent(roomKey(name), opened);
+
+				if(room == null)
+					room = opened;
+			}
+		}
+		while(!room.add(client, join));
+
+		long joined = room.replay.getNextSequence();
+		client.setRoom(room);
+
+		if(current != null)
+			leaveRoom(client, current);
+
+		//the client may have been removed while it was joining
+		if(!clients.containsKey(client.getId()))
+		{
+			leaveRoom(client, room);
+			join.replayed(null, joined);
+			return;
+		}
+
+		if(!isRemote(client))
+		{
+			client.sendMessage("* You have joined " + room.getName() + ".");
+			sendRoster(client, room.roster.firstPage(usersPageSize));
+			replay(client, room, joined);
+		}
+
+		join.replayed(client, joined);
+
+		deliver(room.getMembers(), HalProtocol.JOIN, client, null, false);
+		record(HalProtocol.JOIN, room, client, null);
+
+		if(federation != null && !isRemote(client))
+			federation.relayRoom(client, room);
+	}
+
+	/**
+	 * Take a client out of a room and tell the rest of the room that they have left.
+	 * The room is forgotten once it has closed. Clients that are not in the room are
+	 * ignored.
+	 * 
+	 * @param   client  The client leaving.
+	 * @param   room    The room they are leaving.
+	 */
+	private void leaveRoom(HalConnection client, HalRoom room)
+	{
+		if(!room.remove(client))
+			return;
+
+		if(room.isClosed())
+			rooms.remove(roomKey(room.getName()), room);
+		else
+			deliver(room.getMembers(), HalProtocol.LEAVE, client, null, false);
+
+		record(HalProtocol.LEAVE, room, client, null);
+	}
+
+	/**
+	 * Returns the open rooms, sorted by name.
+	 * 
+	 * @return  List<HalRoom>  The open rooms.
+	 */
+	public List<HalRoom> listRooms()
+	{
+		ArrayList<HalRoom> open = new ArrayList<HalRoom>(rooms.values());
+
+		Collections.sort(open, new Comparator<HalRoom>()
+		{
+			public int compare(HalRoom a, HalRoom b)
+			{
+				return a.getName().compareToIgnoreCase(b.getName());
+			}
+		});
+
+		return open;
+	}
+
+	/**
+	 * Returns the key a room is stored under in the rooms map, so that room names which
+	 * only differ by case are treated as the same room.
+	 * 
+	 * @param   name    The name of the room.
+	 * @return  String  The key for that name.
+	 */
+	private String roomKey(String name)
+	{
+		return name.toLowerCase();
+	}
+
+	/**
+	 * Check a requested login name. Every rule the name breaks is reported back to
+	 * the client so that they can pick a better one. If the name is valid it is
+	 * reserved for the client in the users map, so two clients logging in at the
+	 * same time can never both be given the same name. The name stays reserved
+	 * until the client is removed.
+	 * 
+	 * @param   client   The client trying to log in.
+	 * @param   name     The name the client would like to use.
+	 * @return  boolean  Whether or not the name was given to the client.
+	 */
+	public boolean validateUserId(HalConnection client, String name)
+	{
+		boolean valid = true;
+
+		if(name.trim().indexOf(" ") != -1)
+		{
+			client.sendMessage("Name cannot contain spaces. Please try another.");
+			valid = false;
+		}
+
+		if(name.length() > MAX_NAME_LENGTH || name.length() < 1)
+		{
+			client.sendMessage("Name must be between 1 and " + MAX_NAME_LENGTH + " characters long.");
+			valid = false;
+		}
+
+		if(isFiltered(name))
+		{
+			client.sendMessage("Please choose a less vulgar name.");
+			valid = false;
+		}
+
+		if(valid ? users.putIfAbsent(userKey(name), client) != null : users.containsKey(userKey(name)))
+		{
+			client.sendMessage("That name is already being used. Please try another.");
+			valid = false;
+		}
+
+		return valid;
+	}
+
+	/**
+	 * Add a client that has just logged in to the roster and the lobby, send them the
+	 * welcome sequence and let the rest of the lobby know that they have arrived. Users
+	 * of other nodes are added the same way but are not sent anything, and other nodes
+	 * are told about clients of this server.
+	 * 
+	 * @param  client  The client that has just logged in.
+	 */
+	public void welcome(HalConnection client)
+	{
+		boolean remote = isRemote(client);
+
+		if(!remote)
+		{
+			metrics.logins.increment();
+			metrics.loginTimes.recordSince(client.getConnectTime());
+		}
+
+		roster.add(client.getId(), client.getUserId());
+		//messages sent to the lobby are held for the client until its replay has been queued
+		HalRoom.Join join = new HalRoom.Join();
+		lobby.add(client, join);
+		long joined = lobby.replay.getNextSequence();
+		client.setRoom(lobby);
+
+		if(!remote)
+		{
+			client.sendMessage(HalProtocol.WELCOME_TEXT + client.getUserId() + "!");
+			client.sendMessage("");
+			client.sendMessage(motd.get());
+			client.sendMessage("");
+			//only the first page, so the greeting stays short in a crowded room
+			sendRoster(client, lobby.roster.firstPage(usersPageSize));
+			client.sendMessage("-----");
+			replay(client, lobby, joined);
+		}
+
+		join.replayed(client, joined);
+
+		deliver(lobby.getMembers(), HalProtocol.JOIN, client, null, false);
+		record(HalProtocol.JOIN, lobby, client, null);
+
+		if(federation != null && !remote)
+			federation.relayLogin(client);
+	}
+
+	/**
+	 * Add a client that has just connected to the clients map, unless too many
+	 * clients are already logging in. The client holds a pending login place until
+	 * its HalLogin gives it back, and only claims a place from the capacity once it
+	 * asks for a name. Both are claimed from their counters first, so no lock is
+	 * needed to keep the number of clients within the limits.
+	 * 
+	 * @param   client   The client that has connected.
+	 * @return  boolean  Whether or not there was room for the client to log in.
+	 */
+	public boolean addClient(HalConnection client)
+	{
+		if(!claim(pendingLogins, maxPendingLogins))
+			return false;
+
+		clients.put(client.getId(), client);
+		return true;
+	}
+
+	/**
+	 * Claim a place for a client that is logging in, unless the server is already
+	 * full. The place is given back with releaseClient().
+	 * 
+	 * @return  boolean  Whether or not there was room for the client.
+	 */
+	public boolean admitClient()
+	{
+		return claim(admittedClients, maxClients);
+	}
+
+	/**
+	 * Give back the place of a client that has logged out, or whose name was turned
+	 * down.
+	 */
+	public void releaseClient()
+	{
+		admittedClients.decrementAndGet();
+	}
+
+	/**
+	 * Add one to a counter, unless it has already reached its limit. Clients turned
+	 * away are counted.
+	 * 
+	 * @param   counter  The counter.
+	 * @param   limit    The limit.
+	 * @return  boolean  Whether or not the counter was below the limit.
+	 */
+	private boolean claim(AtomicInteger counter, int limit)
+	{
+		int count = 0;
+
+		do
+		{
+			count = counter.get();
+
+			if(count >= limit)
+			{
+				rejectedClients.incrementAndGet();
+				return false;
+			}
+		}
+		while(!counter.compareAndSet(count, count + 1));
+
+		return true;
+	}
+
+	/**
+	 * Return a String describing how full the server is.
+	 * 
+	 * @return  String  The current and maximum number of clients and clients logging in, and the number turned away.
+	 */
+	public String getCapacity()
+	{
+		return admittedClients.get() + "/" + maxClients + " clients, " + pendingLogins.get() + "/" + maxPendingLogins
+			+ " logging in, " + rejectedClients.get() + " rejected, " + timedOutLogins.get() + " timed out logging in";
+	}
+
+	/**
+	 * Remove a client from the clients map, free up its name and notify the rest of
+	 * its room that they have left. Clients that were never added are ignored. Other
+	 * nodes are told when a client of this server that held a name leaves.
+	 * 
+	 * @param  client  The client that has disconnected.
+	 */
+	public void removeClient(HalConnection client)
+	{
+		boolean named = client.getUserId() != null && users.remove(userKey(client.getUserId()), client);
+
+		roster.remove(client.getId());
+
+		//the place on the server is given back by the login of the client
+		clients.remove(client.getId(), client);
+
+		//sent after the client is gone from the clients map, so a node linking now either
+		//is told about the client when it links or is told here that they have left
+		if(named && federation != null && !isRemote(client))
+			federation.relayLogout(client);
+
+		//read after the client is gone from the clients map, so a room being joined at
+		//the same time is either seen here or noticed by joinRoom()
+		HalRoom room = client.getRoom();
+
+		if(room != null)
+			leaveRoom(client, room);
+	}
+
+	/**
+	 * Returns whether a client is a user of another node of the federation.
+	 * 
+	 * @param   client   The client.
+	 * @return  boolean  Whether or not the client is a HalRemoteUser.
+	 */
+	private boolean isRemote(HalConnection client)
+	{
+		return client instanceof HalRemoteUser;
+	}
+
+	/**
+	 * Returns a new id for a client that has just connected. Clients are kept in the
+	 * order of their ids, so the users list shows users in the order they arrived.
+	 * 
+	 * @return  int  The id for the new client.
+	 */
+	public int nextClientId()
+	{
+		return nextClientId.incrementAndGet();
+	}
+
+	/**
+	 * Returns an integer setting from the config file.
+	 * 
+	 * @param   key           The name of the setting.
+	 * @param   defaultValue  The value to use if the setting is missing or invalid.
+	 * @return  int           The value of the setting.
+	 */
+	public int getConfig(String key, int defaultValue)
+	{
+		try
+		{
+			return Integer.parseInt(configs.getProperty(key).trim());
+		}
+		catch(Exception e)
+		{
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Read the server configuration file. The file is a standard properties file,
+	 * ie: "Engine=nio". Any settings missing from the file keep their defaults.
+	 * 
+	 * @param  configString  A String representing the location of the config file.
+	 */
+	public void readConfigFile(String configString)
+	{
+		FileInputStream in = null;
+
+		try
+		{
+			in = new FileInputStream(configString);
+			configs.load(in);
+		}
+		catch(Exception e)
+		{
+			log.error("Error reading config file: " + configString, e);
+		}
+		finally
+		{
+			try
+			{
+				if(in != null)
+				{
+					in.close();
+					in = null;
+				}
+			}
+			catch(Exception e){}
+		}
+	}
+
+	/**
+	 * Read the message of the day file. Whatever is contained inside this file will
+	 * be posted for users to see right as they log in. The new message replaces the
+	 * old one in a single step, and the old one is kept if the file cannot be read.
+	 * Without the file a default message is used.
+	 * 
+	 * @param   motdString  A String representing the location of the motd file.
+	 * @return  boolean     Whether or not the message was replaced.
+	 */
+	public boolean readMotdFile(String motdString)
+	{
+		BufferedReader in = null;
+		String input = null;
+		File motdFile = new File(motdString);
+		StringBuffer text = new StringBuffer();
+
+		if(!motdFile.exists())
+		{
+			motd.set("Hal Server Beta " + VERSION);
+			return true;
+		}
+
+		try
+		{
+			in = new BufferedReader(new FileReader(motdFile));
+
+			for(int i = 0; (input = in.readLine()) != null; i++)
+				text.append(input);
+
+			motd.set(text.toString());
+			return true;
+		}
+		catch(Exception e)
+		{
+			log.error("Error reading MOTD file: " + motdFile.getPath(), e);
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				if(in != null)
+				{
+					in.close();
+					in = null;
+				}
+			}
+			catch(Exception e){}
+		}
+	}
+
+	/**
+	 * Read the filtered words file. There should be one line inside this file of comma
+	 * delimited words. ie: "damn,crap,poop". Any words in this list will be filtered
+	 * out of all messages during chatting. The new filter is built completely before
+	 * it replaces the old one in a single step, so a message being filtered at the
+	 * same time uses one or the other. The old filter is kept if the file cannot be
+	 * read, and without the file or any words nothing is filtered.
+	 * 
+	 * @param   filterString  A String representing the location of the filter file.
+	 * @return  boolean       Whether or not the filter was replaced.
+	 */
+	public boolean readFilterFile(String filterString)
+	{
+		BufferedReader in = null;
+		String input = null;
+		File filterFile = new File(filterString);
+
+		if(!filterFile.exists())
+		{
+			languageFilter.set(null);
+			return true;
+		}
+
+		try
+		{
+			in = new BufferedReader(new FileReader(filterFile));
+
+			input = in.readLine();
+			String[] filteredWords = input == null ? new String[0] : input.split(",");
+
+			for(int i = 0; i < filteredWords.length; i++)
+				filteredWords[i] = filteredWords[i].trim();
+
+			HalFilter filter = new HalFilter(filteredWords);
+			languageFilter.set(filter.getWordCount() == 0 ? null : filter);
+			return true;
+		}
+		catch(Exception e)
+		{
+			log.error("Error reading filter file: " + filterFile.getPath(), e);
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				if(in != null)
+				{
+					in.close();
+					in = null;
+				}
+			}
+			catch(Exception e){}
+		}
+	}
+
+	/**
+	 * Disconnect all clients. This method is called right before the server shuts down
+	 * to try and ensure that all clients are notified of the shutdown and get a clean
+	 * disconnection.
+	 */
+	public void disconnectClients()
+	{
+		//send a disconnect message to all clients that are connected
+		try
+		{
+			for(HalConnection client : clients.values())
+			{
+				//users of other nodes are forgotten when the links to their nodes close
+				if(isRemote(client))
+					continue;
+
+				client.sendMessage("* Server is shutting down! *");
+				client.disconnect();
+			}
+		}
+		catch(Exception e)
+		{
+			log.error("Exception: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Shuts down the server. Disconnects all users and stops the Listener thread.
+	 */
+	public void shutdown()
+	{
+		if(reloader != null)
+			reloader.stop();
+
+		//the other nodes forget the users of this server when the links close
+		if(federation != null)
+			federation.stop();
+
+		disconnectClients();
+		metrics.unregister();
+		timers.stop();
+
+		//write out whatever history is still waiting
+		if(history != null)
+			history.close();
+
+		//shutdown local input stream
+		try
+		{
+			if(in != null)
+			{
+				in.close();
+				in = null;
+			}
+		}
+		catch(Exception e){}
+		
+		//shutdown server if it is listening
+		try
+		{
+			if(listener != null)
+			{
+				listener.halt();
+				listener = null;
+			}
+		}
+		catch(Exception e){}
+	}
+
+	/**
+	 * Checks messages for words that need to be filtered. Words that are filtered
+	 * are listed in the filter file that is specified by FILTER_FILE. The words are
+	 * compiled into a HalFilter when the file is read, so no lock is needed here.
+	 * Messages are returned as they are when the language filter is off.
+	 * 
+	 * @param  message  Unfiltered message.
+	 * @param  String   Filtered message.
+	 */
+	public String filter(String message)
+	{
+		HalFilter languageFilter = this.languageFilter.get();
+
+		if(languageFilter == null)
+			return message;
+
+		long start = System.nanoTime();
+		String filtered = languageFilter.filter(message);
+		metrics.filterTimes.recordSince(start);
+
+		return filtered;
+	}
+
+	/**
+	 * Checks whether a name contains any filtered words.
+	 * 
+	 * @param   name     The name.
+	 * @return  boolean  Whether or not the name would be filtered, always false when the language filter is off.
+	 */
+	public boolean isFiltered(String name)
+	{
+		HalFilter languageFilter = this.languageFilter.get();
+
+		return languageFilter != null && languageFilter.matches(name);
+	}
+
+	/**
+	 * Outputs a message to the local server screen. The message is only queued on the
+	 * server log, so the calling thread never waits for the screen.
+	 * 
+	 * @param  message  Message to be displayed locally.
+	 */
+	public void sendMessage(String message)
+	{
+		log.info(message);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/**
+ * Describes how much output a client may have waiting before it is considered
+ * too slow, and what happens to it when it is. Every connection is given its
+ * own policy when it connects, built from the settings in the config file.
+ * <p><p>
+ *
+ * A client is lagging when it has more than maxMessages or maxBytes of output
+ * waiting, or when it has had output waiting for longer than maxStallMillis
+ * without any of it being written. New output for a lagging client is then
+ * handled according to the action:
+ * <ul>
+ * <li>DROP_OLDEST - the oldest waiting messages are thrown away to make room.</li>
+ * <li>SKIP - room traffic is thrown away, messages meant only for this client
+ *     are still queued.</li>
+ * <li>DISCONNECT - the client is told it is too slow and disconnected.</li>
+ * </ul>
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalSlowClientPolicy
+{
+	//Constants
+	static final int DROP_OLDEST = 0;
+	static final int SKIP = 1;
+	static final int DISCONNECT = 2;
+
+	//Globals
+	int maxMessages = 256;
+	int maxBytes = 1048576;
+	long maxStallMillis = 30000;
+	int action = DROP_OLDEST;
+
+	/**
+	 * Creates a policy from the server settings. Missing settings keep their defaults.
+	 *
+	 * @param   server               The server whose settings are used.
+	 * @return  HalSlowClientPolicy  The policy described by the settings.
+	 */
+	static HalSlowClientPolicy fromConfig(HalServer server)
+	{
+		HalSlowClientPolicy policy = new HalSlowClientPolicy();
+
+		policy.maxMessages = server.getConfig("OutboundQueueSize", policy.maxMessages);
+		policy.maxBytes = server.getConfig("OutboundQueueBytes", policy.maxBytes);
+		policy.maxStallMillis = server.getConfig("OutboundStallTimeout", (int)policy.maxStallMillis);
+		policy.action = parseAction(server.configs.getProperty("SlowClientAction", "drop-oldest"));
+
+		return policy;
+	}
+
+	/**
+	 * Returns the action named in the config file, ie: "drop-oldest", "skip" or "disconnect".
+	 *
+	 * @param   name  The name of the action.
+	 * @return  int   The action, or DROP_OLDEST if the name is not recognized.
+	 */
+	static int parseAction(String name)
+	{
+		name = name.trim();
+
+		if(name.equalsIgnoreCase("skip"))
+			return SKIP;
+		else if(name.equalsIgnoreCase("disconnect"))
+			return DISCONNECT;
+
+		return DROP_OLDEST;
+	}
+
+	/**
+	 * Returns the config file name of this policies action.
+	 *
+	 * @return  String  The name of the action.
+	 */
+	String getActionName()
+	{
+		if(action == SKIP)
+			return "skip";
+		else if(action == DISCONNECT)
+			return "disconnect";
+
+		return "drop-oldest";
+	}
+}
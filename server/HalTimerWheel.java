@@ -0,0 +1,291 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A hashed timer wheel that runs every timeout of the server from one thread. The
+ * wheel is a ring of slots, each holding a list of the timeouts that fall due when
+ * the wheel reaches it. Every tick the wheel moves on one slot and runs whatever in
+ * that slot is due, so scheduling and cancelling a timeout take the same time no
+ * matter how many are waiting, and a server with hundreds of thousands of clients
+ * still only has one timer thread.
+ * <p><p>
+ *
+ * A timeout further away than one turn of the wheel is put in the slot it falls in
+ * and counts down the turns left each time the wheel passes it. Timeouts are only
+ * as accurate as the tick, and run late rather than early.
+ * <p><p>
+ *
+ * Any thread may schedule or cancel a timeout. Both only add the timeout to a queue,
+ * and the wheel thread moves it in or out of its slot at the next tick, so the slots
+ * are never shared between threads. Tasks run on the wheel thread and must not
+ * block.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalTimerWheel implements Runnable
+{
+	//Globals
+	private final HalLog log;
+	private final long tickNanos;
+	private final Timeout[] slots;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger waiting = new AtomicInteger(0);
+	private final AtomicLong expired = new AtomicLong(0);
+	private volatile boolean running = false;
+	private Thread thread = null;
+	private long startTime = 0;
+	private long tick = 0;
+
+	/**
+	 * The class constructor.
+	 *
+	 * @param  tickMillis  How often the wheel moves on a slot, in milliseconds.
+	 * @param  size        The number of slots, rounded up to a power of two.
+	 * @param  log         The log that errors from tasks are reported to.
+	 */
+	HalTimerWheel(long tickMillis, int size, HalLog log)
+	{
+		this.log = log;
+		int slotCount = Integer.highestOneBit(Math.max(size, 1) - 1) << 1;
+
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(tickMillis, 1));
+		this.slots = new Timeout[Math.max(slotCount, 1)];
+		this.mask = slots.length - 1;
+	}
+
+	/**
+	 * Starts the wheel thread. Timeouts scheduled before the wheel is started wait
+	 * until it is.
+	 */
+	synchronized void start()
+	{
+		if(running)
+			return;
+
+		running = true;
+		startTime = System.nanoTime();
+		tick = 0;
+		thread = new Thread(this, "HalTimerWheel");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the wheel thread. Timeouts that have not run yet wait until the wheel is
+	 * started again.
+	 */
+	synchronized void stop()
+	{
+		running = false;
+
+		if(thread != null)
+			thread.interrupt();
+	}
+
+	/**
+	 * Schedules a task to run after a delay.
+	 *
+	 * @param   task          The task, which must not block.
+	 * @param   delayMillis   How long to wait, in milliseconds.
+	 * @return  Timeout       The timeout, which can be cancelled.
+	 */
+	Timeout schedule(Runnable task, long delayMillis)
+	{
+		Timeout timeout = new Timeout(this, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0)));
+
+		waiting.incrementAndGet();
+		scheduled.add(timeout);
+
+		return timeout;
+	}
+
+	/**
+	 * Moves the wheel on one slot every tick and runs the timeouts that are due.
+	 */
+	public void run()
+	{
+		while(running)
+		{
+			long sleep = startTime + (tick + 1) * tickNanos - System.nanoTime();
+
+			if(sleep > 0)
+			{
+				try
+				{
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				}
+				catch(InterruptedException ie){}
+
+				continue;
+			}
+
+			removeCancelled();
+			addScheduled();
+			expire((int)(tick & mask));
+			tick++;
+		}
+	}
+
+	/**
+	 * Puts every newly scheduled timeout in the slot it falls due in. A timeout that
+	 * is already due goes in the current slot.
+	 */
+	private void addScheduled()
+	{
+		Timeout timeout = null;
+		while((timeout = scheduled.poll()) != null)
+		{
+			if(timeout.state.get() != Timeout.WAITING)
+				continue;
+
+			long due = Math.max((timeout.deadline - startTime + tickNanos - 1) / tickNanos, tick);
+			int slot = (int)(due & mask);
+
+			timeout.rounds = (due - tick) / slots.length;
+			timeout.slot = slot;
+			timeout.next = slots[slot];
+
+			if(slots[slot] != null)
+				slots[slot].previous = timeout;
+
+			slots[slot] = timeout;
+		}
+	}
+
+	/**
+	 * Takes every cancelled timeout out of its slot.
+	 */
+	private void removeCancelled()
+	{
+		Timeout timeout = null;
+		while((timeout = cancelled.poll()) != null)
+			if(timeout.slot != -1)
+				unlink(timeout);
+	}
+
+	/**
+	 * Runs every timeout in a slot that is due, and counts down the turns left for
+	 * the rest.
+	 *
+	 * @param  slot  The slot the wheel has reached.
+	 */
+	private void expire(int slot)
+	{
+		Timeout timeout = slots[slot];
+
+		while(timeout != null)
+		{
+			Timeout next = timeout.next;
+
+			if(timeout.rounds > 0)
+				timeout.rounds--;
+			else
+			{
+				unlink(timeout);
+
+				if(timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED))
+				{
+					waiting.decrementAndGet();
+					expired.incrementAndGet();
+
+					try
+					{
+						timeout.task.run();
+					}
+					catch(Exception e)
+					{
+						log.error("Error running timer task: " + timeout.task, e);
+					}
+				}
+			}
+
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Takes a timeout out of its slot.
+	 *
+	 * @param  timeout  The timeout.
+	 */
+	private void unlink(Timeout timeout)
+	{
+		if(timeout.previous != null)
+			timeout.previous.next = timeout.next;
+		else
+			slots[timeout.slot] = timeout.next;
+
+		if(timeout.next != null)
+			timeout.next.previous = timeout.previous;
+
+		timeout.slot = -1;
+		timeout.next = null;
+		timeout.previous = null;
+	}
+
+	/**
+	 * Returns the number of timeouts waiting and run so far, ie: "1200 waiting, 56000 run, 512 slots of 100ms".
+	 *
+	 * @return  String  The status of the wheel.
+	 */
+	public String toString()
+	{
+		return waiting.get() + " waiting, " + expired.get() + " run, " + slots.length + " slots of "
+			+ TimeUnit.NANOSECONDS.toMillis(tickNanos) + "ms";
+	}
+
+	/**
+	 * A task waiting on the wheel. Only the wheel thread touches the slot, the turns
+	 * left and the links, the state is shared with the thread that cancels it.
+	 */
+	static class Timeout
+	{
+		//Constants
+		static final int WAITING = 0;
+		static final int CANCELLED = 1;
+		static final int EXPIRED = 2;
+
+		//Globals
+		private final HalTimerWheel wheel;
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private long rounds = 0;
+		private int slot = -1;
+		private Timeout next = null;
+		private Timeout previous = null;
+
+		/**
+		 * The class constructor.
+		 *
+		 * @param  wheel     The wheel the timeout is on.
+		 * @param  task      The task to run.
+		 * @param  deadline  When to run it, from System.nanoTime().
+		 */
+		Timeout(HalTimerWheel wheel, Runnable task, long deadline)
+		{
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the timeout, unless it has already run.
+		 *
+		 * @return  boolean  Whether or not the timeout was cancelled.
+		 */
+		boolean cancel()
+		{
+			if(!state.compareAndSet(WAITING, CANCELLED))
+				return false;
+
+			wheel.waiting.decrementAndGet();
+			wheel.cancelled.add(this);
+
+			return true;
+		}
+	}
+}
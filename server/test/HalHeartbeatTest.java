@@ -0,0 +1,148 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Heartbeats of clients using the text protocol, on both connection engines. A
+ * text client that has said it answers PINGs is pinged and reaped like a binary
+ * client when it goes quiet, and an older text client that has not is left alone.
+ *
+ * @author  Evan Lennick <eml0300@mail.widener.edu>
+ * @version 1.0
+ */
+class HalHeartbeatTest
+{
+	//Constants
+	private final long HEARTBEAT_MILLIS = 1000;
+	private final long HEARTBEAT_TIMEOUT_MILLIS = 1000;
+	private final long SLACK_MILLIS = 2000;
+
+	//Globals
+	private HalServer server = null;
+	private Socket socket = null;
+
+	@AfterEach
+	void tearDown() throws IOException
+	{
+		if(socket != null)
+			socket.close();
+
+		if(server != null)
+			server.shutdown();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"blocking", "nio"})
+	void silentClientThatAnswersPingsIsReaped(String engine) throws IOException
+	{
+		BufferedReader in = login(engine, "answers");
+
+		//say the client answers pings, then never answer one
+		send(HalProtocol.PONG_TEXT);
+		long start = System.currentTimeMillis();
+
+		assertEquals(HalProtocol.PING_TEXT, in.readLine());
+		assertEquals("* No answer to ping! You have been disconnected.", in.readLine());
+		assertNull(in.readLine());
+
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= HEARTBEAT_MILLIS + HEARTBEAT_TIMEOUT_MILLIS, "Reaped after " + elapsed + "ms");
+		assertTrue(elapsed < HEARTBEAT_MILLIS + HEARTBEAT_TIMEOUT_MILLIS + SLACK_MILLIS, "Reaped after " + elapsed + "ms");
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"blocking", "nio"})
+	void silentOlderClientIsNotPinged(String engine) throws IOException
+	{
+		BufferedReader in = login(engine, "older");
+
+		try
+		{
+			String line = in.readLine();
+			fail("Older client was sent: " + line);
+		}
+		catch(SocketTimeoutException ste){}
+	}
+
+	/**
+	 * Starts a server with a short heartbeat and logs a text client in to it. Reading
+	 * from the client times out once it has been quiet for long enough to be reaped.
+	 *
+	 * @param   engine          The connection engine, ie: "nio".
+	 * @param   name            The name to log in with.
+	 * @return  BufferedReader  What the server sends the client, after the welcome.
+	 */
+	private BufferedReader login(String engine, String name) throws IOException
+	{
+		ServerSocket free = new ServerSocket(0);
+		int port = free.getLocalPort();
+		free.close();
+
+		server = new HalServer();
+		server.engine = engine;
+		server.heartbeatMillis = HEARTBEAT_MILLIS;
+		server.heartbeatTimeoutMillis = HEARTBEAT_TIMEOUT_MILLIS;
+		server.timers.start();
+		server.startServer(port);
+
+		socket = connect(port);
+		socket.setSoTimeout((int)(HEARTBEAT_MILLIS + HEARTBEAT_TIMEOUT_MILLIS + SLACK_MILLIS));
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+		assertEquals("Login:", in.readLine());
+		send(name);
+
+		String line = null;
+		while((line = in.readLine()) != null && !line.startsWith(name + " has entered"));
+
+		assertNotNull(line, "Not logged in");
+		return in;
+	}
+
+	/**
+	 * Connects to the server, waiting for it to start listening.
+	 *
+	 * @param   port    The port the server is listening on.
+	 * @return  Socket  The connection.
+	 */
+	private Socket connect(int port) throws IOException
+	{
+		long deadline = System.currentTimeMillis() + SLACK_MILLIS;
+
+		while(true)
+		{
+			try
+			{
+				return new Socket("127.0.0.1", port);
+			}
+			catch(ConnectException ce)
+			{
+				if(System.currentTimeMillis() > deadline)
+					throw ce;
+
+				try
+				{
+					Thread.sleep(50);
+				}
+				catch(InterruptedException ie){}
+			}
+		}
+	}
+
+	/**
+	 * Sends one line to the server.
+	 *
+	 * @param  line  The line.
+	 */
+	private void send(String line) throws IOException
+	{
+		OutputStream out = socket.getOutputStream();
+		out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+}